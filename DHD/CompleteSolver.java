@@ -1,27 +1,35 @@
 package DHD;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.IOException;
-import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import DHD.ilp.*;
 import DHD.ds.*;
 import DHD.graph.*;
+import DHD.engine.*;
+import DHD.partition.*;
+import DHD.state.*;
 
 /**
  * @author Joshua A. Campbell
  * Driver for the DHD module.
  * The driver stores some state information in tmp/__state.
  * The state file should be deleted in between runs.
+ * Between the chunks of a -p run the levels are only appended to the
+ * journal of the state store (tmp/__state.journal, see StateStore), and
+ * tmp/__state is brought up to date by the -f merge.
  *
  *
  * The Driver uses the input arguments to formulate an ILP to find the optimal
@@ -51,6 +59,31 @@ import DHD.graph.*;
  * java Driver -i graph -l 4 -n 12 -p out-1.solution
  * -- ILP solver solves problem formulation. --
  *
+ * With -t the Driver splits the ILP into its connected components and
+ * solves them itself, running SCIP on up to 'threads' components at a time.
+ * The solutions are merged into the state file, so no -f step is needed.
+ *
+ * java Driver -i graph -l 4 -t 8
+ *
+ * With -r the Driver runs the whole chunk loop above in one process: the
+ * graph and the levels stay in memory, SCIP is run on each chunk (on its
+ * components if -t is given as well) and the state file is written once at
+ * the end.
+ *
+ * java Driver -i graph -l 4 -r 25
+ *
+ * With -c partition the chunks are not random walks but the parts of a
+ * partition of the graph into parts of -n (or -r) nodes with few edges
+ * between them (see GraphPartitioner). Each call solves the unused nodes of
+ * the first part that has any. The partition only depends on the graph,
+ * the part size and the seed (-s), so -n and -s must stay the same between
+ * calls.
+ *
+ * java Driver -i graph -l 4 -r 25 -c partition -s 7
+ *
+ * With -m mps the ILPs are written in the MPS format (tmp/temp.mps)
+ * instead of the CPLEX LP format (tmp/temp.lp).
+ *
  */
 class CompleteSolver
 {
@@ -64,9 +97,31 @@ class CompleteSolver
     private static int numLevels = DEFAULT;
     // The number of nodes to include this iteration.
     private static int numNodesThisIter = DEFAULT;
+    // The number of components to solve at the same time.
+    private static int numThreads = DEFAULT;
+    // The number of nodes per chunk when every chunk runs in this process.
+    private static int nodesPerRun = DEFAULT;
+    // Whether the ILP uses compact variable names (see ILPModel).
+    private static boolean compactNames = false;
+    // Whether the ILP is written in the MPS format instead of the CPLEX LP
+    // format.
+    private static boolean mpsFormat = false;
+    // The number of threads to render the ILP on.
+    private static int numRenderThreads = 1;
+    // The pool the ILPs are rendered on, created by createFormatter().
+    private static ForkJoinPool renderPool = null;
+    // Whether the chunks are the parts of a GraphPartitioner instead of
+    // random walks.
+    private static boolean partitionChunks = false;
+    // The seed of the partitioner. The same seed gives the same chunks.
+    private static long partitionSeed = 0;
 
     // The 
     private static final String statePath = "tmp" + File.separator + "__state";
+    // The ILP file without its extension, which depends on the format.
+    private static final String ilpPath = "tmp" + File.separator + "temp";
+    // The binary store behind the state file.
+    private static final StateStore stateStore = new StateStore(new File(statePath));
 
     // We do not allow instantiation of a driver.
     private CompleteSolver(){}
@@ -89,11 +144,18 @@ class CompleteSolver
         // Check argument length.
         if (args.length == 0)
         {
-            System.out.println("Usage: java Driver -i graphFile -l numLevels -n numNodes -p prevIter");
+            System.out.println("Usage: java Driver -i graphFile -l numLevels -n numNodes -p prevIter -t threads -v names -m format -g threads -r nodesPerRun -c chunks -s seed");
             System.out.println("\t-i : The input graph file. (required)");
             System.out.println("\t-l : The number of levels in the hierarchical decomposition. (required)");
             System.out.println("\t-n : The number of nodes to select from the orginal graph. (optional)");
             System.out.println("\t-p : The output from the previous iteration. (optional)");
+            System.out.println("\t-t : Solve the components of the ILP with SCIP using this many threads. (optional)");
+            System.out.println("\t-v : The variable names, full or compact (with a dictionary). (optional)");
+            System.out.println("\t-m : The ILP format, lp (tmp/temp.lp) or mps (tmp/temp.mps). (optional)");
+            System.out.println("\t-g : Render the ILP on this many threads. (optional)");
+            System.out.println("\t-r : Solve the whole graph with SCIP in chunks of this many nodes, in this process. (optional)");
+            System.out.println("\t-c : How chunks are chosen, walk (random walks) or partition (graph partitioning). (optional)");
+            System.out.println("\t-s : The seed of the graph partitioning. (optional)");
             System.out.println("Usage: java Driver -f file");
             System.out.println("\t-f : The final output file to merge.");
             return false;
@@ -137,7 +199,12 @@ class CompleteSolver
                     HashMap<String, Integer> prevNodeLevels = new HashMap<String, Integer>();
                     // Read and merge state.
                     readStateFile(prevNodes, prevNodeLevels);
-                    readPrevFile(prevNodeLevels);
+                    ILPSolution solution = readPrevFile(prevNodeLevels);
+                    // Report the objective, which is the penalty of the
+                    // solution.
+                    if (solution.hasObjective())
+                        System.out.println("Objective value: "
+                                + solution.getRoundedObjective());
                     // Save the state.
                     // We pass an empty node as the second param because there
                     // are no new nodes to consider.
@@ -151,6 +218,64 @@ class CompleteSolver
                 case "-n" :
                     numNodesThisIter = Integer.parseInt(param);
                     break;
+                // Argument for the number of solver threads.
+                case "-t" :
+                    numThreads = Integer.parseInt(param);
+                    if (numThreads < 1)
+                    {
+                        System.err.println("-t must be at least 1.");
+                        return false;
+                    }
+                    break;
+                // Argument for the number of nodes per chunk.
+                case "-r" :
+                    nodesPerRun = Integer.parseInt(param);
+                    if (nodesPerRun < 1)
+                    {
+                        System.err.println("-r must be at least 1.");
+                        return false;
+                    }
+                    break;
+                // Argument for the number of threads rendering the ILP.
+                case "-g" :
+                    numRenderThreads = Integer.parseInt(param);
+                    if (numRenderThreads < 1)
+                    {
+                        System.err.println("-g must be at least 1.");
+                        return false;
+                    }
+                    break;
+                // Argument for how the chunks are chosen.
+                case "-c" :
+                    if (!param.equals("walk") && !param.equals("partition"))
+                    {
+                        System.err.println("Unknown chunks: " + param);
+                        return false;
+                    }
+                    partitionChunks = param.equals("partition");
+                    break;
+                // Argument for the seed of the partitioner.
+                case "-s" :
+                    partitionSeed = Long.parseLong(param);
+                    break;
+                // Argument for the variable names of the ILP.
+                case "-v" :
+                    if (!param.equals("full") && !param.equals("compact"))
+                    {
+                        System.err.println("Unknown variable names: " + param);
+                        return false;
+                    }
+                    compactNames = param.equals("compact");
+                    break;
+                // Argument for the format of the ILP.
+                case "-m" :
+                    if (!param.equals("lp") && !param.equals("mps"))
+                    {
+                        System.err.println("Unknown ILP format: " + param);
+                        return false;
+                    }
+                    mpsFormat = param.equals("mps");
+                    break;
                 // Previous iteration file argument.
                 case "-p" :
                     // Test if file exists.
@@ -172,98 +297,345 @@ class CompleteSolver
 
 
     /**
-     * Saves the output to the file at the given location.
+     * Populates the data structure with data about the previous run.
+     * This is necessary since some ILP solver do not output some variables if
+     * their solution is 0.
      *
-     * @param output The string to output.
-     * @param loc The location to save the output to.
+     * The state is read from the state store, which is as new as the state
+     * file or newer (see StateStore).
      */
-    private static void saveOutput(String output, String loc)
+    public static void readStateFile(Set<Node> prevNodes, Map<String,Integer> prevNodeLevels)
     {
-        try (PrintWriter outWriter = new PrintWriter(loc))
+        for (Map.Entry<String,Integer> entry : stateStore.load().entrySet())
         {
-            outWriter.write(output);
-
-            outWriter.close();
+            prevNodes.add(new Node(entry.getKey()));
+            prevNodeLevels.put(entry.getKey(), entry.getValue());
         }
-        catch (FileNotFoundException e)
+    }
+
+    /**
+     * Reads the previous solution file. This updates the data structures with
+     * the optimal solutions found by the ILP solver.
+     *
+     * @return Returns the solution that was read.
+     */
+    public static ILPSolution readPrevFile(Map<String,Integer> prevNodeLevels)
+    {
+        // The solution belongs to the last ILP, which may use compact names.
+        // Only the ILP of the last format is left, see newILPFile(...).
+        File ilp = new File(ilpPath + MPSFormatter.EXTENSION);
+        if (!ilp.exists())
+            ilp = new File(ilpPath + CplexLPFormatter.EXTENSION);
+        ILPOutputReader reader = new ILPOutputReader(prevFile,
+                ILPGenerator.dictionaryFile(ilp));
+        ILPSolution solution = reader.read();
+
+        prevNodeLevels.putAll(solution.getLevels());
+        return solution;
+    }
+
+    /**
+     * Returns the file the ILP is written to in the format of the formatter,
+     * tmp/temp.lp or tmp/temp.mps. The ILP of the other format is deleted
+     * with its dictionary, so the -f merge finds the dictionary of this one.
+     */
+    public static File newILPFile(ILPFormatter formatter)
+    {
+        for (String extension : new String[] { CplexLPFormatter.EXTENSION,
+                MPSFormatter.EXTENSION })
         {
-            System.err.println("Unable to write ILP to file. Outputting to STOUT.");
-            System.err.println(output);
+            if (extension.equals(formatter.getExtension()))
+                continue;
+            File other = new File(ilpPath + extension);
+            other.delete();
+            ILPGenerator.dictionaryFile(other).delete();
         }
+        return new File(ilpPath + formatter.getExtension());
+    }
 
+    /**
+     * Save the current state of the hierarchical decomposition. We need to
+     * save state in case we need to perform multiple iterations to solve the
+     * hierarchical decomposition.
+     *
+     * The whole state file is written, and the state store starts over from
+     * it.
+     */
+    public static void saveState(Map<String,Integer> prev, Set<Node> curr)
+    {
+        List<String> newNodes = new ArrayList<String>(curr.size());
+        for (Node node : curr)
+            newNodes.add(node.getName());
+        stateStore.save(prev, newNodes);
     }
 
     /**
-     * Populates the data structure with data about the previous run.
-     * This is necessary since some ILP solver do not output some variables if
-     * their solution is 0.
+     * Appends the changes of an iteration to the state journal instead of
+     * rewriting the state. The state file is only brought up to date by
+     * the next saveState(...), e.g. the -f merge.
      *
-     * The state file contains one "edge level" per line.
+     * @param levels The levels found by the previous iteration.
+     * @param curr The new nodes of this iteration, which get level 0.
      */
-    public static void readStateFile(Set<Node> prevNodes, Map<String,Integer> prevNodeLevels)
+    private static void appendState(Map<String,Integer> levels, Set<Node> curr)
+    {
+        Map<String,Integer> changes = new HashMap<String,Integer>(levels);
+        for (Node node : curr)
+            changes.put(node.getName(), 0);
+        stateStore.append(changes);
+    }
+
+    /**
+     * Splits the ILP into its connected components and solves them with SCIP
+     * on a pool of numThreads workers. Each component is written to
+     * tmp/temp_i.lp and solved into tmp/temp_i.sol.
+     *
+     * @param edges The edges of the ILP.
+     * @param prevNodeLevels The nodes with a constant level.
+     *
+     * @return Returns the levels of the solved nodes, or null if a
+     * component could not be solved.
+     */
+    private static Map<String,Integer> solveComponents(Set<Edge> edges,
+            final Map<String,Integer> prevNodeLevels)
     {
-        String line;
-        String[] lineObjs;
-        try (BufferedReader input = new BufferedReader(new FileReader(new File(statePath))))
+        List<Set<Edge>> components =
+            new ComponentDecomposer(edges, prevNodeLevels).decompose();
+        System.out.println("Solving " + components.size() + " components with "
+                + numThreads + " threads.");
+
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        List<Future<Map<String,Integer>>> results =
+            new ArrayList<Future<Map<String,Integer>>>();
+
+        for (int index = 0; index < components.size(); index++)
         {
-            // Read the whole file.
-            while ((line = input.readLine()) != null)
-            {
-                lineObjs = line.split("\\s++"); 
-                
-                prevNodes.add(new Node(lineObjs[0]));
-                prevNodeLevels.put(lineObjs[0], Integer.parseInt(lineObjs[1]));
-            }
+            final Set<Edge> component = components.get(index);
+            final String root = "tmp" + File.separator + "temp_" + index;
 
-            input.close();
+            results.add(pool.submit(new Callable<Map<String,Integer>>()
+            {
+                @Override
+                public Map<String,Integer> call()
+                {
+                    ILPFormatter formatter = newFormatter();
+                    File ilp = new File(root + formatter.getExtension());
+                    CompleteILPGenerator gen = new CompleteILPGenerator(component,
+                            prevNodeLevels, formatter, numLevels);
+                    gen.setCompactNames(compactNames);
+                    if (!gen.generate(ilp))
+                        return null;
+
+                    ScipRunner runner = new ScipRunner(ilp,
+                            new File(root + ".sol"));
+                    if (!runner.run())
+                        return null;
+                    return runner.getResults();
+                }
+            }));
         }
-        catch(IOException e)
+        pool.shutdown();
+
+        // Merge the levels of all components.
+        Map<String,Integer> levels = new HashMap<String,Integer>();
+        boolean solved = true;
+        for (int index = 0; index < results.size(); index++)
         {
-            System.err.println(e);
+            try
+            {
+                Map<String,Integer> result = results.get(index).get();
+                if (result == null)
+                {
+                    System.err.println("Unable to solve component " + index);
+                    solved = false;
+                }
+                else
+                    levels.putAll(result);
+            }
+            catch (InterruptedException | ExecutionException e)
+            {
+                System.err.println(e);
+                solved = false;
+            }
         }
 
+        return solved ? levels : null;
     }
 
     /**
-     * Reads the previous solution file. This updates the data structures with
-     * the optimal solutions found by the ILP solver.
+     * Returns the chunker for chunks of chunkSize nodes, see -c.
+     *
+     * @param graph The graph.
+     * @param prev The nodes used in previous iterations.
+     * @param chunkSize The number of nodes per chunk.
      */
-    public static void readPrevFile(Map<String,Integer> prevNodeLevels)
+    private static Chunker createChunker(CompactGraph graph, boolean[] prev,
+            int chunkSize)
     {
-        ILPOutputReader reader = new ILPOutputReader(prevFile); 
+        if (!partitionChunks)
+            return new RandomWalkChunker(graph, prev, chunkSize, new Random());
+
+        GraphPartitioner partitioner = new GraphPartitioner(graph, chunkSize,
+                partitionSeed);
+        int[] partOf = partitioner.partition();
+        System.out.println("Partitioned into " + partitioner.numParts()
+                + " parts, " + partitioner.getCut() + " edges between parts.");
+        return new PartChunker(partOf, partitioner.numParts(), prev);
+    }
 
-        for (Map.Entry<String, Integer> entry : reader.getResults().entrySet())
+    /**
+     * Returns the edges of a chunk: the edges between two of its nodes and
+     * the edges between its nodes and the nodes of previous chunks. Only the
+     * incident edges of the chunk are visited.
+     *
+     * @param graph The graph.
+     * @param chunk The ids of the nodes of the chunk.
+     * @param inChunk Scratch space with room for every id, all false. It is
+     * all false again on return.
+     * @param prev The nodes used in previous chunks.
+     */
+    private static Set<Edge> selectEdges(CompactGraph graph, int[] chunk,
+            boolean[] inChunk, boolean[] prev)
+    {
+        for (int v : chunk)
+            inChunk[v] = true;
+
+        Set<Edge> edges = new HashSet<Edge>();
+        for (int v : chunk)
         {
-            prevNodeLevels.put(entry.getKey(), entry.getValue());
+            // The position of an out entry is the id of its edge.
+            for (int index = graph.outBegin(v); index < graph.outEnd(v); index++)
+            {
+                int to = graph.outTarget(index);
+                if (inChunk[to] || prev[to])
+                    edges.add(graph.getEdge(index));
+            }
+
+            // Edges from inside the chunk were added as out edges.
+            for (int index = graph.inBegin(v); index < graph.inEnd(v); index++)
+                if (prev[graph.inSource(index)])
+                    edges.add(graph.getEdge(graph.inEdge(index)));
         }
+
+        for (int v : chunk)
+            inChunk[v] = false;
+        return edges;
     }
 
     /**
-     * Save the current state of the hierarchical decomposition. We need to
-     * save state in case we need to perform multiple iterations to solve the
-     * hierarchical decomposition.
+     * Solves the ILP of the edges with SCIP, through tmp/temp.lp (or .mps).
+     *
+     * @param edges The edges of the ILP.
+     * @param prevNodeLevels The nodes with a constant level.
+     *
+     * @return Returns the levels of the solved nodes, or null if the ILP
+     * could not be solved.
      */
-    public static void saveState(Map<String,Integer> prev, Set<Node> curr)
+    private static Map<String,Integer> solveChunk(Set<Edge> edges,
+            Map<String,Integer> prevNodeLevels)
     {
-        try (PrintWriter outWriter = new PrintWriter(statePath))
+        ILPFormatter formatter = createFormatter();
+        CompleteILPGenerator gen = new CompleteILPGenerator(edges,
+                prevNodeLevels, formatter, numLevels);
+        gen.setCompactNames(compactNames);
+
+        File lp = newILPFile(formatter);
+        if (!gen.generate(lp))
+            return null;
+
+        ScipRunner runner = new ScipRunner(lp,
+                new File("tmp" + File.separator + "temp.sol"));
+        if (!runner.run())
+            return null;
+        return runner.getResults();
+    }
+
+    /**
+     * Solves the whole graph in chunks of nodesPerRun nodes, as the run
+     * script would with one Driver call per chunk, but without starting a
+     * new process, parsing the graph or reading and writing the state file
+     * for every chunk. Each chunk is solved with SCIP and its levels are
+     * merged into prevNodeLevels, then the state file is written once.
+     *
+     * @param graph The graph.
+     * @param prev The nodes used in previous iterations, updated as the
+     * chunks are solved.
+     * @param prevNodeLevels The levels of the nodes used so far.
+     */
+    private static void solveChunks(CompactGraph graph, boolean[] prev,
+            Map<String,Integer> prevNodeLevels)
+    {
+        int numIds = graph.numIds();
+        Chunker chunker = createChunker(graph, prev, nodesPerRun);
+        boolean[] inChunk = new boolean[numIds];
+
+        for (int chunk = 1; ; chunk++)
         {
+            int[] selected = chunker.nextChunk();
+
+            // Every node has been used.
+            if (selected.length == 0)
+                break;
 
-            for (Map.Entry<String,Integer> entry : prev.entrySet())
-                outWriter.println(entry.getKey() + " " + entry.getValue());
+            Set<Edge> edges = selectEdges(graph, selected, inChunk, prev);
+            System.out.println("Chunk " + chunk + ": " + selected.length
+                    + " nodes, " + edges.size() + " edges.");
 
-            // We write 0 because this node level has not been assigned yet. It
-            // should be updated next iteration as the ILP solution file is read.
-            for (Node node : curr)
-                outWriter.println(node.getName() + " " + 0);
+            Map<String,Integer> levels = numThreads != DEFAULT
+                ? solveComponents(edges, prevNodeLevels)
+                : solveChunk(edges, prevNodeLevels);
+            if (levels == null)
+            {
+                System.err.println("Unable to solve chunk " + chunk
+                        + ", saving the state of the previous chunks.");
+                break;
+            }
 
-            outWriter.close();
+            // SCIP leaves out levels that are 0.
+            for (int v : selected)
+            {
+                prevNodeLevels.put(graph.getName(v), 0);
+                prev[v] = true;
+            }
+            prevNodeLevels.putAll(levels);
         }
-        catch (FileNotFoundException e)
+
+        saveState(prevNodeLevels, new HashSet<Node>());
+
+        // Report the penalty of the hierarchy found so far.
+        int[] levels = new int[numIds];
+        for (int v = 0; v < numIds; v++)
         {
-            System.err.println("Unable to write state file!");
-            System.err.println(e);
+            Integer level = prevNodeLevels.get(graph.getName(v));
+            levels[v] = level == null ? 0 : level;
         }
+        System.out.println("Penalty: " + new PenaltyEvaluator(graph, levels).evaluate());
+    }
+
+    /**
+     * Returns a formatter for the ILP format, see -m.
+     */
+    private static ILPFormatter newFormatter()
+    {
+        return mpsFormat ? new MPSFormatter() : new CplexLPFormatter();
+    }
 
+    /**
+     * Returns the formatter for the ILP, which renders the ILP on a pool
+     * if more than one render thread was asked for.
+     */
+    private static ILPFormatter createFormatter()
+    {
+        ILPFormatter formatter = newFormatter();
+        if (numRenderThreads > 1)
+        {
+            // Every ILP of the run is rendered on the same pool, which is
+            // shut down when the run ends.
+            if (renderPool == null)
+                renderPool = new ForkJoinPool(numRenderThreads);
+            formatter.setPool(renderPool);
+        }
+        return formatter;
     }
 
     /**
@@ -274,6 +646,23 @@ class CompleteSolver
         // Parse command line arguments.
         if (!parseArgs(args)) return;
 
+        try
+        {
+            run();
+        }
+        finally
+        {
+            // Let the render threads go.
+            if (renderPool != null)
+                renderPool.shutdown();
+        }
+    }
+
+    /**
+     * Runs the driver with the parsed arguments.
+     */
+    private static void run()
+    {
         if (graphFile == null || numLevels == DEFAULT)
         {
             System.out.println("-i, -l  parameters are required.");
@@ -290,134 +679,97 @@ class CompleteSolver
 
         // If the previous file flag has been specified, then we need to parse
         // information for the output of the ILP solver.
+        ILPSolution solution = null;
         if (prevFile != null)
         {
             readStateFile(prevNodes, prevNodeLevels);
-            readPrevFile(prevNodeLevels);
+            solution = readPrevFile(prevNodeLevels);
         }
 
         // Reader to read the input graph file.
-        GraphReader reader = new DefaultGraphReader(graphFile);
+        GraphReader reader = GraphReader.open(graphFile);
         
-        // Get the parts of the graph.
-        // These two data structures now contain the complete graph.
-        Set<Node> nodes = reader.getNodes();
-        Set<Edge> edges = reader.getEdges();
-        // Copy nodes.
-        Set<Node> temp = reader.getNodes();
-        temp.retainAll(prevNodes);
-        prevNodes = temp;
+        // The complete graph.
+        CompactGraph graph = CompactGraph.fromReader(reader);
+        int numIds = graph.numIds();
 
-        // Form new edge and node set if necessary.
-        if (numNodesThisIter != DEFAULT)
+        // Mark the nodes of this graph that were used in previous
+        // iterations.
+        boolean[] prev = new boolean[numIds];
+        for (Node node : prevNodes)
         {
-            Random random = new Random();
-
-            // Temporary data structure to hold our current selection of nodes.
-            // These two structures should only hold nodes we have not used in
-            // previous iterations.
-            Set<Node> selectedNodes = new HashSet<Node>();
-            Set<Edge> selectedEdges = new HashSet<Edge>();
-
-            
-            // We remove all nodes that we cannot use in this iteration to give
-            // us a stop condition. This now contains all the nodes that we
-            // have not used in previous iterations.
-            Set<Node> unusedNodes = new HashSet<Node>();
-            unusedNodes.addAll(nodes);
-            unusedNodes.removeAll(prevNodes);
-
-            // A list of all the unused nodes.
-            ArrayList<Node> unusedNodesList;
-
-            // The set of neighbors that we are allowed to choose from on our
-            // random walk of the graph.
-            Set<Node> neighborSet = new HashSet<Node>();
-            // Initialize neighborSet with the neighbors of all the
-            // previously visited nodes.
-            for (Node prev : prevNodes)
-                neighborSet.addAll(prev.getNeighbors());
-            neighborSet.removeAll(prevNodes);
-
-
-            // If necessary, select an inital neighbor.
-            // This will be necessary during the first iteration.
-            if (neighborSet.isEmpty())
-            {
-                 unusedNodesList = new ArrayList<Node>(unusedNodes);
-
-                int startIndex = random.nextInt(unusedNodesList.size());
-                Node randomNode = unusedNodesList.get(startIndex);
-                
-                // This node is no longer unused.
-                unusedNodes.remove(randomNode);
-
-                // Add the random node to our current set.
-                selectedNodes.add(randomNode);
-
-                // Add the nodes neighbor's to the neighbor set.
-                neighborSet.addAll(randomNode.getNeighbors());
-                // Remove neighbors we have already visited.
-                neighborSet.retainAll(unusedNodes);
-
-                numNodesThisIter--;
-            }
-
-            unusedNodesList = new ArrayList<Node>(neighborSet);
-
-            // TODO Smart stop if numNodesThisIter > nodes.size()
-            // Random walk the graph to select new nodes for next node selection.
-            while (numNodesThisIter > 0 && !unusedNodesList.isEmpty())
-            {
-                // Select a node from the unused nodes.
-                int startIndex = random.nextInt(unusedNodesList.size());
-                Node randomNode = unusedNodesList.get(startIndex);
-
-                // This node is no longer unused.
-                unusedNodes.remove(randomNode);
-                unusedNodesList.remove(randomNode);
+            int id = graph.getId(node.getName());
+            if (id != -1)
+                prev[id] = true;
+        }
 
-                // Add the random node to our current set.
-                selectedNodes.add(randomNode);
+        // The nodes and edges to consider this iteration.
+        Set<Node> nodes;
+        Set<Edge> edges;
 
-                // Add the nodes neighbor's to the neighbor set.
-                neighborSet.addAll(randomNode.getNeighbors());
-                // Remove neighbors we have already visited and update our list
-                // if necessary.
-                neighborSet.retainAll(unusedNodes);
+        // Run every chunk in this process.
+        if (nodesPerRun != DEFAULT)
+        {
+            solveChunks(graph, prev, prevNodeLevels);
+            return;
+        }
 
-                unusedNodesList = new ArrayList<Node>(neighborSet);
+        // Form new edge and node set if necessary.
+        if (numNodesThisIter != DEFAULT)
+        {
+            int[] selected = createChunker(graph, prev, numNodesThisIter)
+                .nextChunk();
+            edges = selectEdges(graph, selected, new boolean[numIds], prev);
+
+            // Finalize our node selection.
+            nodes = new HashSet<Node>();
+            for (int v : selected)
+                nodes.add(graph.getNode(v));
+        }
+        else
+        {
+            nodes = graph.getNodes();
+            edges = graph.getEdges();
+        }
 
-                numNodesThisIter--;
-            }
+        // Write state file. After a previous iteration only the levels it
+        // found and the new nodes are appended to the state journal.
+        if (solution != null)
+            appendState(solution.getLevels(), nodes);
+        else saveState(prevNodeLevels, nodes);
 
-            // Add all edges connecting all the new nodes and connecting
-            // all the new nodes to the old nodes to the edge set.
+        // Solve the components ourselves and merge them into the state.
+        if (numThreads != DEFAULT)
+        {
+            Map<String,Integer> levels = solveComponents(edges, prevNodeLevels);
+            if (levels == null)
+                return;
+
+            // SCIP leaves out levels that are 0, those stay 0 from the
+            // state written above.
+            for (Node node : nodes)
+                prevNodeLevels.put(node.getName(), 0);
+            prevNodeLevels.putAll(levels);
+            saveState(prevNodeLevels, new HashSet<Node>());
+
+            // Report the penalty of the merged hierarchy.
+            int penalty = 0;
             for (Edge edge : edges)
-            {
-                if (selectedNodes.contains(edge.getFrom()) && selectedNodes.contains(edge.getTo()))
-                    selectedEdges.add(edge);
-                else if (selectedNodes.contains(edge.getFrom()) && prevNodes.contains(edge.getTo()))
-                    selectedEdges.add(edge);
-                else if (prevNodes.contains(edge.getFrom()) && selectedNodes.contains(edge.getTo()))
-                    selectedEdges.add(edge);
-            }
-            
-            // Finalize our node and edge selection.
-            nodes = selectedNodes;
-            edges = selectedEdges;
+                if (prevNodeLevels.get(edge.getTo().getName())
+                        >= prevNodeLevels.get(edge.getFrom().getName()))
+                    penalty++;
+            System.out.println("Penalty: " + penalty);
+            return;
         }
-
-        // Write state file.
-        saveState(prevNodeLevels, nodes);
-
        
         // Initialize the LP generator.
+        ILPFormatter formatter = createFormatter();
         CompleteILPGenerator gen = new CompleteILPGenerator(edges, 
-                prevNodeLevels, new CplexLPFormatter(), numLevels);
+                prevNodeLevels, formatter, numLevels);
 
         // Generate the ILP.
-        String ilp = gen.generate();
-        saveOutput(ilp, "tmp/temp.lp");
+        gen.setCompactNames(compactNames);
+        gen.generate(newILPFile(formatter));
+        System.out.println(gen.getPresolver().getReport());
     }
 }
@@ -0,0 +1,117 @@
+package DHD;
+
+import java.io.File;
+
+import DHD.ds.*;
+import DHD.graph.*;
+
+/**
+ * @author Joshua A. Campbell
+ *
+ * Converts graphs between the plain text edge pair format and the compact
+ * binary format (see BinaryGraphWriter). The input format is detected from
+ * the file header. Every tool that reads a graph accepts either format.
+ *
+ * Usage:
+ *  java -cp DHD.jar DHD.GraphConverter -i graph -o output -f format
+ *
+ *  @param i The input graph.
+ *  @param o The output file.
+ *  @param f The output format, "binary" (default) or "text".
+ */
+public class GraphConverter
+{
+    private static File inputFile = null;
+    private static File outputFile = null;
+    private static boolean binary = true;
+
+    // We do not allow instantiation of a driver.
+    private GraphConverter(){}
+
+    /**
+     * Parses the input arguments.
+     *
+     * @param args The arguments to parse.
+     *
+     * @return Returns true if the arguments were successfully parsed.
+     */
+    private static boolean parseArgs(String[] args)
+    {
+        // Print a usage message if there are no arguments.
+        if (args.length == 0)
+        {
+            System.err.println("Usage: java -cp DHD.jar DHD.GraphConverter -i input -o output -f format");
+            System.err.println("\t-i: The input graph file. (required)");
+            System.err.println("\t-o: The output graph file. (required)");
+            System.err.println("\t-f: The output format, binary or text. (optional, default binary)");
+            return false;
+        }
+
+        // Check to make sure that we have a parameter for each flag.
+        if (args.length % 2 != 0)
+        {
+            System.err.println("Each flag must have an argument.");
+            return false;
+        }
+
+        // Since all of our arguments are preceeded by flags, we will switch on
+        // the flag.
+        for (int index = 0; index < args.length; index += 2)
+        {
+            String param = args[index + 1];
+
+            switch (args[index])
+            {
+                case "-i":
+                    inputFile = new File(param);
+                    if (!inputFile.exists())
+                    {
+                        System.err.println("File does not exist: " +  param);
+                        return false;
+                    }
+                    break;
+                case "-o":
+                    outputFile = new File(param);
+                    break;
+                case "-f":
+                    if (param.equals("binary"))
+                        binary = true;
+                    else if (param.equals("text"))
+                        binary = false;
+                    else
+                    {
+                        System.err.println("Unknown format: " + param);
+                        return false;
+                    }
+                    break;
+                default:
+                    System.err.println("Illegal flag: " + args[index]);
+                    return false;
+            }
+        }
+
+        // One final check to ensure that all the parameters have been set.
+        if (inputFile == null || outputFile == null)
+            return false;
+
+        return true;
+    }
+
+    /**
+     * This class will start execuation here.
+     */
+    public static void main(String[] args)
+    {
+        // Parse the command line arguments.
+        if (!parseArgs(args)) return;
+
+        GraphReader reader = GraphReader.open(inputFile);
+
+        GraphWriter writer;
+        if (binary)
+            writer = new BinaryGraphWriter(CompactGraph.fromReader(reader), outputFile);
+        else
+            writer = new DefaultGraphWriter(reader.edgeView(), outputFile);
+        writer.write();
+    }
+}
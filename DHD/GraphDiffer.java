@@ -0,0 +1,161 @@
+package DHD;
+
+import java.io.File;
+
+import DHD.ds.*;
+import DHD.graph.*;
+
+/**
+ * @author Joshua A. Campbell
+ *
+ * Reports the edges added and removed between two revisions of a graph (see
+ * GraphDiff) and, if asked for, writes them as an edge delta that can be
+ * passed to PartialSolver -e instead of the previous graph.
+ *
+ * Graphs that do not fit in memory are diffed out of core with -x, which
+ * sorts them on disk (see ExternalGraphDiff). The delta is then streamed to
+ * the output file, which is required.
+ *
+ * Usage:
+ *  java -cp DHD.jar DHD.GraphDiffer -d previous -i current -t threads -o out
+ *  java -cp DHD.jar DHD.GraphDiffer -d previous -i current -x scratch -o out
+ *
+ *  @param d The previous graph.
+ *  @param i The current graph.
+ *  @param t The number of threads to diff with. (optional)
+ *  @param o The file to write the delta to, in the DeltaWriter format.
+ *  (optional, required with -x)
+ *  @param x The directory for the sorted runs of an out of core diff.
+ *  (optional)
+ */
+public class GraphDiffer
+{
+    private static File prevFile = null;
+    private static File inputFile = null;
+    private static File outputFile = null;
+    private static File scratchDir = null;
+    private static int numThreads = Runtime.getRuntime().availableProcessors();
+
+    // We do not allow instantiation of a driver.
+    private GraphDiffer(){}
+
+    /**
+     * Parses the input arguments.
+     *
+     * @param args The arguments to parse.
+     *
+     * @return Returns true if the arguments were successfully parsed.
+     */
+    private static boolean parseArgs(String[] args)
+    {
+        // Print a usage message if there are no arguments.
+        if (args.length == 0)
+        {
+            System.err.println("Usage: java -cp DHD.jar DHD.GraphDiffer -d previous -i input -t threads -o out");
+            System.err.println("\t-d: The previous graph file. (required)");
+            System.err.println("\t-i: The input graph file. (required)");
+            System.err.println("\t-t: The number of threads to diff with. (optional)");
+            System.err.println("\t-o: The file to write the delta to. (required with -x)");
+            System.err.println("\t-x: Diff out of core with sorted runs in this directory. (optional)");
+            return false;
+        }
+
+        // Check to make sure that we have a parameter for each flag.
+        if (args.length % 2 != 0)
+        {
+            System.err.println("Each flag must have an argument.");
+            return false;
+        }
+
+        // Since all of our arguments are preceeded by flags, we will switch on
+        // the flag.
+        for (int index = 0; index < args.length; index += 2)
+        {
+            String param = args[index + 1];
+
+            switch (args[index])
+            {
+                case "-d":
+                    prevFile = new File(param);
+                    if (!prevFile.exists())
+                    {
+                        System.err.println("File does not exist: " +  param);
+                        return false;
+                    }
+                    break;
+                case "-i":
+                    inputFile = new File(param);
+                    if (!inputFile.exists())
+                    {
+                        System.err.println("File does not exist: " +  param);
+                        return false;
+                    }
+                    break;
+                case "-t":
+                    numThreads = Integer.parseInt(param);
+                    if (numThreads < 1)
+                    {
+                        System.err.println("-t must be at least 1.");
+                        return false;
+                    }
+                    break;
+                case "-o":
+                    outputFile = new File(param);
+                    break;
+                case "-x":
+                    scratchDir = new File(param);
+                    break;
+                default:
+                    System.err.println("Illegal flag: " + args[index]);
+                    return false;
+            }
+        }
+
+        // One final check to ensure that all the parameters have been set.
+        if (prevFile == null || inputFile == null)
+            return false;
+        if (scratchDir != null && outputFile == null)
+        {
+            System.err.println("-x requires the output file (-o).");
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * This class will start execuation here.
+     */
+    public static void main(String[] args)
+    {
+        // Parse the command line arguments.
+        if (!parseArgs(args)) return;
+
+        if (scratchDir != null)
+        {
+            ExternalGraphDiff differ = new ExternalGraphDiff(scratchDir);
+            if (!differ.diffFiles(prevFile, inputFile, outputFile))
+                return;
+
+            System.out.println("Added: " + differ.getNumAdded() + " edges");
+            System.out.println("Removed: " + differ.getNumRemoved() + " edges");
+            return;
+        }
+
+        // Both graphs share the index, so a node has the same id in both.
+        NameIndex names = new NameIndex();
+        CompactGraph prevGraph = CompactGraph.fromReader(
+                GraphReader.open(prevFile), names);
+        CompactGraph currGraph = CompactGraph.fromReader(
+                GraphReader.open(inputFile), names);
+
+        GraphDiff diff = GraphDiff.diff(prevGraph, currGraph, numThreads);
+
+        System.out.println("Added: " + diff.getAdded().length + " edges");
+        System.out.println("Removed: " + diff.getRemoved().length + " edges");
+
+        // Write the delta out.
+        if (outputFile != null)
+            new DeltaWriter(diff.toDelta(names), outputFile).write();
+    }
+}
@@ -0,0 +1,126 @@
+package DHD;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import DHD.ds.*;
+import DHD.engine.*;
+import DHD.graph.*;
+
+/**
+ * @author Joshua A. Campbell
+ *
+ * Finds a hierarchy for the whole graph heuristically, without an ILP (see
+ * GreedyHierarchySolver). It is meant for graphs that are too large for
+ * HIDEN, even in chunks.
+ *
+ * The result is written to tmp/__state in the same format as a merged HIDEN
+ * solution, so PartialSolver can continue from it. The penalty of the
+ * hierarchy is printed so it can be compared with HIDEN's.
+ *
+ * Usage:
+ *  java -cp DHD.jar DHD.HeuristicSolver -i graph -l levels -r rounds
+ *
+ *  @param i The input graph.
+ *  @param l The number of levels in the hierarchy.
+ *  @param r The maximum number of refinement rounds. (optional)
+ */
+public class HeuristicSolver
+{
+    private static File inputFile = null;
+    private static int numLevels = -1;
+    private static int maxRounds = GreedyHierarchySolver.DEFAULT_MAX_ROUNDS;
+
+    // We do not allow instantiation of a driver.
+    private HeuristicSolver(){}
+
+    /**
+     * Parses the input arguments.
+     *
+     * @param args The arguments to parse.
+     *
+     * @return Returns true if the arguments were successfully parsed.
+     */
+    private static boolean parseArgs(String[] args)
+    {
+        // Print a usage message if there are no arguments.
+        if (args.length == 0)
+        {
+            System.err.println("Usage: java -cp DHD.jar DHD.HeuristicSolver -i input -l levels -r rounds");
+            System.err.println("\t-i: The input graph file. (required)");
+            System.err.println("\t-l: The number of levels in the hierarchy. (required)");
+            System.err.println("\t-r: The maximum number of refinement rounds. (optional, default "
+                    + GreedyHierarchySolver.DEFAULT_MAX_ROUNDS + ")");
+            return false;
+        }
+
+        // Check to make sure that we have a parameter for each flag.
+        if (args.length % 2 != 0)
+        {
+            System.err.println("Each flag must have an argument.");
+            return false;
+        }
+
+        // Since all of our arguments are preceeded by flags, we will switch on
+        // the flag.
+        for (int index = 0; index < args.length; index += 2)
+        {
+            String param = args[index + 1];
+
+            switch (args[index])
+            {
+                case "-i":
+                    inputFile = new File(param);
+                    if (!inputFile.exists())
+                    {
+                        System.err.println("File does not exist: " +  param);
+                        return false;
+                    }
+                    break;
+                case "-l":
+                    numLevels = Integer.parseInt(param);
+                    break;
+                case "-r":
+                    maxRounds = Integer.parseInt(param);
+                    break;
+                default:
+                    System.err.println("Illegal flag: " + args[index]);
+                    return false;
+            }
+        }
+
+        // One final check to ensure that all the parameters have been set.
+        if (inputFile == null || numLevels < 1)
+            return false;
+
+        return true;
+    }
+
+    /**
+     * This class will start execuation here.
+     */
+    public static void main(String[] args)
+    {
+        // Parse the command line arguments.
+        if (!parseArgs(args)) return;
+
+        CompactGraph graph = CompactGraph.fromReader(GraphReader.open(inputFile));
+
+        GreedyHierarchySolver solver = new GreedyHierarchySolver(graph, numLevels);
+        solver.setMaxRounds(maxRounds);
+        int[] levels = solver.solve();
+
+        // Save the hierarchy as the state.
+        Map<String,Integer> state = new HashMap<String,Integer>();
+        for (int v = 0; v < graph.numIds(); v++)
+            if (graph.contains(v))
+                state.put(graph.getName(v), levels[v]);
+        CompleteSolver.saveState(state, new HashSet<Node>());
+
+        System.out.println("Refinement rounds: " + solver.getNumRounds());
+        System.out.println("Penalty: " + GreedyHierarchySolver.penalty(graph, levels)
+                + " of " + graph.numEdges() + " edges");
+    }
+}
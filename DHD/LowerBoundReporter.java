@@ -0,0 +1,124 @@
+package DHD;
+
+import java.io.File;
+
+import DHD.ds.*;
+import DHD.engine.*;
+import DHD.graph.*;
+
+/**
+ * @author Joshua A. Campbell
+ *
+ * Reports a lower bound on the minimum penalty of a graph (see
+ * CyclePackingBound), and the optimality gap of a ranking if one is given.
+ * This measures the quality of an incremental result without running HIDEN
+ * on the whole graph.
+ *
+ * Usage:
+ *  java -cp DHD.jar DHD.LowerBoundReporter -i graph -l levels -p ranking
+ *
+ *  @param i The input graph.
+ *  @param l The number of levels in the hierarchy.
+ *  @param p A ranking in the state file format, e.g. tmp/__state. (optional)
+ */
+public class LowerBoundReporter
+{
+    private static File inputFile = null;
+    private static File rankingFile = null;
+    private static int numLevels = -1;
+
+    // We do not allow instantiation of a driver.
+    private LowerBoundReporter(){}
+
+    /**
+     * Parses the input arguments.
+     *
+     * @param args The arguments to parse.
+     *
+     * @return Returns true if the arguments were successfully parsed.
+     */
+    private static boolean parseArgs(String[] args)
+    {
+        // Print a usage message if there are no arguments.
+        if (args.length == 0)
+        {
+            System.err.println("Usage: java -cp DHD.jar DHD.LowerBoundReporter -i input -l levels -p ranking");
+            System.err.println("\t-i: The input graph file. (required)");
+            System.err.println("\t-l: The number of levels in the hierarchy. (required)");
+            System.err.println("\t-p: A ranking of the graph to report the gap of. (optional)");
+            return false;
+        }
+
+        // Check to make sure that we have a parameter for each flag.
+        if (args.length % 2 != 0)
+        {
+            System.err.println("Each flag must have an argument.");
+            return false;
+        }
+
+        // Since all of our arguments are preceeded by flags, we will switch on
+        // the flag.
+        for (int index = 0; index < args.length; index += 2)
+        {
+            String param = args[index + 1];
+
+            switch (args[index])
+            {
+                case "-i":
+                    inputFile = new File(param);
+                    if (!inputFile.exists())
+                    {
+                        System.err.println("File does not exist: " +  param);
+                        return false;
+                    }
+                    break;
+                case "-p":
+                    rankingFile = new File(param);
+                    if (!rankingFile.exists())
+                    {
+                        System.err.println("File does not exist: " +  param);
+                        return false;
+                    }
+                    break;
+                case "-l":
+                    numLevels = Integer.parseInt(param);
+                    break;
+                default:
+                    System.err.println("Illegal flag: " + args[index]);
+                    return false;
+            }
+        }
+
+        // One final check to ensure that all the parameters have been set.
+        if (inputFile == null || numLevels < 1)
+            return false;
+
+        return true;
+    }
+
+    /**
+     * This class will start execuation here.
+     */
+    public static void main(String[] args)
+    {
+        // Parse the command line arguments.
+        if (!parseArgs(args)) return;
+
+        CompactGraph graph = CompactGraph.fromReader(GraphReader.open(inputFile));
+
+        CyclePackingBound bound = new CyclePackingBound(graph, numLevels);
+        int lowerBound = bound.compute();
+        System.out.println(bound.getReport());
+
+        if (rankingFile == null)
+            return;
+
+        // Nodes missing from the ranking get level 0.
+        int penalty = new PenaltyEvaluator(graph,
+                PenaltyEvaluator.readRanking(graph, rankingFile, null)).evaluate();
+        System.out.println("Penalty: " + penalty);
+        System.out.println("Gap: " + (penalty - lowerBound)
+                + (penalty == 0 ? "" : String.format(" (%.2f%%)",
+                        100.0 * (penalty - lowerBound) / penalty)));
+    }
+}
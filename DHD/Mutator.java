@@ -1,7 +1,6 @@
 package DHD;
 
 import java.io.File;
-import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Random;
 import java.util.Set;
@@ -17,17 +16,19 @@ import DHD.graph.*;
  * i != j != u != v and replace them with edges (i,v) and (u,j).
  *
  * Usage:
- *  java -cp DHD.jar DHD.Mutator -i graph -o output -n numEdges
+ *  java -cp DHD.jar DHD.Mutator -i graph -o output -n numEdges -e delta
  *
  *  @param i The input graph.
  *  @param o The output file.
  *  @param n The number of edges to mutate.
+ *  @param e The output file for the edge delta (optional).
  */
 public class Mutator
 {
     private static File inputFile = null;
     private static File outputFile = null;
     private static int numEdges = -1;
+    private static File deltaFile = null;
 
 
     // We do not allow instantiation of a driver.
@@ -45,10 +46,11 @@ public class Mutator
         // Print a usage message if there are no arguments.
         if (args.length == 0)
         {
-            System.err.println("Usage: java -cp DHD.jar DHD.Mutator -i input -o output -n numEdges");
+            System.err.println("Usage: java -cp DHD.jar DHD.Mutator -i input -o output -n numEdges -e delta");
             System.err.println("\t-i: The input graph file. (required)");
             System.err.println("\t-o: the output for the mutated graph. (required)");
             System.err.println("\t-n: The number of edges to mutate. (required)");
+            System.err.println("\t-e: The output for the edge delta. (optional)");
             return false;
         }
 
@@ -81,6 +83,9 @@ public class Mutator
                 case "-n":
                     numEdges = Integer.parseInt(param);
                     break;
+                case "-e":
+                    deltaFile = new File(param);
+                    break;
                 default:
                     System.err.println("Illegal flag: " + args[index]);
                     return false;
@@ -94,6 +99,20 @@ public class Mutator
         return true;
     }
 
+    /**
+     * Records a single edge change. If the edge undoes an earlier change, the
+     * two changes cancel out.
+     *
+     * @param edge The packed edge that changed.
+     * @param into The set the change belongs to (added or removed).
+     * @param opposite The set holding the opposite changes.
+     */
+    private static void trackChange(long edge, LongHashSet into, LongHashSet opposite)
+    {
+        if (!opposite.remove(edge))
+            into.add(edge);
+    }
+
     /**
      * This class will start execuation here.
      */
@@ -102,60 +121,106 @@ public class Mutator
         // Parse the command line arguments.
         if (!parseArgs(args)) return;
 
-        // Read the original graph and get the nodes and edges.
-        GraphReader reader = new DefaultGraphReader(inputFile);
-        Set<Node> origNodes = reader.getNodes();
-        Set<Edge> origEdges = reader.getEdges();
+        // Read the original graph.
+        GraphReader reader = GraphReader.open(inputFile);
+        CompactGraph graph = CompactGraph.fromReader(reader);
 
-        // Create a new copy of the edges that we can easily modify.
-        ArrayList<Edge> newEdges = new ArrayList<Edge>(origEdges);
+        // Pack the edges so we can easily modify them and test whether an
+        // edge already exists in constant time.
+        int totalEdges = graph.numEdges();
+        long[] newEdges = new long[totalEdges];
+        LongHashSet edgeSet = new LongHashSet(totalEdges);
+        for (int e = 0; e < totalEdges; e++)
+        {
+            newEdges[e] = LongHashSet.pack(graph.edgeFrom(e), graph.edgeTo(e));
+            edgeSet.add(newEdges[e]);
+        }
+
+        // The net change to the original graph. An edge that is swapped out
+        // again after being added cancels out.
+        LongHashSet added = new LongHashSet();
+        LongHashSet removed = new LongHashSet();
+
+        Random random = new Random();
 
-        int totalEdges = origEdges.size();
         // Mutate some of the edges in the graph until we have satisfied the
         // edge requirement.
         while(numEdges > 0)
         {
-            Random random = new Random();
-
             int index1 = random.nextInt(totalEdges);
             int index2 = random.nextInt(totalEdges);
             
-            Edge edge1 = newEdges.get(index1);
-            Edge edge2 = newEdges.get(index2);
+            int from1 = LongHashSet.from(newEdges[index1]);
+            int to1 = LongHashSet.to(newEdges[index1]);
+            int from2 = LongHashSet.from(newEdges[index2]);
+            int to2 = LongHashSet.to(newEdges[index2]);
 
             // Enforce that given two edges (i,j) and (u,v), i != j != u != v.
-            if ( edge1.getFrom().equals(edge2.getFrom()) )
-                continue;
-            if ( edge1.getTo().equals(edge2.getTo()) )
-                continue;
-            if ( edge1.getFrom().equals(edge2.getTo()) )
-                continue;
-            if ( edge1.getTo().equals(edge2.getFrom()) )
+            if (from1 == from2 || to1 == to2 || from1 == to2 || to1 == from2)
                 continue;
 
             // Form the new edges.
-            Edge newEdge1 = new Edge(edge1.getFrom(), edge2.getTo());
-            Edge newEdge2 = new Edge(edge2.getFrom(), edge1.getTo());
+            long newEdge1 = LongHashSet.pack(from1, to2);
+            long newEdge2 = LongHashSet.pack(from2, to1);
 
             // Make sure the new edges don't exist already.
-            if (newEdges.contains(newEdge1) || newEdges.contains(newEdge2))
+            if (edgeSet.contains(newEdge1) || edgeSet.contains(newEdge2))
                 continue;
 
-            // Remove the old edges from the graph.
-            newEdges.remove(edge1);
-            newEdges.remove(edge2);
-
-            // Add the two new edges to the graph.
-            newEdges.add(newEdge1);
-            newEdges.add(newEdge2);
+            // Replace the old edges with the new edges.
+            edgeSet.remove(newEdges[index1]);
+            edgeSet.remove(newEdges[index2]);
+            edgeSet.add(newEdge1);
+            edgeSet.add(newEdge2);
+            newEdges[index1] = newEdge1;
+            newEdges[index2] = newEdge2;
 
+            // Update the net change.
+            trackChange(LongHashSet.pack(from1, to1), removed, added);
+            trackChange(LongHashSet.pack(from2, to2), removed, added);
+            trackChange(newEdge1, added, removed);
+            trackChange(newEdge2, added, removed);
 
             numEdges--;
         }
 
-        // Output the mutated graph.
-        GraphWriter writer = new DefaultGraphWriter(new HashSet<Edge>(newEdges), outputFile);
+        // Output the mutated graph in the same format as the input graph.
+        GraphWriter writer;
+        if (BinaryGraphReader.isBinaryGraph(inputFile))
+        {
+            int[] from = new int[totalEdges];
+            int[] to = new int[totalEdges];
+            for (int e = 0; e < totalEdges; e++)
+            {
+                from[e] = LongHashSet.from(newEdges[e]);
+                to[e] = LongHashSet.to(newEdges[e]);
+            }
+            writer = new BinaryGraphWriter(new CompactGraph(
+                        graph.getNameIndex(), from, to, totalEdges), outputFile);
+        }
+        else
+        {
+            // Convert the edges back to named edges.
+            Set<Edge> outEdges = new HashSet<Edge>();
+            for (long edge : newEdges)
+                outEdges.add(new Edge(graph.getNode(LongHashSet.from(edge)),
+                            graph.getNode(LongHashSet.to(edge))));
+            writer = new DefaultGraphWriter(outEdges, outputFile);
+        }
         writer.write();
+
+        // Output the edge delta if requested.
+        if (deltaFile != null)
+        {
+            EdgeDelta delta = new EdgeDelta();
+            for (long edge : added.toArray())
+                delta.addAdded(new Edge(graph.getNode(LongHashSet.from(edge)),
+                            graph.getNode(LongHashSet.to(edge))));
+            for (long edge : removed.toArray())
+                delta.addRemoved(new Edge(graph.getNode(LongHashSet.from(edge)),
+                            graph.getNode(LongHashSet.to(edge))));
+            new DeltaWriter(delta, deltaFile).write();
+        }
     }
 
 }
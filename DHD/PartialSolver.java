@@ -2,20 +2,19 @@ package DHD;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.util.Arrays;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 import DHD.ds.*;
 import DHD.graph.*;
+import DHD.engine.*;
 import DHD.ilp.*;
 
 /**
@@ -24,22 +23,63 @@ import DHD.ilp.*;
  * Partially solves a graph hierarchy given a previous vertex ranking, the new
  * graph to solve, and the edges that have changed since the previous ranking.
  *
- * The
+ * The changed edges are either found by comparing the previous graph with
+ * the new graph, or read from an edge delta file (see DeltaWriter). With a
+ * delta file, only one graph needs to be read: the new graph, or the
+ * previous graph which the delta is applied to. Nodes of the new graph
+ * that have no previous level are treated as changed.
  *
  * Usage:
- *  java -cp DHD.jar DHD.PartialSolver -i graphFile -p prevRanking -d newEdges
- *      -k size -l levels
+ *  java -cp DHD.jar DHD.PartialSolver -i graphFile -p prevRanking -d prevGraph
+ *      -k size -c change -l levels
+ *  java -cp DHD.jar DHD.PartialSolver -i graphFile -p prevRanking -e delta
+ *      -k size -c change -l levels
+ *  java -cp DHD.jar DHD.PartialSolver -d prevGraph -p prevRanking -e delta
+ *      -k size -c change -l levels
  *
- *  The format for the edge diff file should be:
+ * For graphs that do not fit in memory, -x scratchDir diffs the graphs out
+ * of core (see ExternalGraphDiff) and only loads the edges that touch the
+ * neighborhoods of the changed nodes. The current graph (-i) is then
+ * required, and the delta is kept in tmp/delta.
+ *
+ * With -m mps the ILP is written to tmp/temp.mps instead of tmp/temp.lp.
+ *
+ *  The format for the edge delta file is:
+ *      + from to
+ *      - from to
  */
 public class PartialSolver
 {
     private static File inputFile = null;
     private static File prevRankingFile = null;
     private static File prevGraphFile = null;
+    private static File deltaFile = null;
     private static int neighborhoodSize = -1;
     private static int levelChange = -1;
     private static int numLevels = -1;
+    // The solver: "scip" writes the ILP for SCIP, "java" solves it here.
+    private static String solver = "scip";
+    // Whether the ILP uses compact variable names (see ILPModel).
+    private static boolean compactNames = false;
+    // Whether the ILP is written in the MPS format instead of the CPLEX LP
+    // format.
+    private static boolean mpsFormat = false;
+    // The number of threads to render the ILP on.
+    private static int numRenderThreads = 1;
+    // The pool the ILPs are rendered on, created by createFormatter().
+    private static ForkJoinPool renderPool = null;
+    // The directory for the sorted runs of the out of core mode, or null.
+    private static File scratchDir = null;
+
+    // The edges between unmodified nodes that the out of core mode did not
+    // load, and the number of them that are violated.
+    private static int numOutsideEdges = 0;
+    private static int outsidePenalty = 0;
+
+    // The start solution for the generated ILP.
+    private static final String startPath = "tmp" + File.separator + "start.sol";
+    // The edge delta found by the out of core mode.
+    private static final String deltaPath = "tmp" + File.separator + "delta";
 
     // We do not allow instantiation of this class.
     private PartialSolver(){}
@@ -57,12 +97,18 @@ public class PartialSolver
         if (args.length == 0)
         {
             System.err.println("Usage: java -cp DHD.jar DHD.PartialSolver [params]");
-            System.err.println("\t-i: The input graph file. (required)");
+            System.err.println("\t-i: The input graph file. (required unless -d and -e are given)");
             System.err.println("\t-p: The ranking file for the previous graph. (required)");
-            System.err.println("\t-d: The previous graph file. (required)");
+            System.err.println("\t-d: The previous graph file. (required unless -i and -e are given)");
+            System.err.println("\t-e: The edge delta from the previous graph. (optional)");
             System.err.println("\t-k: The neighborhood size to consider. (required)");
             System.err.println("\t-c: The max levels a dynamic node can move up or down the hierarchy. (required)");
             System.err.println("\t-l: The number of levels in the original graph.");
+            System.err.println("\t-s: The solver, scip (write tmp/temp.lp, see -m) or java (solve in memory). (optional)");
+            System.err.println("\t-v: The variable names, full or compact (with a dictionary). (optional)");
+            System.err.println("\t-m: The ILP format, lp (tmp/temp.lp) or mps (tmp/temp.mps). (optional)");
+            System.err.println("\t-g: Render the ILP on this many threads. (optional)");
+            System.err.println("\t-x: Diff out of core with sorted runs in this directory, and only load the changed neighborhoods. (optional)");
             return false;
         }
 
@@ -106,6 +152,14 @@ public class PartialSolver
                         return false;
                     }
                     break;
+                case "-e":
+                    deltaFile = new File(param);
+                    if (!deltaFile.exists())
+                    {
+                        System.err.println("File does not exist: " +  param);
+                        return false;
+                    }
+                    break;
                 case "-k":
                     neighborhoodSize = Integer.parseInt(param);
                     break;
@@ -115,6 +169,41 @@ public class PartialSolver
                 case "-l":
                     numLevels = Integer.parseInt(param);
                     break;
+                case "-s":
+                    solver = param;
+                    if (!solver.equals("scip") && !solver.equals("java"))
+                    {
+                        System.err.println("Unknown solver: " + param);
+                        return false;
+                    }
+                    break;
+                case "-g":
+                    numRenderThreads = Integer.parseInt(param);
+                    if (numRenderThreads < 1)
+                    {
+                        System.err.println("-g must be at least 1.");
+                        return false;
+                    }
+                    break;
+                case "-v":
+                    if (!param.equals("full") && !param.equals("compact"))
+                    {
+                        System.err.println("Unknown variable names: " + param);
+                        return false;
+                    }
+                    compactNames = param.equals("compact");
+                    break;
+                case "-m":
+                    if (!param.equals("lp") && !param.equals("mps"))
+                    {
+                        System.err.println("Unknown ILP format: " + param);
+                        return false;
+                    }
+                    mpsFormat = param.equals("mps");
+                    break;
+                case "-x":
+                    scratchDir = new File(param);
+                    break;
                 default:
                     System.err.println("Illegal flag: " + args[index]);
                     return false;
@@ -122,10 +211,21 @@ public class PartialSolver
         }
 
         // One final check to ensure that all the parameters have been set. 
-        if (inputFile == null || prevRankingFile == null || prevGraphFile == null)
+        if (prevRankingFile == null)
+            return false;
+        // Without a delta both graphs are needed, with a delta either one.
+        if (deltaFile == null && (inputFile == null || prevGraphFile == null))
+            return false;
+        if (deltaFile != null && inputFile == null && prevGraphFile == null)
             return false;
         if (neighborhoodSize == -1 || levelChange == -1 || numLevels == -1)
             return false;
+        // The out of core mode streams the current graph.
+        if (scratchDir != null && inputFile == null)
+        {
+            System.err.println("-x requires the input graph (-i).");
+            return false;
+        }
 
         return true;
     }
@@ -159,98 +259,179 @@ public class PartialSolver
         return rankings;
     }
 
+
     /**
-     * Saves the output to the file at the given location.
+     * Visits the neighbors of the nodes to check and marks the ones that have
+     * not been visited yet.
      *
-     * @param output The string to output.
-     * @param loc The location to save the output to.
+     * @return The newly marked nodes, which should be checked next.
      */
-    private static void saveOutput(String output, String loc)
+    private static IntList expand(CompactGraph graph, IntList nodesToCheck,
+            boolean[] modified)
     {
-        try (PrintWriter outWriter = new PrintWriter(loc))
-        {
-            outWriter.write(output);
+        IntList newNodesToCheck = new IntList();
 
-            outWriter.close();
-        }
-        catch (FileNotFoundException e)
+        // Iterate over all nodes we need to check...
+        for (int index = 0; index < nodesToCheck.size(); index++)
         {
-            System.err.println("Unable to write ILP to file. Outputting to STOUT.");
-            System.err.println(output);
+            int node = nodesToCheck.get(index);
+
+            // And check their neighbors....
+            for (int n = graph.neighborBegin(node); n < graph.neighborEnd(node); n++)
+            {
+                int neighbor = graph.neighbor(n);
+
+                // If we have not already visited this neighbor...
+                if (!modified[neighbor])
+                {
+                    // Add it to the nodes we will visit next iteration.
+                    modified[neighbor] = true;
+                    newNodesToCheck.add(neighbor);
+                }
+            }
         }
 
+        return newNodesToCheck;
     }
 
+    /**
+     * Solves the partial ILP in memory, starting from the previous ranking,
+     * and writes the new ranking to the state file. No -f merge is needed.
+     */
+    private static void solveInMemory(PartialILPGenerator generator,
+            Map<String,Integer> rankings)
+    {
+        HierarchyProblem problem = new HierarchyProblem(generator.presolve());
+        System.out.println(generator.getPresolver().getReport());
+
+        BranchAndBoundSolver bnb = new BranchAndBoundSolver(problem);
+        Map<String,Integer> levels = bnb.solve(rankings);
+        System.out.println("Penalty: " + bnb.getObjective()
+                + (bnb.isOptimal() ? "" : " (node limit reached, not optimal)"));
+
+        // Nodes outside the ILP keep their previous level.
+        Map<String,Integer> state = new HashMap<String,Integer>(rankings);
+        state.putAll(levels);
+        CompleteSolver.saveState(state, new HashSet<Node>());
+    }
 
     /**
-     * Execution will begin here.
+     * Returns the formatter for the ILP, which renders the ILP on a pool
+     * if more than one render thread was asked for.
      */
-    public static void main(String[] args)
+    private static ILPFormatter createFormatter()
     {
-    
-        // Parse arguments.
-        if (!parseArgs(args)) return;
+        ILPFormatter formatter = mpsFormat ? new MPSFormatter()
+            : new CplexLPFormatter();
+        if (numRenderThreads > 1)
+        {
+            // Every ILP of the run is rendered on the same pool, which is
+            // shut down when the run ends.
+            if (renderPool == null)
+                renderPool = new ForkJoinPool(numRenderThreads);
+            formatter.setPool(renderPool);
+        }
+        return formatter;
+    }
 
-        // Get the edges from the previous graph.
-        GraphReader prevReader = new DefaultGraphReader(prevGraphFile);
-        Set<Edge> prevEdges = prevReader.getEdges();
-        
-        // Get the edges from the current graph.
-        GraphReader currReader = new DefaultGraphReader(inputFile);
-        Set<Edge> currEdges = currReader.getEdges();
-
-
-        // Determine which nodes were modified.
-        Set<Edge> modifiedEdges = new HashSet<Edge>();
-        // Edges that were added.
-        currEdges.removeAll(prevEdges);
-        modifiedEdges.addAll(currEdges);
-        // Edges that were removed.
-        // We need to refresh the current edges.
-        currEdges = currReader.getEdges();
-        prevEdges.removeAll(currEdges);
-        modifiedEdges.addAll(prevEdges);
+    /**
+     * Finds the changed nodes and their neighborhoods with both graphs in
+     * memory.
+     *
+     * @param rankings The previous ranking.
+     * @param modifiedNodes Filled with the nodes whose level may change.
+     * @param unmodifiedNodes Filled with the nodes whose level is constant.
+     *
+     * @return The edges of the current graph.
+     */
+    private static Set<Edge> findNeighborhoods(Map<String,Integer> rankings,
+            Set<Node> modifiedNodes, Set<Node> unmodifiedNodes)
+    {
+        // Both graphs share one name index so that a node has the same id
+        // in each of them.
+        NameIndex names = new NameIndex();
+
+        // The previous graph, if we were given one, and the current graph.
+        CompactGraph prevGraph = null;
+        CompactGraph currGraph;
+
+        // The changed edges.
+        GraphDiff diff;
+
+        if (deltaFile == null)
+        {
+            // Get the previous graph.
+            prevGraph = CompactGraph.fromReader(
+                    GraphReader.open(prevGraphFile), names);
+            
+            // Get the current graph.
+            currGraph = CompactGraph.fromReader(
+                    GraphReader.open(inputFile), names);
+
+            diff = GraphDiff.diff(prevGraph, currGraph);
+        }
+        else
+        {
+            EdgeDelta delta = new DeltaReader(deltaFile).getDelta();
+
+            // Either read the current graph, or build it from the previous
+            // graph and the delta.
+            if (inputFile != null)
+                currGraph = CompactGraph.fromReader(
+                        GraphReader.open(inputFile), names);
+            else
+            {
+                prevGraph = CompactGraph.fromReader(
+                        GraphReader.open(prevGraphFile), names);
+                currGraph = delta.applyTo(prevGraph);
+            }
+
+            diff = GraphDiff.fromDelta(delta, names);
+        }
+
+        // The endpoints of the changed edges.
+        IntList changed = new IntList();
+        for (long edge : diff.getAdded())
+        {
+            changed.add(LongHashSet.from(edge));
+            changed.add(LongHashSet.to(edge));
+        }
+        for (long edge : diff.getRemoved())
+        {
+            changed.add(LongHashSet.from(edge));
+            changed.add(LongHashSet.to(edge));
+        }
+
+        // Nodes without a previous level have no level to keep, so they
+        // change as well.
+        for (int v = 0; v < names.size(); v++)
+            if (currGraph.contains(v) && !rankings.containsKey(names.getName(v)))
+                changed.add(v);
 
         // Now we need to find all the nodes that were affected. This is
         // because we impose constraints on the nodes, not the edges. We will
         // also calculate the neighborhood sets at the name time.
-        Set<Node> modifiedNodes = new HashSet<Node>();
-        List<Node> nodesToCheck = new ArrayList<Node>();
+        boolean[] modified = new boolean[names.size()];
+        IntList nodesToCheck = new IntList();
         // We first add the inital nodes to check.
-        for (Edge edge : modifiedEdges)
+        for (int index = 0; index < changed.size(); index++)
         {
-            if (modifiedNodes.add(edge.getFrom()))
-                nodesToCheck.add(edge.getFrom());
-            if (modifiedNodes.add(edge.getTo()))
-                nodesToCheck.add(edge.getTo());
+            int node = changed.get(index);
+            if (!modified[node])
+            {
+                modified[node] = true;
+                nodesToCheck.add(node);
+            }
         }
 
         // Each iteration we will check k-th neighbors (nodes that have a path
         // of at most k edges from themselves to the original nodes in
-        // nodesToCheck.
+        // nodesToCheck. Every endpoint of a changed edge is already marked,
+        // and all other nodes have the same neighbors in the previous and
+        // current graph, so expanding in the current graph is enough.
         while (neighborhoodSize > 0)
         {
-            // We want to keep the 'new nodes to check' and the 'old nodes to
-            // check' separate.
-            List<Node> newNodesToCheck = new ArrayList<Node>();
-
-            // Iterate over all nodes we need to check...
-            for (Node node : nodesToCheck)
-            {
-                // And check their neighbors....
-                for (Node neighbor : node.getNeighbors()) 
-                {
-                    // If we have not already visited this neighbor...
-                    if (modifiedNodes.add(neighbor))
-                    {
-                        // Add it to the nodes we will visit next iteration.
-                        newNodesToCheck.add(neighbor);
-                    }
-                }
-            }
-        
-            // Update the new nodes to check.
-            nodesToCheck = newNodesToCheck;
+            nodesToCheck = expand(currGraph, nodesToCheck, modified);
         
             neighborhoodSize--;
         }
@@ -260,20 +441,263 @@ public class PartialSolver
         // nodes should be constants in the ILP we form. The ranking of the
         // nodes in modifiedNodes should be allowed to change by +levelChange
         // or -levelChange.
+        CompactGraph baseGraph = prevGraph != null ? prevGraph : currGraph;
+        for (int v = 0; v < names.size(); v++)
+        {
+            if (modified[v])
+                modifiedNodes.add(new Node(names.getName(v)));
+            else if (baseGraph.contains(v))
+                unmodifiedNodes.add(new Node(names.getName(v)));
+        }
+
+        return currGraph.getEdges();
+    }
+
+    /**
+     * Finds the changed nodes and their neighborhoods without holding either
+     * graph in memory. The current graph is sorted on disk, which also drops
+     * duplicate edges, and each hop of the neighborhoods is one pass over
+     * the sorted edges. Only the edges that touch a modified node are
+     * loaded, the penalty of the others is counted as they stream by.
+     *
+     * @param rankings The previous ranking.
+     * @param modifiedNodes Filled with the nodes whose level may change.
+     * @param unmodifiedNodes Filled with the nodes whose level is constant.
+     *
+     * @return The edges that touch a modified node, or null on failure.
+     */
+    private static Set<Edge> loadNeighborhoods(final Map<String,Integer> rankings,
+            final Set<Node> modifiedNodes, final Set<Node> unmodifiedNodes)
+    {
+        ExternalGraphDiff differ = new ExternalGraphDiff(scratchDir);
+        File currRun = differ.sort(inputFile);
+        if (currRun == null)
+            return null;
+
+        try
+        {
+            // Diff the graphs unless we were given the delta.
+            File delta = deltaFile;
+            if (delta == null)
+            {
+                File prevRun = differ.sort(prevGraphFile);
+                if (prevRun == null)
+                    return null;
+
+                delta = new File(deltaPath);
+                boolean written = differ.diff(prevRun, currRun, delta);
+                prevRun.delete();
+                if (!written)
+                    return null;
+
+                System.out.println("Added: " + differ.getNumAdded() + " edges");
+                System.out.println("Removed: " + differ.getNumRemoved() + " edges");
+            }
+
+            // Only the modified nodes are indexed, each with the hop at which
+            // it was reached. The endpoints of the changed edges are hop 0.
+            final NameIndex names = new NameIndex();
+            final IntList hops = new IntList();
+            EdgeDelta edgeDelta = new DeltaReader(delta).getDelta();
+            for (List<Edge> edges : Arrays.asList(edgeDelta.getAdded(),
+                        edgeDelta.getRemoved()))
+            {
+                for (Edge edge : edges)
+                {
+                    mark(names, hops, edge.getFrom().getName(), 0);
+                    mark(names, hops, edge.getTo().getName(), 0);
+                }
+            }
+
+            // Nodes without a previous level, e.g. ones that chunked runs
+            // have not reached yet or that a delta which does not match the
+            // graphs left out, have no level to keep, so they are hop 0 as
+            // well.
+            if (!ExternalGraphDiff.forEachEdge(currRun, new EdgeVisitor()
+            {
+                @Override
+                public void visit(String from, String to)
+                {
+                    if (!rankings.containsKey(from))
+                        mark(names, hops, from, 0);
+                    if (!rankings.containsKey(to))
+                        mark(names, hops, to, 0);
+                }
+            }))
+                return null;
+
+            // Each pass reaches the neighbors of the nodes of the last hop.
+            for (int hop = 1; hop <= neighborhoodSize; hop++)
+            {
+                final int frontier = hop - 1;
+                final int next = hop;
+                int numMarked = names.size();
+
+                if (!ExternalGraphDiff.forEachEdge(currRun, new EdgeVisitor()
+                {
+                    @Override
+                    public void visit(String from, String to)
+                    {
+                        int fromId = names.getId(from);
+                        int toId = names.getId(to);
+                        if (fromId != -1 && hops.get(fromId) == frontier && toId == -1)
+                            mark(names, hops, to, next);
+                        else if (toId != -1 && hops.get(toId) == frontier && fromId == -1)
+                            mark(names, hops, from, next);
+                    }
+                }))
+                    return null;
+
+                // Nothing new was reached, so no later hop will be either.
+                if (names.size() == numMarked)
+                    break;
+            }
+
+            // The edges share one Node per name.
+            final Node[] modified = new Node[names.size()];
+            for (int v = 0; v < names.size(); v++)
+            {
+                modified[v] = new Node(names.getName(v));
+                modifiedNodes.add(modified[v]);
+            }
+            final Map<String,Node> unmodified = new HashMap<String,Node>();
+
+            // Load the edges that touch a modified node. The levels of the
+            // other edges are fixed, so only their penalty is needed.
+            final Set<Edge> currEdges = new HashSet<Edge>();
+            numOutsideEdges = 0;
+            outsidePenalty = 0;
+            if (!ExternalGraphDiff.forEachEdge(currRun, new EdgeVisitor()
+            {
+                @Override
+                public void visit(String from, String to)
+                {
+                    int fromId = names.getId(from);
+                    int toId = names.getId(to);
+                    if (fromId != -1 || toId != -1)
+                        currEdges.add(new Edge(
+                                    fromId != -1 ? modified[fromId] : getNode(unmodified, from),
+                                    toId != -1 ? modified[toId] : getNode(unmodified, to)));
+                    else
+                    {
+                        numOutsideEdges++;
+                        if (rankings.get(to) >= rankings.get(from))
+                            outsidePenalty++;
+                    }
+                }
+            }))
+                return null;
 
-        // These are the nodes whose level will remain constant.
-        Set<Node> unmodifiedNodes = prevReader.getNodes();
-        unmodifiedNodes.removeAll(modifiedNodes);
+            unmodifiedNodes.addAll(unmodified.values());
 
+            System.out.println("Loaded " + currEdges.size() + " edges around "
+                    + modifiedNodes.size() + " modified nodes, "
+                    + numOutsideEdges + " edges left out.");
+
+            return currEdges;
+        }
+        finally
+        {
+            currRun.delete();
+        }
+    }
+
+    /**
+     * Returns the node with the name, adding it to the nodes if it is new.
+     */
+    private static Node getNode(Map<String,Node> nodes, String name)
+    {
+        Node node = nodes.get(name);
+        if (node == null)
+        {
+            node = new Node(name);
+            nodes.put(name, node);
+        }
+        return node;
+    }
+
+    /**
+     * Marks the node as modified at the given hop, unless it already is.
+     */
+    private static void mark(NameIndex names, IntList hops, String name, int hop)
+    {
+        if (names.getId(name) != -1)
+            return;
+
+        names.intern(name);
+        hops.add(hop);
+    }
+
+    /**
+     * Execution will begin here.
+     */
+    public static void main(String[] args)
+    {
+        // Parse arguments.
+        if (!parseArgs(args)) return;
+
+        try
+        {
+            run();
+        }
+        finally
+        {
+            // Let the render threads go.
+            if (renderPool != null)
+                renderPool.shutdown();
+        }
+    }
+
+    /**
+     * Runs the driver with the parsed arguments.
+     */
+    private static void run()
+    {
         Map<String,Integer> rankings = readStateFile();
 
+        // The nodes whose level may change, within levelChange, and the
+        // nodes whose level will remain constant.
+        Set<Node> modifiedNodes = new HashSet<Node>();
+        Set<Node> unmodifiedNodes = new HashSet<Node>();
+
+        Set<Edge> currEdges;
+        if (scratchDir == null)
+            currEdges = findNeighborhoods(rankings, modifiedNodes, unmodifiedNodes);
+        else
+            currEdges = loadNeighborhoods(rankings, modifiedNodes, unmodifiedNodes);
+        if (currEdges == null)
+            return;
+
+        ILPFormatter formatter = createFormatter();
         PartialILPGenerator generator = new PartialILPGenerator(currEdges, 
                 unmodifiedNodes, modifiedNodes, rankings, 
-                new CplexLPFormatter(), levelChange, numLevels);
+                formatter, levelChange, numLevels);
+        generator.setOutsideEdges(numOutsideEdges, outsidePenalty);
+
+        if (solver.equals("java"))
+            solveInMemory(generator, rankings);
+        else
+        {
+            // Generate and save the ILP formulation.
+            generator.setCompactNames(compactNames);
+            generator.generate(CompleteSolver.newILPFile(formatter));
+            System.out.println(generator.getPresolver().getReport());
 
-        // Generate and save the ILP formulation.
-        String ilp = generator.generate();
-        saveOutput(ilp, "tmp/temp.lp");
+            // The previous ranking is a feasible assignment, so hand it to the
+            // solver as a start solution.
+            StartSolutionWriter start = new StartSolutionWriter(
+                    generator.getPresolver(), generator.getModel(), rankings,
+                    new File(startPath));
+            start.write();
+            System.out.println("Start solution objective: " + start.getObjective());
+
+            // Presolve removes the level variables of unmodified nodes from the
+            // ILP, so the state file that the solution is merged into (-f) must
+            // already hold their levels, and the levels of the modified nodes
+            // that SCIP will not report.
+            CompleteSolver.saveState(generator.getMergeState(rankings,
+                        modifiedNodes), new HashSet<Node>());
+        }
     }
 
 }
@@ -0,0 +1,170 @@
+package DHD;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+
+import DHD.ds.*;
+import DHD.engine.*;
+import DHD.graph.*;
+
+/**
+ * @author Joshua A. Campbell
+ *
+ * Reports the penalty of a ranking of a graph (see PenaltyEvaluator): the
+ * number of violated edges, the violations per level and, if asked for, the
+ * violated edges. Any ranking in the state file format can be scored, e.g.
+ * a merged HIDEN solution, a heuristic result, or the previous ranking on a
+ * mutated graph, without running the ILP solver.
+ *
+ * Usage:
+ *  java -cp DHD.jar DHD.PenaltyReporter -i graph -p ranking -t threads -o out
+ *
+ *  @param i The input graph.
+ *  @param p The ranking in the state file format, e.g. tmp/__state.
+ *  @param t The number of threads to score with. (optional)
+ *  @param o The file to write the violated edges to, one "from to" per line.
+ *  (optional)
+ */
+public class PenaltyReporter
+{
+    private static File inputFile = null;
+    private static File rankingFile = null;
+    private static File outputFile = null;
+    private static int numThreads = Runtime.getRuntime().availableProcessors();
+
+    // We do not allow instantiation of a driver.
+    private PenaltyReporter(){}
+
+    /**
+     * Parses the input arguments.
+     *
+     * @param args The arguments to parse.
+     *
+     * @return Returns true if the arguments were successfully parsed.
+     */
+    private static boolean parseArgs(String[] args)
+    {
+        // Print a usage message if there are no arguments.
+        if (args.length == 0)
+        {
+            System.err.println("Usage: java -cp DHD.jar DHD.PenaltyReporter -i input -p ranking -t threads -o out");
+            System.err.println("\t-i: The input graph file. (required)");
+            System.err.println("\t-p: The ranking of the graph to score. (required)");
+            System.err.println("\t-t: The number of threads to score with. (optional)");
+            System.err.println("\t-o: The file to write the violated edges to. (optional)");
+            return false;
+        }
+
+        // Check to make sure that we have a parameter for each flag.
+        if (args.length % 2 != 0)
+        {
+            System.err.println("Each flag must have an argument.");
+            return false;
+        }
+
+        // Since all of our arguments are preceeded by flags, we will switch on
+        // the flag.
+        for (int index = 0; index < args.length; index += 2)
+        {
+            String param = args[index + 1];
+
+            switch (args[index])
+            {
+                case "-i":
+                    inputFile = new File(param);
+                    if (!inputFile.exists())
+                    {
+                        System.err.println("File does not exist: " +  param);
+                        return false;
+                    }
+                    break;
+                case "-p":
+                    rankingFile = new File(param);
+                    if (!rankingFile.exists())
+                    {
+                        System.err.println("File does not exist: " +  param);
+                        return false;
+                    }
+                    break;
+                case "-t":
+                    numThreads = Integer.parseInt(param);
+                    if (numThreads < 1)
+                    {
+                        System.err.println("-t must be at least 1.");
+                        return false;
+                    }
+                    break;
+                case "-o":
+                    outputFile = new File(param);
+                    break;
+                default:
+                    System.err.println("Illegal flag: " + args[index]);
+                    return false;
+            }
+        }
+
+        // One final check to ensure that all the parameters have been set.
+        if (inputFile == null || rankingFile == null)
+            return false;
+
+        return true;
+    }
+
+    /**
+     * Writes the violated edges to the output file.
+     */
+    private static void saveViolatingEdges(CompactGraph graph, int[] edges)
+    {
+        try (PrintWriter writer = new PrintWriter(outputFile))
+        {
+            for (int e : edges)
+            {
+                writer.print(graph.getName(graph.edgeFrom(e)));
+                writer.print(' ');
+                writer.println(graph.getName(graph.edgeTo(e)));
+            }
+
+            writer.close();
+        }
+        catch (FileNotFoundException e)
+        {
+            System.err.println("Unable to write violated edges to file: " + outputFile);
+            System.err.println(e);
+        }
+    }
+
+    /**
+     * This class will start execuation here.
+     */
+    public static void main(String[] args)
+    {
+        // Parse the command line arguments.
+        if (!parseArgs(args)) return;
+
+        CompactGraph graph = CompactGraph.fromReader(GraphReader.open(inputFile));
+
+        boolean[] ranked = new boolean[graph.numIds()];
+        int[] levels = PenaltyEvaluator.readRanking(graph, rankingFile, ranked);
+
+        // Nodes of the graph without a rank are scored at level 0.
+        int unranked = 0;
+        for (int v = 0; v < graph.numIds(); v++)
+            if (graph.contains(v) && !ranked[v])
+                unranked++;
+
+        PenaltyEvaluator evaluator = new PenaltyEvaluator(graph, levels);
+        int penalty = evaluator.evaluate(numThreads);
+
+        System.out.println("Penalty: " + penalty + " of " + graph.numEdges() + " edges");
+        if (unranked != 0)
+            System.out.println("Unranked nodes (at level 0): " + unranked);
+
+        int[] byLevel = evaluator.getViolationsByLevel();
+        for (int level = 0; level < byLevel.length; level++)
+            System.out.println("Level " + level + ": " + byLevel[level]);
+
+        if (outputFile != null)
+            saveViolatingEdges(graph, evaluator.getViolatingEdges());
+    }
+}
@@ -0,0 +1,187 @@
+package DHD;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+import DHD.state.*;
+
+/**
+ * @author Joshua A. Campbell
+ *
+ * Keeps the rankings of a chain of graph revisions in a ranking history
+ * (see RankingHistory), where each revision only stores the nodes whose
+ * level changed. A ranking in the state file format is added as the next
+ * revision, and any revision can be written back out in that format, e.g.
+ * to pass it to PartialSolver -p or PenaltyReporter -p.
+ *
+ * Usage:
+ *  java -cp DHD.jar DHD.RankingArchiver -h history -a ranking -m label
+ *  java -cp DHD.jar DHD.RankingArchiver -h history -x revision -o out
+ *  java -cp DHD.jar DHD.RankingArchiver -h history
+ *
+ *  @param h The history file, created if it does not exist.
+ *  @param a The ranking to add, in the state file format, e.g. tmp/__state.
+ *  @param m The label of the added revision, e.g. the graph file. (optional)
+ *  @param x The revision to write out, -1 for the last one.
+ *  @param o The file to write the revision to.
+ *
+ * Without -a or -x the revisions of the history are listed.
+ */
+public class RankingArchiver
+{
+    private static final int DEFAULT = -2;
+
+    private static File historyFile = null;
+    private static File rankingFile = null;
+    private static String label = null;
+    private static int revision = DEFAULT;
+    private static File outputFile = null;
+
+    // We do not allow instantiation of a driver.
+    private RankingArchiver(){}
+
+    /**
+     * Parses the input arguments.
+     *
+     * @param args The arguments to parse.
+     *
+     * @return Returns true if the arguments were successfully parsed.
+     */
+    private static boolean parseArgs(String[] args)
+    {
+        // Print a usage message if there are no arguments.
+        if (args.length == 0)
+        {
+            System.err.println("Usage: java -cp DHD.jar DHD.RankingArchiver -h history -a ranking -m label -x revision -o out");
+            System.err.println("\t-h: The ranking history file. (required)");
+            System.err.println("\t-a: The ranking to add as the next revision. (optional)");
+            System.err.println("\t-m: The label of the added revision. (optional)");
+            System.err.println("\t-x: The revision to write out, -1 for the last one. (optional)");
+            System.err.println("\t-o: The file to write the revision to. (required with -x)");
+            return false;
+        }
+
+        // Check to make sure that we have a parameter for each flag.
+        if (args.length % 2 != 0)
+        {
+            System.err.println("Each flag must have an argument.");
+            return false;
+        }
+
+        // Since all of our arguments are preceeded by flags, we will switch on
+        // the flag.
+        for (int index = 0; index < args.length; index += 2)
+        {
+            String param = args[index + 1];
+
+            switch (args[index])
+            {
+                case "-h":
+                    historyFile = new File(param);
+                    break;
+                case "-a":
+                    rankingFile = new File(param);
+                    if (!rankingFile.exists())
+                    {
+                        System.err.println("File does not exist: " +  param);
+                        return false;
+                    }
+                    break;
+                case "-m":
+                    label = param;
+                    break;
+                case "-x":
+                    revision = Integer.parseInt(param);
+                    if (revision < -1)
+                    {
+                        System.err.println("-x must be a revision or -1.");
+                        return false;
+                    }
+                    break;
+                case "-o":
+                    outputFile = new File(param);
+                    break;
+                default:
+                    System.err.println("Illegal flag: " + args[index]);
+                    return false;
+            }
+        }
+
+        // One final check to ensure that all the parameters have been set.
+        if (historyFile == null || (revision != DEFAULT && outputFile == null))
+            return false;
+
+        return true;
+    }
+
+    /**
+     * Writes the ranking to the output file in the state file format.
+     */
+    private static void saveRanking(Map<String,Integer> ranking)
+    {
+        try (PrintWriter writer = new PrintWriter(outputFile))
+        {
+            for (Map.Entry<String,Integer> entry : ranking.entrySet())
+                writer.println(entry.getKey() + " " + entry.getValue());
+
+            writer.close();
+        }
+        catch (IOException e)
+        {
+            System.err.println("Unable to write ranking to file: " + outputFile);
+            System.err.println(e);
+        }
+    }
+
+    /**
+     * This class will start execuation here.
+     */
+    public static void main(String[] args)
+    {
+        // Parse the command line arguments.
+        if (!parseArgs(args)) return;
+
+        try (RankingHistory history = new RankingHistory(historyFile))
+        {
+            // Add the ranking.
+            if (rankingFile != null)
+            {
+                Map<String,Integer> ranking = new HashMap<String,Integer>();
+                StateStore.readText(rankingFile, ranking);
+
+                int number = history.commit(label == null ? rankingFile.getName() : label,
+                        ranking);
+                System.out.println("Revision " + number + ": "
+                        + history.numChanges(number) + " of " + ranking.size()
+                        + " nodes changed");
+            }
+
+            // Write out a revision.
+            if (revision != DEFAULT)
+            {
+                int number = revision == -1 ? history.numRevisions() - 1 : revision;
+                if (number < 0 || number >= history.numRevisions())
+                {
+                    System.err.println("No revision " + revision + " in " + historyFile);
+                    return;
+                }
+                saveRanking(history.getRanking(number));
+            }
+
+            // List the revisions.
+            if (rankingFile == null && revision == DEFAULT)
+                for (int number = 0; number < history.numRevisions(); number++)
+                    System.out.println("Revision " + number + ": "
+                            + history.getLabel(number) + ", "
+                            + history.numChanges(number) + " changes"
+                            + (history.hasCheckpoint(number) ? ", checkpoint" : ""));
+        }
+        catch (IOException e)
+        {
+            System.err.println(e);
+        }
+    }
+}
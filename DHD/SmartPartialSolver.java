@@ -2,20 +2,18 @@ package DHD;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.util.Arrays;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 import DHD.ds.*;
 import DHD.graph.*;
+import DHD.engine.*;
 import DHD.ilp.*;
 import DHD.logger.*;
 
@@ -42,6 +40,20 @@ public class SmartPartialSolver
     private static int neighborhoodSize = -1;
     private static int levelChange = -1;
     private static int numLevels = -1;
+    // The solver: "scip" writes the ILP for SCIP, "java" solves it here.
+    private static String solver = "scip";
+    // Whether the ILP uses compact variable names (see ILPModel).
+    private static boolean compactNames = false;
+    // Whether the ILP is written in the MPS format instead of the CPLEX LP
+    // format.
+    private static boolean mpsFormat = false;
+    // The number of threads to render the ILP on.
+    private static int numRenderThreads = 1;
+    // The pool the ILPs are rendered on, created by createFormatter().
+    private static ForkJoinPool renderPool = null;
+
+    // The start solution for the generated ILP.
+    private static final String startPath = "tmp" + File.separator + "start.sol";
 
     // We do not allow instantiation of this class.
     private SmartPartialSolver(){}
@@ -65,6 +77,10 @@ public class SmartPartialSolver
             System.err.println("\t-k: The neighborhood size to consider. (required)");
             System.err.println("\t-c: The max levels a dynamic node can move up or down the hierarchy. (required)");
             System.err.println("\t-l: The number of levels in the original graph.");
+            System.err.println("\t-s: The solver, scip (write tmp/temp.lp, see -m) or java (solve in memory). (optional)");
+            System.err.println("\t-v: The variable names, full or compact (with a dictionary). (optional)");
+            System.err.println("\t-m: The ILP format, lp (tmp/temp.lp) or mps (tmp/temp.mps). (optional)");
+            System.err.println("\t-g: Render the ILP on this many threads. (optional)");
             return false;
         }
 
@@ -117,6 +133,38 @@ public class SmartPartialSolver
                 case "-l":
                     numLevels = Integer.parseInt(param);
                     break;
+                case "-s":
+                    solver = param;
+                    if (!solver.equals("scip") && !solver.equals("java"))
+                    {
+                        System.err.println("Unknown solver: " + param);
+                        return false;
+                    }
+                    break;
+                case "-g":
+                    numRenderThreads = Integer.parseInt(param);
+                    if (numRenderThreads < 1)
+                    {
+                        System.err.println("-g must be at least 1.");
+                        return false;
+                    }
+                    break;
+                case "-v":
+                    if (!param.equals("full") && !param.equals("compact"))
+                    {
+                        System.err.println("Unknown variable names: " + param);
+                        return false;
+                    }
+                    compactNames = param.equals("compact");
+                    break;
+                case "-m":
+                    if (!param.equals("lp") && !param.equals("mps"))
+                    {
+                        System.err.println("Unknown ILP format: " + param);
+                        return false;
+                    }
+                    mpsFormat = param.equals("mps");
+                    break;
                 default:
                     System.err.println("Illegal flag: " + args[index]);
                     return false;
@@ -161,31 +209,66 @@ public class SmartPartialSolver
         return rankings;
     }
 
+
+    // Movement flags.
+    private static final byte UP = 1;
+    private static final byte DOWN = 2;
+
+    // Indexes of the graphs a node to check belongs to.
+    private static final int PREV = 0;
+    private static final int CURR = 1;
+
     /**
-     * Saves the output to the file at the given location.
-     *
-     * @param output The string to output.
-     * @param loc The location to save the output to.
+     * Adds the neighbors of the node in the given graph to the nodes to
+     * check.
      */
-    private static void saveOutput(String output, String loc)
+    private static void addNeighbors(CompactGraph graph, int which, int node,
+            IntList nodesToCheck)
     {
-        try (PrintWriter outWriter = new PrintWriter(loc))
-        {
-            outWriter.write(output);
+        for (int n = graph.neighborBegin(node); n < graph.neighborEnd(node); n++)
+            nodesToCheck.add(graph.neighbor(n) << 1 | which);
+    }
 
-            outWriter.close();
-        }
-        catch (FileNotFoundException e)
-        {
-            System.err.println("Unable to write ILP to file. Outputting to STOUT.");
-            System.err.println(output);
-        }
 
+    /**
+     * Solves the partial ILP in memory, starting from the previous ranking,
+     * and writes the new ranking to the state file. No -f merge is needed.
+     */
+    private static void solveInMemory(PartialILPGenerator generator,
+            Map<String,Integer> rankings)
+    {
+        HierarchyProblem problem = new HierarchyProblem(generator.presolve());
+        System.out.println(generator.getPresolver().getReport());
+
+        BranchAndBoundSolver bnb = new BranchAndBoundSolver(problem);
+        Map<String,Integer> levels = bnb.solve(rankings);
+        System.out.println("Penalty: " + bnb.getObjective()
+                + (bnb.isOptimal() ? "" : " (node limit reached, not optimal)"));
+
+        // Nodes outside the ILP keep their previous level.
+        Map<String,Integer> state = new HashMap<String,Integer>(rankings);
+        state.putAll(levels);
+        CompleteSolver.saveState(state, new HashSet<Node>());
     }
 
-    private static int UP = 0;
-    private static int DOWN = 1;
-
+    /**
+     * Returns the formatter for the ILP, which renders the ILP on a pool
+     * if more than one render thread was asked for.
+     */
+    private static ILPFormatter createFormatter()
+    {
+        ILPFormatter formatter = mpsFormat ? new MPSFormatter()
+            : new CplexLPFormatter();
+        if (numRenderThreads > 1)
+        {
+            // Every ILP of the run is rendered on the same pool, which is
+            // shut down when the run ends.
+            if (renderPool == null)
+                renderPool = new ForkJoinPool(numRenderThreads);
+            formatter.setPool(renderPool);
+        }
+        return formatter;
+    }
 
     /**
      * Execution will begin here.
@@ -195,91 +278,98 @@ public class SmartPartialSolver
         // Parse arguments.
         if (!parseArgs(args)) return;
 
+        try
+        {
+            run();
+        }
+        finally
+        {
+            // Let the render threads go.
+            if (renderPool != null)
+                renderPool.shutdown();
+        }
+    }
+
+    /**
+     * Runs the driver with the parsed arguments.
+     */
+    private static void run()
+    {
         // A logger for debug.
         Logger logger = new Logger("tmp/smartLog");
 
-        // Get the edges from the previous graph.
-        GraphReader prevReader = new DefaultGraphReader(prevGraphFile);
-        Set<Edge> prevEdges = prevReader.getEdges();
+        // Both graphs share one name index so that a node has the same id
+        // in each of them.
+        NameIndex names = new NameIndex();
+
+        // Get the previous graph.
+        CompactGraph prevGraph = CompactGraph.fromReader(
+                GraphReader.open(prevGraphFile), names);
         
-        // Get the edges from the current graph.
-        GraphReader currReader = new DefaultGraphReader(inputFile);
-        Set<Edge> currEdges = currReader.getEdges();
+        // Get the current graph.
+        CompactGraph currGraph = CompactGraph.fromReader(
+                GraphReader.open(inputFile), names);
+        CompactGraph[] graphs = { prevGraph, currGraph };
 
         // The previous node rankings.
         Map<String,Integer> rankings = readStateFile();
+        int[] ranks = new int[names.size()];
+        for (int v = 0; v < ranks.length; v++)
+        {
+            Integer rank = rankings.get(names.getName(v));
+            ranks[v] = rank == null ? 0 : rank;
+        }
 
         // Now we need to find all the nodes that were affected. This is
         // because we impose constraints on the nodes, not the edges. We will
         // also calculate the neighborhood sets at the name time.
-        Set<Node> modifiedNodes = new HashSet<Node>();
-        List<Node> nodesToCheck = new ArrayList<Node>();
+        boolean[] modified = new boolean[names.size()];
+        // Each entry is encoded as (node << 1 | graph), where graph indexes
+        // graphs[] and is the graph whose adjacency the node is checked in.
+        IntList nodesToCheck = new IntList();
 
-        // Mark the movement of nodes.
-        Map<Node, HashSet<Integer>> movements = new HashMap<Node, HashSet<Integer>>();
+        // Mark the movement of nodes (UP and DOWN bits).
+        byte[] movements = new byte[names.size()];
+
+        GraphDiff diff = GraphDiff.diff(prevGraph, currGraph);
 
-        // Determine which nodes were modified.
-        Set<Edge> modifiedEdges = new HashSet<Edge>();
         // Edges that were added.
-        currEdges.removeAll(prevEdges);
         // Only check edges that we must.
-        for (Edge edge : currEdges)
+        for (long edge : diff.getAdded())
         {
-            Node fromNode = edge.getFrom();
-            Node toNode = edge.getTo();
-            int fromRank = rankings.get(fromNode.getName());
-            int toRank = rankings.get(toNode.getName());
+            int fromNode = LongHashSet.from(edge);
+            int toNode = LongHashSet.to(edge);
 
-            if (fromRank <= toRank)
+            if (ranks[fromNode] <= ranks[toNode])
             {
-                if (movements.get(fromNode) == null)
-                    movements.put(fromNode, new HashSet<Integer>());
-                if (movements.get(toNode) == null)
-                    movements.put(toNode, new HashSet<Integer>());
-
-                movements.get(fromNode).add(UP);
-                movements.get(toNode).add(DOWN);
+                movements[fromNode] |= UP;
+                movements[toNode] |= DOWN;
 
-                nodesToCheck.addAll(fromNode.getNeighbors());
-                nodesToCheck.addAll(toNode.getNeighbors());
+                addNeighbors(currGraph, CURR, fromNode, nodesToCheck);
+                addNeighbors(currGraph, CURR, toNode, nodesToCheck);
 
-                modifiedNodes.add(fromNode);
-                modifiedNodes.add(toNode); 
-
-                //logger.log(fromNode + " (head of added edge) " + fromRank + ", tail rank (" + toNode + "):" + toRank);
+                modified[fromNode] = true;
+                modified[toNode] = true;
             }
         }
         
         // Edges that were removed.
-        // We need to refresh the current edges.
-        currEdges = currReader.getEdges();
-        prevEdges.removeAll(currEdges);
         // Only check edges that we must.
-        for (Edge edge : prevEdges)
+        for (long edge : diff.getRemoved())
         {
-            Node fromNode = edge.getFrom();
-            Node toNode = edge.getTo();
-            int fromRank = rankings.get(fromNode.getName());
-            int toRank = rankings.get(toNode.getName());
+            int fromNode = LongHashSet.from(edge);
+            int toNode = LongHashSet.to(edge);
 
-            if (fromRank > toRank) // Used to be >=
+            if (ranks[fromNode] > ranks[toNode]) // Used to be >=
             {
-                if (movements.get(fromNode) == null)
-                    movements.put(fromNode, new HashSet<Integer>());
-                if (movements.get(toNode) == null)
-                    movements.put(toNode, new HashSet<Integer>());
-
-                movements.get(fromNode).add(DOWN);
-                movements.get(toNode).add(UP);
-
-                nodesToCheck.addAll(fromNode.getNeighbors());
-                nodesToCheck.addAll(toNode.getNeighbors());
-
-                modifiedNodes.add(fromNode);
-                modifiedNodes.add(toNode);
+                movements[fromNode] |= DOWN;
+                movements[toNode] |= UP;
 
-                //logger.log(fromNode + " (head of deleted edge) " + fromRank + ", tail rank (" + toNode + "):" + toRank);
+                addNeighbors(prevGraph, PREV, fromNode, nodesToCheck);
+                addNeighbors(prevGraph, PREV, toNode, nodesToCheck);
 
+                modified[fromNode] = true;
+                modified[toNode] = true;
             }
         }
 
@@ -290,76 +380,62 @@ public class SmartPartialSolver
         {
             // We want to keep the 'new nodes to check' and the 'old nodes to
             // check' separate.
-            List<Node> newNodesToCheck = new ArrayList<Node>();
+            IntList newNodesToCheck = new IntList();
 
             boolean checkNeighbors = false;
 
             // Iterate over all nodes we need to check...
-            for (Node nodeToCheck : nodesToCheck)
+            for (int index = 0; index < nodesToCheck.size(); index++)
             {
-                int currNodeRank = rankings.get(nodeToCheck.getName());
+                int nodeToCheck = nodesToCheck.get(index) >>> 1;
+                int which = nodesToCheck.get(index) & 1;
+                CompactGraph graph = graphs[which];
+                int currNodeRank = ranks[nodeToCheck];
 
                 // Check the nodes that point to this node.
-                for (Node head : nodeToCheck.getHeads())
+                for (int h = graph.inBegin(nodeToCheck); h < graph.inEnd(nodeToCheck); h++)
                 {
-                    int currHeadRank = rankings.get(head.getName());
+                    int head = graph.inSource(h);
+                    int currHeadRank = ranks[head];
 
                     // If rank(head) >= rank(current node) and the head is
                     // moving.
-                    if (currHeadRank >= currNodeRank 
-                            && movements.get(head) != null)
+                    if (currHeadRank >= currNodeRank && movements[head] != 0)
                     {
-
                         // if rank(head) == rank(current node) and the head is
                         // moving up.
-                        if ((currHeadRank == currNodeRank) && (movements.get(head).contains(UP)))
+                        if ((currHeadRank == currNodeRank) && (movements[head] & UP) != 0)
                         {
-                            if (movements.get(nodeToCheck) == null)
-                                movements.put(nodeToCheck, new HashSet<Integer>());
-
-                            movements.get(nodeToCheck).add(UP);
-                            
+                            movements[nodeToCheck] |= UP;
                             checkNeighbors = true;
                         }
 
-                        if ((currHeadRank >= currNodeRank) && (movements.get(head).contains(DOWN)))
+                        if ((movements[head] & DOWN) != 0)
                         {
-                            if (movements.get(nodeToCheck) == null)
-                                movements.put(nodeToCheck, new HashSet<Integer>());
-
-                            movements.get(nodeToCheck).add(DOWN);
-                        
+                            movements[nodeToCheck] |= DOWN;
                             checkNeighbors = true;
                         }
                     }
-
                 }
 
                 // Check the nodes that this node points to.
-                for (Node tail : nodeToCheck.getTails())
+                for (int t = graph.outBegin(nodeToCheck); t < graph.outEnd(nodeToCheck); t++)
                 {
-                    int currTailRank = rankings.get(tail.getName());
+                    int tail = graph.outTarget(t);
+                    int currTailRank = ranks[tail];
 
                     // If rank(tail) > rank (current node) and the tail is moving.
-                    if ((currTailRank > currNodeRank) && (movements.get(tail) != null)) 
+                    if ((currTailRank > currNodeRank) && movements[tail] != 0)
                     {
-                        if (movements.get(tail).contains(UP))
+                        if ((movements[tail] & UP) != 0)
                         {
-                            if (movements.get(nodeToCheck) == null)
-                                movements.put(nodeToCheck, new HashSet<Integer>());
-
-                            movements.get(nodeToCheck).add(UP);
-                        
+                            movements[nodeToCheck] |= UP;
                             checkNeighbors = true;
                         }
 
-                        if (movements.get(tail).contains(DOWN))
+                        if ((movements[tail] & DOWN) != 0)
                         {
-                            if (movements.get(nodeToCheck) == null)
-                                movements.put(nodeToCheck, new HashSet<Integer>());
-
-                            movements.get(nodeToCheck).add(DOWN);
-                            
+                            movements[nodeToCheck] |= DOWN;
                             checkNeighbors = true;
                         }
                     }
@@ -367,8 +443,8 @@ public class SmartPartialSolver
 
                 if (checkNeighbors)
                 {
-                    modifiedNodes.add(nodeToCheck);
-                    newNodesToCheck.addAll(nodeToCheck.getNeighbors());
+                    modified[nodeToCheck] = true;
+                    addNeighbors(graph, which, nodeToCheck, newNodesToCheck);
                 }
 
             }
@@ -385,17 +461,48 @@ public class SmartPartialSolver
         // nodes in modifiedNodes should be allowed to change by +levelChange
         // or -levelChange.
 
+        Set<Node> modifiedNodes = new HashSet<Node>();
         // These are the nodes whose level will remain constant.
-        Set<Node> unmodifiedNodes = prevReader.getNodes();
-        unmodifiedNodes.removeAll(modifiedNodes);
+        Set<Node> unmodifiedNodes = new HashSet<Node>();
+        for (int v = 0; v < names.size(); v++)
+        {
+            if (modified[v])
+                modifiedNodes.add(new Node(names.getName(v)));
+            else if (prevGraph.contains(v))
+                unmodifiedNodes.add(new Node(names.getName(v)));
+        }
+
+        Set<Edge> currEdges = currGraph.getEdges();
 
+        ILPFormatter formatter = createFormatter();
         PartialILPGenerator generator = new PartialILPGenerator(currEdges, 
                 unmodifiedNodes, modifiedNodes, rankings, 
-                new CplexLPFormatter(), levelChange, numLevels);
+                formatter, levelChange, numLevels);
 
-        // Generate and save the ILP formulation.
-        String ilp = generator.generate();
-        saveOutput(ilp, "tmp/temp.lp");
+        if (solver.equals("java"))
+            solveInMemory(generator, rankings);
+        else
+        {
+            // Generate and save the ILP formulation.
+            generator.setCompactNames(compactNames);
+            generator.generate(CompleteSolver.newILPFile(formatter));
+            System.out.println(generator.getPresolver().getReport());
+
+            // The previous ranking is a feasible assignment, so hand it to the
+            // solver as a start solution.
+            StartSolutionWriter start = new StartSolutionWriter(
+                    generator.getPresolver(), generator.getModel(), rankings,
+                    new File(startPath));
+            start.write();
+            System.out.println("Start solution objective: " + start.getObjective());
+
+            // Presolve removes the level variables of unmodified nodes from the
+            // ILP, so the state file that the solution is merged into (-f) must
+            // already hold their levels, and the levels of the modified nodes
+            // that SCIP will not report.
+            CompleteSolver.saveState(generator.getMergeState(rankings,
+                        modifiedNodes), new HashSet<Node>());
+        }
 
         logger.log("# Modified nodes: " + modifiedNodes.size() + 
                 " Total nodes:" + (unmodifiedNodes.size() + modifiedNodes.size()));
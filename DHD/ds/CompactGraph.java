@@ -0,0 +1,390 @@
+package DHD.ds;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import DHD.graph.*;
+
+/**
+ * @author Joshua A. Campbell
+ *
+ * A compact, immutable directed graph. Node names are interned to dense int
+ * ids through a NameIndex and the adjacency is stored in CSR form: for each
+ * node v, an offsets array gives the range [offsets[v], offsets[v+1]) of its
+ * entries in a flat target array.
+ *
+ * Three adjacencies are stored:
+ *  out  : the nodes v points to (the tails of v, see Node.getTails()).
+ *  in   : the nodes that point to v (the heads of v, see Node.getHeads()).
+ *  nbr  : the undirected neighbors of v (see Node.getNeighbors()).
+ *
+ * Edges are sorted by (from, to) and duplicates are dropped, so the position
+ * of an edge in the out adjacency doubles as its edge id.
+ *
+ * Ids are shared with every other graph built on the same NameIndex. A graph
+ * only contains the ids that had been interned when it was built and that
+ * have at least one incident edge; see contains().
+ */
+public class CompactGraph
+{
+    // The index used to intern node names.
+    private NameIndex names;
+    // The number of ids covered by the offset arrays.
+    private int numIds;
+
+    // Out adjacency. The position of an entry is the id of the edge.
+    private int[] outOffsets;
+    private int[] outTargets;
+    // The from endpoint of every edge.
+    private int[] edgeFrom;
+
+    // In adjacency, holding the source node and the edge id of each entry.
+    private int[] inOffsets;
+    private int[] inSources;
+    private int[] inEdges;
+
+    // Undirected neighbor adjacency.
+    private int[] nbrOffsets;
+    private int[] nbrTargets;
+
+    // The number of ids with at least one incident edge.
+    private int numNodes;
+
+    /**
+     * Builds a graph from parallel endpoint arrays. Duplicate edges are
+     * dropped.
+     *
+     * @param names The index the endpoint ids were interned with.
+     * @param from The from endpoint of each edge.
+     * @param to The to endpoint of each edge.
+     * @param numEdges The number of entries to use from the arrays.
+     */
+    public CompactGraph(NameIndex names, int[] from, int[] to, int numEdges)
+    {
+        this.names = names;
+        this.numIds = names.size();
+
+        // Sort the edges by (from, to) and remove duplicates.
+        long[] packed = new long[numEdges];
+        for (int index = 0; index < numEdges; index++)
+            packed[index] = LongHashSet.pack(from[index], to[index]);
+        Arrays.sort(packed);
+
+        int unique = 0;
+        for (int index = 0; index < numEdges; index++)
+            if (unique == 0 || packed[index] != packed[unique-1])
+                packed[unique++] = packed[index];
+
+        buildOut(packed, unique);
+        buildIn();
+        buildNeighbors();
+
+        for (int v = 0; v < numIds; v++)
+            if (nbrOffsets[v+1] != nbrOffsets[v])
+                numNodes++;
+    }
+
+    /**
+     * Reads a graph through a GraphReader, interning its names in the given
+     * index.
+     */
+    public static CompactGraph fromReader(GraphReader reader, NameIndex names)
+    {
+        return reader.getCompactGraph(names);
+    }
+
+    /**
+     * Reads a graph through a GraphReader using a new name index.
+     */
+    public static CompactGraph fromReader(GraphReader reader)
+    {
+        return fromReader(reader, new NameIndex());
+    }
+
+    private void buildOut(long[] packed, int numEdges)
+    {
+        outOffsets = new int[numIds + 1];
+        outTargets = new int[numEdges];
+        edgeFrom = new int[numEdges];
+
+        for (int e = 0; e < numEdges; e++)
+        {
+            edgeFrom[e] = LongHashSet.from(packed[e]);
+            outTargets[e] = LongHashSet.to(packed[e]);
+            outOffsets[edgeFrom[e] + 1]++;
+        }
+        for (int v = 0; v < numIds; v++)
+            outOffsets[v+1] += outOffsets[v];
+    }
+
+    private void buildIn()
+    {
+        int numEdges = outTargets.length;
+        inOffsets = new int[numIds + 1];
+        inSources = new int[numEdges];
+        inEdges = new int[numEdges];
+
+        for (int e = 0; e < numEdges; e++)
+            inOffsets[outTargets[e] + 1]++;
+        for (int v = 0; v < numIds; v++)
+            inOffsets[v+1] += inOffsets[v];
+
+        // Edges are visited in from order, so each in list ends up sorted.
+        int[] fill = Arrays.copyOf(inOffsets, numIds);
+        for (int e = 0; e < numEdges; e++)
+        {
+            int slot = fill[outTargets[e]]++;
+            inSources[slot] = edgeFrom[e];
+            inEdges[slot] = e;
+        }
+    }
+
+    private void buildNeighbors()
+    {
+        // First pass counts, second pass fills the merged lists.
+        nbrOffsets = new int[numIds + 1];
+        for (int v = 0; v < numIds; v++)
+            nbrOffsets[v+1] = nbrOffsets[v] + mergeNeighbors(v, null, 0);
+
+        nbrTargets = new int[nbrOffsets[numIds]];
+        for (int v = 0; v < numIds; v++)
+            mergeNeighbors(v, nbrTargets, nbrOffsets[v]);
+    }
+
+    /**
+     * Merges the sorted out and in lists of v without duplicates.
+     *
+     * @return The number of neighbors of v.
+     */
+    private int mergeNeighbors(int v, int[] dest, int destStart)
+    {
+        int o = outOffsets[v], oEnd = outOffsets[v+1];
+        int i = inOffsets[v], iEnd = inOffsets[v+1];
+        int count = 0;
+        int last = -1;
+
+        while (o < oEnd || i < iEnd)
+        {
+            int next;
+            if (i >= iEnd || (o < oEnd && outTargets[o] <= inSources[i]))
+                next = outTargets[o++];
+            else
+                next = inSources[i++];
+
+            if (next == last)
+                continue;
+            if (dest != null)
+                dest[destStart + count] = next;
+            count++;
+            last = next;
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns the index used to intern the node names of this graph.
+     */
+    public NameIndex getNameIndex()
+    {
+        return names;
+    }
+
+    /**
+     * Returns the number of ids covered by this graph. Valid node ids are in
+     * [0, numIds()).
+     */
+    public int numIds()
+    {
+        return numIds;
+    }
+
+    /**
+     * Returns the number of nodes with at least one incident edge.
+     */
+    public int numNodes()
+    {
+        return numNodes;
+    }
+
+    /**
+     * Returns the number of edges.
+     */
+    public int numEdges()
+    {
+        return outTargets.length;
+    }
+
+    /**
+     * Returns true if the node has at least one incident edge in this graph.
+     */
+    public boolean contains(int v)
+    {
+        return v >= 0 && v < numIds && nbrOffsets[v+1] != nbrOffsets[v];
+    }
+
+    /**
+     * Returns the name of the node.
+     */
+    public String getName(int v)
+    {
+        return names.getName(v);
+    }
+
+    /**
+     * Returns the id of the named node, or -1 if it is not in this graph.
+     */
+    public int getId(String name)
+    {
+        int v = names.getId(name);
+        return contains(v) ? v : -1;
+    }
+
+    /*
+     * Out adjacency. Entries in [outBegin(v), outEnd(v)) are edge ids.
+     */
+
+    public int outBegin(int v)
+    {
+        return v < numIds ? outOffsets[v] : 0;
+    }
+
+    public int outEnd(int v)
+    {
+        return v < numIds ? outOffsets[v+1] : 0;
+    }
+
+    /**
+     * Returns the node the out entry (edge) points to.
+     */
+    public int outTarget(int index)
+    {
+        return outTargets[index];
+    }
+
+    /*
+     * In adjacency. Entries in [inBegin(v), inEnd(v)).
+     */
+
+    public int inBegin(int v)
+    {
+        return v < numIds ? inOffsets[v] : 0;
+    }
+
+    public int inEnd(int v)
+    {
+        return v < numIds ? inOffsets[v+1] : 0;
+    }
+
+    /**
+     * Returns the node the in entry comes from.
+     */
+    public int inSource(int index)
+    {
+        return inSources[index];
+    }
+
+    /**
+     * Returns the edge id of the in entry.
+     */
+    public int inEdge(int index)
+    {
+        return inEdges[index];
+    }
+
+    /*
+     * Undirected neighbor adjacency. Entries in [neighborBegin(v),
+     * neighborEnd(v)).
+     */
+
+    public int neighborBegin(int v)
+    {
+        return v < numIds ? nbrOffsets[v] : 0;
+    }
+
+    public int neighborEnd(int v)
+    {
+        return v < numIds ? nbrOffsets[v+1] : 0;
+    }
+
+    public int neighbor(int index)
+    {
+        return nbrTargets[index];
+    }
+
+    /**
+     * Returns the from endpoint of the edge.
+     */
+    public int edgeFrom(int e)
+    {
+        return edgeFrom[e];
+    }
+
+    /**
+     * Returns the to endpoint of the edge.
+     */
+    public int edgeTo(int e)
+    {
+        return outTargets[e];
+    }
+
+    /**
+     * Returns the id of the edge (from, to), or -1 if it is not in the graph.
+     */
+    public int findEdge(int from, int to)
+    {
+        if (from < 0 || from >= numIds)
+            return -1;
+        int e = Arrays.binarySearch(outTargets, outOffsets[from],
+                outOffsets[from+1], to);
+        return e >= 0 ? e : -1;
+    }
+
+    /**
+     * Returns true if the edge (from, to) is in the graph.
+     */
+    public boolean hasEdge(int from, int to)
+    {
+        return findEdge(from, to) != -1;
+    }
+
+    /**
+     * Returns a Node for the id. The node carries only the name.
+     */
+    public Node getNode(int v)
+    {
+        return new Node(names.getName(v));
+    }
+
+    /**
+     * Returns an Edge for the edge id. The nodes carry only their names.
+     */
+    public Edge getEdge(int e)
+    {
+        return new Edge(getNode(edgeFrom[e]), getNode(outTargets[e]));
+    }
+
+    /**
+     * Returns the nodes of this graph as Node objects.
+     */
+    public Set<Node> getNodes()
+    {
+        Set<Node> nodes = new HashSet<Node>();
+        for (int v = 0; v < numIds; v++)
+            if (contains(v))
+                nodes.add(getNode(v));
+        return nodes;
+    }
+
+    /**
+     * Returns the edges of this graph as Edge objects.
+     */
+    public Set<Edge> getEdges()
+    {
+        Set<Edge> edges = new HashSet<Edge>();
+        for (int e = 0; e < outTargets.length; e++)
+            edges.add(getEdge(e));
+        return edges;
+    }
+}
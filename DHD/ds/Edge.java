@@ -46,7 +46,7 @@ public class Edge
     @Override
     public int hashCode()
     {
-        return from.hashCode() & to.hashCode();
+        return 31 * from.hashCode() + to.hashCode();
     }
 
     @Override 
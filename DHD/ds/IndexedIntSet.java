@@ -0,0 +1,102 @@
+package DHD.ds;
+
+import java.util.Random;
+
+/**
+ * @author Joshua A. Campbell
+ *
+ * A set of ints in [0, capacity) with constant time add, remove, contains
+ * and uniform random pick. The values are kept densely packed in an array,
+ * and the position of each value in that array is indexed by the value, so
+ * a removal swaps the last value into the hole.
+ *
+ * The order of the values is not kept.
+ *
+ * This class was not meant to be thread-safe.
+ */
+public class IndexedIntSet
+{
+    // The values of the set, in [0, size).
+    private int[] values;
+    // The index of each value in values, -1 if it is not in the set.
+    private int[] positions;
+    private int size = 0;
+
+    /**
+     * @param capacity The values of the set are in [0, capacity).
+     */
+    public IndexedIntSet(int capacity)
+    {
+        values = new int[capacity];
+        positions = new int[capacity];
+        for (int value = 0; value < capacity; value++)
+            positions[value] = -1;
+    }
+
+    /**
+     * Adds the value to the set.
+     *
+     * @return Returns true if the value was not in the set.
+     */
+    public boolean add(int value)
+    {
+        if (positions[value] != -1)
+            return false;
+
+        positions[value] = size;
+        values[size++] = value;
+        return true;
+    }
+
+    /**
+     * Removes the value from the set.
+     *
+     * @return Returns true if the value was in the set.
+     */
+    public boolean remove(int value)
+    {
+        int position = positions[value];
+        if (position == -1)
+            return false;
+
+        // Move the last value into the hole.
+        int last = values[--size];
+        values[position] = last;
+        positions[last] = position;
+        positions[value] = -1;
+        return true;
+    }
+
+    /**
+     * Returns true if the value is in the set.
+     */
+    public boolean contains(int value)
+    {
+        return positions[value] != -1;
+    }
+
+    /**
+     * Returns a value of the set chosen uniformly at random. The set must
+     * not be empty.
+     */
+    public int pick(Random random)
+    {
+        return values[random.nextInt(size)];
+    }
+
+    /**
+     * Returns the number of values in the set.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns true if the set is empty.
+     */
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+}
@@ -0,0 +1,95 @@
+package DHD.ds;
+
+import java.util.Arrays;
+
+/**
+ * @author Joshua A. Campbell
+ *
+ * A growable list of primitive ints.
+ *
+ * This class was not meant to be thread-safe.
+ */
+public class IntList
+{
+    private int[] values;
+    private int size = 0;
+
+    public IntList()
+    {
+        this(16);
+    }
+
+    /**
+     * @param capacity The initial capacity of the list.
+     */
+    public IntList(int capacity)
+    {
+        values = new int[Math.max(capacity, 1)];
+    }
+
+    /**
+     * Appends the value to the end of the list.
+     */
+    public void add(int value)
+    {
+        if (size == values.length)
+            values = Arrays.copyOf(values, size * 2);
+        values[size++] = value;
+    }
+
+    /**
+     * Returns the value at the given index.
+     */
+    public int get(int index)
+    {
+        return values[index];
+    }
+
+    /**
+     * Replaces the value at the given index.
+     */
+    public void set(int index, int value)
+    {
+        values[index] = value;
+    }
+
+    /**
+     * Returns the number of values in the list.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns true if the list holds no values.
+     */
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    /**
+     * Removes and returns the last value of the list.
+     */
+    public int removeLast()
+    {
+        return values[--size];
+    }
+
+    /**
+     * Removes every value from the list.
+     */
+    public void clear()
+    {
+        size = 0;
+    }
+
+    /**
+     * Returns a copy of the values in the list.
+     */
+    public int[] toArray()
+    {
+        return Arrays.copyOf(values, size);
+    }
+}
@@ -0,0 +1,189 @@
+package DHD.ds;
+
+/**
+ * @author Joshua A. Campbell
+ *
+ * An open addressing hash set of primitive longs. Used to store packed
+ * (from, to) edge pairs without boxing.
+ *
+ * This class was not meant to be thread-safe.
+ */
+public class LongHashSet
+{
+    // Marks an empty slot. The value itself is tracked separately.
+    private static final long EMPTY = 0L;
+
+    private long[] table;
+    private int size = 0;
+    // True if the value EMPTY is in the set.
+    private boolean hasEmpty = false;
+
+    public LongHashSet()
+    {
+        this(16);
+    }
+
+    /**
+     * @param expected The number of values the set is expected to hold.
+     */
+    public LongHashSet(int expected)
+    {
+        int capacity = 16;
+        while (capacity < 2L * expected)
+            capacity <<= 1;
+        table = new long[capacity];
+    }
+
+    /**
+     * Packs a directed edge into a single long.
+     */
+    public static long pack(int from, int to)
+    {
+        return ((long) from << 32) | (to & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Returns the from id of a packed edge.
+     */
+    public static int from(long edge)
+    {
+        return (int) (edge >>> 32);
+    }
+
+    /**
+     * Returns the to id of a packed edge.
+     */
+    public static int to(long edge)
+    {
+        return (int) edge;
+    }
+
+    /**
+     * Adds the value to the set.
+     *
+     * @return True if the value was not already in the set.
+     */
+    public boolean add(long value)
+    {
+        if (value == EMPTY)
+        {
+            if (hasEmpty)
+                return false;
+            hasEmpty = true;
+            size++;
+            return true;
+        }
+
+        int slot = find(value);
+        if (table[slot] == value)
+            return false;
+
+        table[slot] = value;
+        size++;
+
+        // Keep the table at most half full.
+        if (2 * size > table.length)
+            rehash();
+        return true;
+    }
+
+    /**
+     * Returns true if the value is in the set.
+     */
+    public boolean contains(long value)
+    {
+        if (value == EMPTY)
+            return hasEmpty;
+        return table[find(value)] == value;
+    }
+
+    /**
+     * Removes the value from the set.
+     *
+     * @return True if the value was in the set.
+     */
+    public boolean remove(long value)
+    {
+        if (value == EMPTY)
+        {
+            if (!hasEmpty)
+                return false;
+            hasEmpty = false;
+            size--;
+            return true;
+        }
+
+        int slot = find(value);
+        if (table[slot] != value)
+            return false;
+
+        // Backward shift deletion keeps the probe sequences intact.
+        int mask = table.length - 1;
+        int hole = slot;
+        int next = (slot + 1) & mask;
+        while (table[next] != EMPTY)
+        {
+            int home = mix(table[next]) & mask;
+            // Move the entry if its home slot is not between the hole and it.
+            if (((next - home) & mask) >= ((next - hole) & mask))
+            {
+                table[hole] = table[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        table[hole] = EMPTY;
+        size--;
+        return true;
+    }
+
+    /**
+     * Returns the number of values in the set.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the values of the set in no particular order.
+     */
+    public long[] toArray()
+    {
+        long[] values = new long[size];
+        int count = 0;
+        if (hasEmpty)
+            values[count++] = EMPTY;
+        for (long value : table)
+            if (value != EMPTY)
+                values[count++] = value;
+        return values;
+    }
+
+    /**
+     * Returns the slot holding the value, or the empty slot where it belongs.
+     */
+    private int find(long value)
+    {
+        int mask = table.length - 1;
+        int slot = mix(value) & mask;
+        while (table[slot] != EMPTY && table[slot] != value)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private void rehash()
+    {
+        long[] old = table;
+        table = new long[old.length * 2];
+        for (long value : old)
+            if (value != EMPTY)
+                table[find(value)] = value;
+    }
+
+    private static int mix(long value)
+    {
+        value *= 0x9E3779B97F4A7C15L;
+        return (int) (value ^ (value >>> 32));
+    }
+}
@@ -0,0 +1,107 @@
+package DHD.ds;
+
+import java.util.Arrays;
+
+/**
+ * @author Joshua A. Campbell
+ *
+ * Interns node names to dense int ids (0, 1, 2, ...). Ids are handed out in
+ * the order names are first seen. Several graphs may share one index so that
+ * the same node has the same id in each of them.
+ *
+ * This class was not meant to be thread-safe.
+ */
+public class NameIndex
+{
+    // Id -> name.
+    private String[] names = new String[64];
+    // The number of interned names.
+    private int size = 0;
+
+    // Open addressing table of (id + 1), 0 marks an empty slot.
+    private int[] table = new int[128];
+
+    public NameIndex()
+    {
+
+    }
+
+    /**
+     * Returns the id of the name, interning it if it has not been seen yet.
+     *
+     * @param name The node name.
+     */
+    public int intern(String name)
+    {
+        int slot = find(name);
+        if (table[slot] != 0)
+            return table[slot] - 1;
+
+        if (size == names.length)
+            names = Arrays.copyOf(names, size * 2);
+        names[size] = name;
+        table[slot] = ++size;
+
+        // Keep the table at most half full.
+        if (2 * size > table.length)
+            rehash();
+
+        return size - 1;
+    }
+
+    /**
+     * Returns the id of the name, or -1 if it was never interned.
+     *
+     * @param name The node name.
+     */
+    public int getId(String name)
+    {
+        return table[find(name)] - 1;
+    }
+
+    /**
+     * Returns the name with the given id.
+     */
+    public String getName(int id)
+    {
+        return names[id];
+    }
+
+    /**
+     * Returns the number of interned names.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the slot holding the name, or the empty slot where it belongs.
+     */
+    private int find(String name)
+    {
+        int mask = table.length - 1;
+        int slot = spread(name.hashCode()) & mask;
+        while (table[slot] != 0 && !names[table[slot] - 1].equals(name))
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private void rehash()
+    {
+        table = new int[table.length * 2];
+        int mask = table.length - 1;
+        for (int id = 0; id < size; id++)
+        {
+            int slot = spread(names[id].hashCode()) & mask;
+            while (table[slot] != 0)
+                slot = (slot + 1) & mask;
+            table[slot] = id + 1;
+        }
+    }
+
+    private static int spread(int hash)
+    {
+        return hash ^ (hash >>> 16);
+    }
+}
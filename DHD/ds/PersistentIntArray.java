@@ -0,0 +1,180 @@
+package DHD.ds;
+
+import java.util.Arrays;
+
+/**
+ * @author Joshua A. Campbell
+ *
+ * An immutable array of ints that is changed by making a new version:
+ * set(...) returns a new array and leaves this one as it was. The versions
+ * share structure, so a set only copies the path to the changed value.
+ *
+ * The values are the leaves of a trie with 32 children per node, so get
+ * and set take time in log_32 of the size. Indices that were never set
+ * hold the default value, and the array grows as larger indices are set.
+ *
+ * Instances are immutable, so they can be shared between threads.
+ */
+public final class PersistentIntArray
+{
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    // One past the largest index that was set.
+    private final int size;
+    // The shift of the root, 0 if the root is a leaf.
+    private final int shift;
+    // The root: an int[WIDTH] leaf, an Object[WIDTH] inner node or null.
+    private final Object root;
+    // The value of indices that were never set.
+    private final int defaultValue;
+
+    /**
+     * Returns an empty array.
+     *
+     * @param defaultValue The value of indices that were never set.
+     */
+    public PersistentIntArray(int defaultValue)
+    {
+        this(0, 0, null, defaultValue);
+    }
+
+    private PersistentIntArray(int size, int shift, Object root, int defaultValue)
+    {
+        this.size = size;
+        this.shift = shift;
+        this.root = root;
+        this.defaultValue = defaultValue;
+    }
+
+    /**
+     * Returns an array with the values, built bottom up without copying any
+     * path.
+     *
+     * @param values The values, index i gets values[i].
+     * @param count The number of values to use.
+     * @param defaultValue The value of indices that were never set.
+     */
+    public static PersistentIntArray fromArray(int[] values, int count,
+            int defaultValue)
+    {
+        if (count == 0)
+            return new PersistentIntArray(defaultValue);
+
+        // The leaves.
+        int numNodes = (count + MASK) >>> BITS;
+        Object[] level = new Object[numNodes];
+        for (int node = 0; node < numNodes; node++)
+        {
+            int[] leaf = new int[WIDTH];
+            int begin = node << BITS;
+            for (int index = 0; index < WIDTH; index++)
+                leaf[index] = begin + index < count ? values[begin + index] : defaultValue;
+            level[node] = leaf;
+        }
+
+        // The inner nodes, until there is a single root.
+        int shift = 0;
+        while (level.length > 1)
+        {
+            Object[] parents = new Object[(level.length + MASK) >>> BITS];
+            for (int node = 0; node < parents.length; node++)
+            {
+                Object[] inner = new Object[WIDTH];
+                int begin = node << BITS;
+                for (int index = 0; index < WIDTH && begin + index < level.length; index++)
+                    inner[index] = level[begin + index];
+                parents[node] = inner;
+            }
+            level = parents;
+            shift += BITS;
+        }
+
+        return new PersistentIntArray(count, shift, level[0], defaultValue);
+    }
+
+    /**
+     * Returns one past the largest index that was set.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the value at the index, the default value if it was never set.
+     */
+    public int get(int index)
+    {
+        if (index < 0 || index >= size)
+            return defaultValue;
+
+        Object node = root;
+        for (int level = shift; level > 0 && node != null; level -= BITS)
+            node = ((Object[]) node)[(index >>> level) & MASK];
+        return node == null ? defaultValue : ((int[]) node)[index & MASK];
+    }
+
+    /**
+     * Returns a new array with the value at the index. This array does not
+     * change.
+     */
+    public PersistentIntArray set(int index, int value)
+    {
+        if (index < 0)
+            throw new IndexOutOfBoundsException("Negative index: " + index);
+        if (get(index) == value && index < size)
+            return this;
+
+        // Add levels on top until the index fits.
+        Object newRoot = root;
+        int newShift = shift;
+        while (newShift + BITS < 32 && (index >>> (newShift + BITS)) != 0)
+        {
+            Object[] inner = new Object[WIDTH];
+            inner[0] = newRoot;
+            newRoot = inner;
+            newShift += BITS;
+        }
+
+        return new PersistentIntArray(Math.max(size, index + 1), newShift,
+                set(newRoot, newShift, index, value), defaultValue);
+    }
+
+    /**
+     * Returns a copy of the node with the value set below it.
+     */
+    private Object set(Object node, int level, int index, int value)
+    {
+        if (level == 0)
+        {
+            int[] leaf;
+            if (node == null)
+            {
+                leaf = new int[WIDTH];
+                if (defaultValue != 0)
+                    Arrays.fill(leaf, defaultValue);
+            }
+            else leaf = ((int[]) node).clone();
+            leaf[index & MASK] = value;
+            return leaf;
+        }
+
+        Object[] inner = node == null ? new Object[WIDTH] : ((Object[]) node).clone();
+        int slot = (index >>> level) & MASK;
+        inner[slot] = set(inner[slot], level - BITS, index, value);
+        return inner;
+    }
+
+    /**
+     * Returns the values [0, count) in a new array.
+     */
+    public int[] toArray(int count)
+    {
+        int[] values = new int[count];
+        for (int index = 0; index < count; index++)
+            values[index] = get(index);
+        return values;
+    }
+}
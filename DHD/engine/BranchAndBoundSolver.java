@@ -0,0 +1,355 @@
+package DHD.engine;
+
+import java.util.Map;
+
+import DHD.ds.*;
+
+/**
+ * @author Joshua A. Campbell
+ *
+ * Solves a HierarchyProblem in memory with depth first branch-and-bound.
+ *
+ * Free nodes are branched on in order of decreasing degree, and the levels
+ * of a node are tried cheapest first. The incumbent starts out as the given
+ * start levels (e.g. the previous ranking), improved by moving single nodes
+ * to their cheapest level, so only subtrees that can beat it are searched.
+ *
+ * The lower bound of a subtree is the sum of:
+ *  - the penalty of the edges with both endpoints assigned,
+ *  - for every unassigned node, the cheapest level given its edges to fixed
+ *    and assigned nodes (each such edge is counted for one node only),
+ *  - one for every pair of opposite edges (a, b), (b, a) between two
+ *    unassigned nodes, since one of them is always violated.
+ *
+ * The search stops after nodeLimit nodes, in which case the best solution
+ * found so far is returned and isOptimal() is false.
+ */
+public class BranchAndBoundSolver
+{
+    // The default number of search nodes before giving up on optimality.
+    public static final long DEFAULT_NODE_LIMIT = 10000000L;
+
+    private HierarchyProblem problem;
+    private long nodeLimit = DEFAULT_NODE_LIMIT;
+
+    // The order in which the free nodes are branched on.
+    private int[] order;
+    // The relative level of every assigned node.
+    private int[] value;
+    private boolean[] assigned;
+    // The cost of each level of each node given the assigned nodes.
+    private int[][] cost;
+
+    // Pairs of opposite edges between free nodes, and the pairs of each node.
+    private int[] pairA;
+    private int[] pairB;
+    private int[] pairBegin;
+    private int[] pairIds;
+    // The number of pairs with both nodes unassigned.
+    private int pairsLeft;
+
+    // The best solution found so far.
+    private int[] best;
+    private int bestObjective;
+    private long numNodes;
+    private boolean optimal;
+
+    public BranchAndBoundSolver(HierarchyProblem problem)
+    {
+        this.problem = problem;
+    }
+
+    /**
+     * Sets the number of search nodes after which the search stops.
+     */
+    public void setNodeLimit(long nodeLimit)
+    {
+        this.nodeLimit = nodeLimit;
+    }
+
+    /**
+     * Solves the problem.
+     *
+     * @param startLevels The levels of the start solution, may be null.
+     *
+     * @return Returns the level of every free node.
+     */
+    public Map<String,Integer> solve(Map<String,Integer> startLevels)
+    {
+        int numVars = problem.numVars();
+
+        best = problem.toRelative(startLevels);
+        improve(best);
+        bestObjective = problem.evaluate(best);
+        numNodes = 0;
+        optimal = true;
+
+        value = new int[numVars];
+        assigned = new boolean[numVars];
+        cost = new int[numVars][];
+        for (int v = 0; v < numVars; v++)
+        {
+            cost[v] = new int[problem.domainSize(v)];
+            for (int k = 0; k < cost[v].length; k++)
+                cost[v][k] = problem.levelCost(v, k);
+        }
+
+        findPairs();
+        sortByDegree();
+
+        search(0, problem.getConstant());
+
+        return problem.toLevels(best);
+    }
+
+    /**
+     * Returns the objective value of the returned solution.
+     */
+    public int getObjective()
+    {
+        return bestObjective;
+    }
+
+    /**
+     * Returns true if the returned solution was proven optimal.
+     */
+    public boolean isOptimal()
+    {
+        return optimal;
+    }
+
+    /**
+     * Returns the number of search nodes of the last solve.
+     */
+    public long getNumNodes()
+    {
+        return numNodes;
+    }
+
+    /**
+     * Moves single nodes to their cheapest level given all other nodes until
+     * no move lowers the penalty.
+     */
+    private void improve(int[] levels)
+    {
+        boolean improved = true;
+        while (improved)
+        {
+            improved = false;
+            for (int v = 0; v < levels.length; v++)
+            {
+                int[] costs = new int[problem.domainSize(v)];
+                for (int k = 0; k < costs.length; k++)
+                    costs[k] = problem.levelCost(v, k);
+
+                for (int index = problem.adjBegin(v); index < problem.adjEnd(v); index++)
+                {
+                    int e = problem.adjEdge(index);
+                    boolean out = problem.edgeFrom(e) == v;
+                    int w = out ? problem.edgeTo(e) : problem.edgeFrom(e);
+                    int level = problem.getLower(w) + levels[w];
+
+                    for (int k = 0; k < costs.length; k++)
+                    {
+                        boolean violated = out
+                            ? HierarchyProblem.isViolated(problem.getLower(v) + k, level)
+                            : HierarchyProblem.isViolated(level, problem.getLower(v) + k);
+                        if (violated)
+                            costs[k]++;
+                    }
+                }
+
+                for (int k = 0; k < costs.length; k++)
+                {
+                    if (costs[k] < costs[levels[v]])
+                    {
+                        levels[v] = k;
+                        improved = true;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the pairs of opposite edges between free nodes.
+     */
+    private void findPairs()
+    {
+        int numVars = problem.numVars();
+
+        LongHashSet edges = new LongHashSet();
+        for (int e = 0; e < problem.numEdges(); e++)
+            edges.add(LongHashSet.pack(problem.edgeFrom(e), problem.edgeTo(e)));
+
+        IntList a = new IntList();
+        IntList b = new IntList();
+        int[] count = new int[numVars];
+        for (int e = 0; e < problem.numEdges(); e++)
+        {
+            int from = problem.edgeFrom(e);
+            int to = problem.edgeTo(e);
+            if (from < to && edges.contains(LongHashSet.pack(to, from)))
+            {
+                a.add(from);
+                b.add(to);
+                count[from]++;
+                count[to]++;
+            }
+        }
+
+        pairA = a.toArray();
+        pairB = b.toArray();
+        pairsLeft = pairA.length;
+
+        pairBegin = new int[numVars + 1];
+        for (int v = 0; v < numVars; v++)
+            pairBegin[v + 1] = pairBegin[v] + count[v];
+        pairIds = new int[pairBegin[numVars]];
+        for (int v = 0; v < numVars; v++)
+            count[v] = pairBegin[v];
+        for (int p = 0; p < pairA.length; p++)
+        {
+            pairIds[count[pairA[p]]++] = p;
+            pairIds[count[pairB[p]]++] = p;
+        }
+    }
+
+    /**
+     * Orders the free nodes by decreasing degree, so the most constrained
+     * nodes are branched on first.
+     */
+    private void sortByDegree()
+    {
+        int numVars = problem.numVars();
+
+        // Counting sort on the degree.
+        int maxDegree = 0;
+        for (int v = 0; v < numVars; v++)
+            maxDegree = Math.max(maxDegree, problem.adjEnd(v) - problem.adjBegin(v));
+
+        int[] start = new int[maxDegree + 2];
+        for (int v = 0; v < numVars; v++)
+            start[maxDegree - (problem.adjEnd(v) - problem.adjBegin(v)) + 1]++;
+        for (int d = 1; d < start.length; d++)
+            start[d] += start[d - 1];
+
+        order = new int[numVars];
+        for (int v = 0; v < numVars; v++)
+            order[start[maxDegree - (problem.adjEnd(v) - problem.adjBegin(v))]++] = v;
+    }
+
+    /**
+     * Returns the lower bound on the penalty of the unassigned nodes.
+     */
+    private int remainingBound(int depth)
+    {
+        int bound = pairsLeft;
+        for (int index = depth; index < order.length; index++)
+        {
+            int[] costs = cost[order[index]];
+            int min = costs[0];
+            for (int k = 1; k < costs.length; k++)
+                if (costs[k] < min)
+                    min = costs[k];
+            bound += min;
+        }
+        return bound;
+    }
+
+    /**
+     * Adds (sign 1) or removes (sign -1) the cost that assigning v to level k
+     * puts on the levels of its unassigned neighbors.
+     */
+    private void propagate(int v, int k, int sign)
+    {
+        int level = problem.getLower(v) + k;
+
+        for (int index = problem.adjBegin(v); index < problem.adjEnd(v); index++)
+        {
+            int e = problem.adjEdge(index);
+            boolean out = problem.edgeFrom(e) == v;
+            int w = out ? problem.edgeTo(e) : problem.edgeFrom(e);
+            if (assigned[w])
+                continue;
+
+            int lower = problem.getLower(w);
+            for (int j = 0; j < cost[w].length; j++)
+            {
+                boolean violated = out
+                    ? HierarchyProblem.isViolated(level, lower + j)
+                    : HierarchyProblem.isViolated(lower + j, level);
+                if (violated)
+                    cost[w][j] += sign;
+            }
+        }
+
+        // Pairs with v are no longer between two unassigned nodes.
+        for (int index = pairBegin[v]; index < pairBegin[v + 1]; index++)
+        {
+            int p = pairIds[index];
+            int w = pairA[p] == v ? pairB[p] : pairA[p];
+            if (!assigned[w])
+                pairsLeft -= sign;
+        }
+    }
+
+    /**
+     * Searches the subtree below the first depth nodes of order.
+     *
+     * @param depth The number of assigned nodes.
+     * @param objective The penalty of the assigned nodes.
+     */
+    private void search(int depth, int objective)
+    {
+        if (numNodes++ >= nodeLimit)
+        {
+            optimal = false;
+            return;
+        }
+
+        if (depth == order.length)
+        {
+            if (objective < bestObjective)
+            {
+                bestObjective = objective;
+                best = value.clone();
+            }
+            return;
+        }
+
+        if (objective + remainingBound(depth) >= bestObjective)
+            return;
+
+        int v = order[depth];
+        int[] costs = cost[v];
+
+        // Try the levels cheapest first. Domains are small, so a selection
+        // over the levels is cheap.
+        boolean[] tried = new boolean[costs.length];
+        for (int count = 0; count < costs.length; count++)
+        {
+            int k = -1;
+            for (int j = 0; j < costs.length; j++)
+                if (!tried[j] && (k == -1 || costs[j] < costs[k]))
+                    k = j;
+            tried[k] = true;
+
+            int newObjective = objective + costs[k];
+            if (newObjective >= bestObjective)
+                break;
+
+            value[v] = k;
+            propagate(v, k, 1);
+            assigned[v] = true;
+
+            search(depth + 1, newObjective);
+
+            assigned[v] = false;
+            propagate(v, k, -1);
+
+            if (!optimal)
+                return;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package DHD.engine;
+
+import DHD.ds.*;
+
+/**
+ * @author Joshua A. Campbell
+ *
+ * Computes a lower bound on the minimum penalty of a graph for a number of
+ * levels, without solving the ILP.
+ *
+ * An edge (n_i, n_j) is satisfied only if level(n_i) GT level(n_j), so a run
+ * of satisfied edges visits strictly decreasing levels and has at most
+ * numLevels - 1 edges. Hence, with L = numLevels:
+ *  - a cycle of c edges has at least ceil(c / L) violated edges,
+ *  - a path of m edges has at least ceil((m + 1) / L) - 1 violated edges.
+ * These bounds add up over edge disjoint cycles and paths, so the bound is
+ * found by packing them greedily:
+ * 1. pairs of opposite edges (the shortest cycles),
+ * 2. cycles found by a depth first search over the remaining edges, whose
+ *    edges are removed as soon as a cycle is closed,
+ * 3. paths in the remaining (now acyclic) edges, found by walking from each
+ *    node along the edge to the node with the longest path below it.
+ * Every step is linear in the size of the graph.
+ */
+public class CyclePackingBound
+{
+    private CompactGraph graph;
+    private int numLevels;
+
+    // Edges (out positions of the graph) already used by the packing.
+    private boolean[] used;
+
+    // The contribution of each step of the last computation.
+    private int numPairs = 0;
+    private int numCycles = 0;
+    private int cycleBound = 0;
+    private int numPaths = 0;
+    private int pathBound = 0;
+
+    /**
+     * @param graph The graph.
+     * @param numLevels The number of levels in the hierarchy.
+     */
+    public CyclePackingBound(CompactGraph graph, int numLevels)
+    {
+        this.graph = graph;
+        this.numLevels = numLevels;
+    }
+
+    /**
+     * Returns a lower bound on the minimum penalty.
+     */
+    public int compute()
+    {
+        used = new boolean[graph.numEdges()];
+        numPairs = 0;
+        numCycles = 0;
+        cycleBound = 0;
+        numPaths = 0;
+        pathBound = 0;
+
+        packPairs();
+        packCycles();
+        packPaths();
+
+        return numPairs + cycleBound + pathBound;
+    }
+
+    /**
+     * Returns a short summary of the last computation.
+     */
+    public String getReport()
+    {
+        return "Lower bound: " + (numPairs + cycleBound + pathBound)
+            + " (" + numPairs + " opposite edge pairs, "
+            + numCycles + " cycles adding " + cycleBound + ", "
+            + numPaths + " long paths adding " + pathBound + ")";
+    }
+
+    /**
+     * Packs the pairs of opposite edges, and self loops.
+     */
+    private void packPairs()
+    {
+        for (int e = 0; e < graph.numEdges(); e++)
+        {
+            int from = graph.edgeFrom(e);
+            int to = graph.edgeTo(e);
+
+            if (from == to)
+            {
+                // A self loop is a cycle of one edge.
+                used[e] = true;
+                numCycles++;
+                cycleBound++;
+            }
+            else if (from < to)
+            {
+                int reverse = graph.findEdge(to, from);
+                if (reverse != -1)
+                {
+                    used[e] = true;
+                    used[reverse] = true;
+                    numPairs++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Packs cycles with a depth first search. When an edge closes a cycle
+     * back to a node on the stack, the edges of the cycle are removed and
+     * the search continues from that node. Nodes above it on the stack are
+     * visited again later, but every edge is looked at a constant number of
+     * times since the edge cursor of a node only moves forward.
+     */
+    private void packCycles()
+    {
+        int numIds = graph.numIds();
+
+        // 0 not visited, 1 on the stack, 2 done.
+        byte[] state = new byte[numIds];
+        // The next out edge of each node to look at.
+        int[] cursor = new int[numIds];
+        for (int v = 0; v < numIds; v++)
+            cursor[v] = graph.outBegin(v);
+
+        // The stack of nodes, and the edge that led to each of them.
+        int[] stack = new int[numIds];
+        int[] stackEdge = new int[numIds];
+        // The position of each node on the stack.
+        int[] position = new int[numIds];
+
+        for (int root = 0; root < numIds; root++)
+        {
+            if (state[root] != 0)
+                continue;
+
+            int size = 0;
+            stack[size] = root;
+            stackEdge[size] = -1;
+            position[root] = size++;
+            state[root] = 1;
+
+            while (size > 0)
+            {
+                int v = stack[size - 1];
+
+                // Skip used edges and edges to finished nodes.
+                while (cursor[v] < graph.outEnd(v)
+                        && (used[cursor[v]] || state[graph.outTarget(cursor[v])] == 2))
+                    cursor[v]++;
+
+                if (cursor[v] == graph.outEnd(v))
+                {
+                    state[v] = 2;
+                    size--;
+                    continue;
+                }
+
+                int e = cursor[v];
+                int w = graph.outTarget(e);
+
+                if (state[w] == 0)
+                {
+                    // Tree edge, go deeper.
+                    stack[size] = w;
+                    stackEdge[size] = e;
+                    position[w] = size++;
+                    state[w] = 1;
+                    continue;
+                }
+
+                // w is on the stack, the edge closes a cycle from w to v.
+                int length = size - position[w];
+                used[e] = true;
+                for (int index = position[w] + 1; index < size; index++)
+                {
+                    used[stackEdge[index]] = true;
+                    // These nodes are visited again from their cursor.
+                    state[stack[index]] = 0;
+                }
+                size = position[w] + 1;
+
+                numCycles++;
+                cycleBound += (length + numLevels - 1) / numLevels;
+            }
+        }
+    }
+
+    /**
+     * Packs long paths in the remaining edges, which form a DAG.
+     */
+    private void packPaths()
+    {
+        int numIds = graph.numIds();
+
+        // Topological order of the remaining edges (Kahn).
+        int[] inDegree = new int[numIds];
+        for (int e = 0; e < graph.numEdges(); e++)
+            if (!used[e])
+                inDegree[graph.edgeTo(e)]++;
+
+        int[] order = new int[numIds];
+        int head = 0;
+        int tail = 0;
+        for (int v = 0; v < numIds; v++)
+            if (inDegree[v] == 0)
+                order[tail++] = v;
+        while (head < tail)
+        {
+            int v = order[head++];
+            for (int e = graph.outBegin(v); e < graph.outEnd(v); e++)
+                if (!used[e] && --inDegree[graph.outTarget(e)] == 0)
+                    order[tail++] = graph.outTarget(e);
+        }
+
+        // The longest path of remaining edges below each node.
+        int[] height = new int[numIds];
+        for (int index = tail - 1; index >= 0; index--)
+        {
+            int v = order[index];
+            for (int e = graph.outBegin(v); e < graph.outEnd(v); e++)
+                if (!used[e])
+                    height[v] = Math.max(height[v], height[graph.outTarget(e)] + 1);
+        }
+
+        // Walk from each node in topological order, always to the unused
+        // edge with the highest target.
+        for (int index = 0; index < tail; index++)
+        {
+            int v = order[index];
+            int length = 0;
+            while (true)
+            {
+                int next = -1;
+                for (int e = graph.outBegin(v); e < graph.outEnd(v); e++)
+                    if (!used[e] && (next == -1
+                                || height[graph.outTarget(e)] > height[graph.outTarget(next)]))
+                        next = e;
+                if (next == -1)
+                    break;
+
+                used[next] = true;
+                length++;
+                v = graph.outTarget(next);
+            }
+
+            int violations = (length + numLevels) / numLevels - 1;
+            if (violations > 0)
+            {
+                numPaths++;
+                pathBound += violations;
+            }
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package DHD.engine;
+
+import DHD.ds.*;
+
+/**
+ * @author Joshua A. Campbell
+ *
+ * Finds a good (not necessarily optimal) hierarchy for a whole graph in
+ * O((V + E) * numLevels) per refinement round.
+ *
+ * 1. Order the nodes with the greedy feedback arc set heuristic of Eades,
+ *    Lin and Smyth: repeatedly take sinks to the back, sources to the front,
+ *    and otherwise the node with the largest outdegree - indegree to the
+ *    front. Most edges then point forward in the order.
+ * 2. Layer the order: the height of a node is the longest path of forward
+ *    edges from it to a sink, and heights are scaled into numLevels levels.
+ *    Forward edges then point from a higher to a lower level wherever the
+ *    scaling keeps their endpoints apart.
+ * 3. Refine by moving single nodes to their cheapest level until no move
+ *    lowers the penalty, or maxRounds rounds have passed.
+ *
+ * As in the ILP, the edge (n_i, n_j) is violated iff level(n_j) GTE
+ * level(n_i).
+ */
+public class GreedyHierarchySolver
+{
+    // The default number of refinement rounds.
+    public static final int DEFAULT_MAX_ROUNDS = 100;
+
+    private CompactGraph graph;
+    private int numLevels;
+    private int maxRounds = DEFAULT_MAX_ROUNDS;
+
+    // The number of refinement rounds of the last solve.
+    private int numRounds = 0;
+
+    /**
+     * @param graph The graph to find the hierarchy of.
+     * @param numLevels The number of levels in the hierarchy.
+     */
+    public GreedyHierarchySolver(CompactGraph graph, int numLevels)
+    {
+        this.graph = graph;
+        this.numLevels = numLevels;
+    }
+
+    /**
+     * Sets the maximum number of refinement rounds.
+     */
+    public void setMaxRounds(int maxRounds)
+    {
+        this.maxRounds = maxRounds;
+    }
+
+    /**
+     * Returns the number of refinement rounds of the last solve.
+     */
+    public int getNumRounds()
+    {
+        return numRounds;
+    }
+
+    /**
+     * Returns the level of every id of the graph. Ids that are not nodes of
+     * the graph get level 0.
+     */
+    public int[] solve()
+    {
+        int[] order = order();
+        int[] levels = layer(order);
+        refine(levels);
+        return levels;
+    }
+
+    /**
+     * Returns the number of violated edges.
+     */
+    public static int penalty(CompactGraph graph, int[] levels)
+    {
+        int penalty = 0;
+        for (int e = 0; e < graph.numEdges(); e++)
+            if (HierarchyProblem.isViolated(levels[graph.edgeFrom(e)], levels[graph.edgeTo(e)]))
+                penalty++;
+        return penalty;
+    }
+
+    /**
+     * Returns the nodes of the graph in greedy feedback arc set order.
+     */
+    private int[] order()
+    {
+        int numIds = graph.numIds();
+
+        // Degrees among the nodes not placed yet. Self loops are violated in
+        // any order, so they are left out.
+        int[] outDegree = new int[numIds];
+        int[] inDegree = new int[numIds];
+        int maxDegree = 0;
+        for (int v = 0; v < numIds; v++)
+        {
+            for (int index = graph.outBegin(v); index < graph.outEnd(v); index++)
+            {
+                int w = graph.outTarget(index);
+                if (w != v)
+                {
+                    outDegree[v]++;
+                    inDegree[w]++;
+                }
+            }
+        }
+        for (int v = 0; v < numIds; v++)
+            maxDegree = Math.max(maxDegree, Math.max(outDegree[v], inDegree[v]));
+
+        // Buckets of the nodes by outdegree - indegree, as doubly linked
+        // lists. Bucket b holds delta b - maxDegree.
+        int[] head = new int[2 * maxDegree + 1];
+        int[] next = new int[numIds];
+        int[] prev = new int[numIds];
+        for (int b = 0; b < head.length; b++)
+            head[b] = -1;
+
+        boolean[] placed = new boolean[numIds];
+        // Nodes that became a sink or source, checked again when popped.
+        IntList sinks = new IntList();
+        IntList sources = new IntList();
+
+        int numLeft = 0;
+        for (int v = 0; v < numIds; v++)
+        {
+            if (!graph.contains(v))
+            {
+                placed[v] = true;
+                continue;
+            }
+            numLeft++;
+            link(v, outDegree[v] - inDegree[v] + maxDegree, head, next, prev);
+            if (outDegree[v] == 0)
+                sinks.add(v);
+            else if (inDegree[v] == 0)
+                sources.add(v);
+        }
+
+        // The front of the order grows forwards, the back grows backwards.
+        int[] order = new int[numLeft];
+        int front = 0;
+        int back = numLeft - 1;
+        // The highest bucket that may be non empty.
+        int top = head.length - 1;
+
+        while (front <= back)
+        {
+            int v = -1;
+            boolean toBack = false;
+
+            // Sinks go to the back.
+            while (v == -1 && !sinks.isEmpty())
+            {
+                int w = sinks.removeLast();
+                if (!placed[w] && outDegree[w] == 0)
+                {
+                    v = w;
+                    toBack = true;
+                }
+            }
+            // Sources go to the front.
+            while (v == -1 && !sources.isEmpty())
+            {
+                int w = sources.removeLast();
+                if (!placed[w] && inDegree[w] == 0)
+                    v = w;
+            }
+            // Otherwise the node with the largest delta goes to the front.
+            if (v == -1)
+            {
+                while (head[top] == -1)
+                    top--;
+                v = head[top];
+            }
+
+            placed[v] = true;
+            unlink(v, outDegree[v] - inDegree[v] + maxDegree, head, next, prev);
+            if (toBack)
+                order[back--] = v;
+            else
+                order[front++] = v;
+
+            // Remove the edges of v from its neighbors.
+            for (int index = graph.outBegin(v); index < graph.outEnd(v); index++)
+            {
+                int w = graph.outTarget(index);
+                if (placed[w])
+                    continue;
+                unlink(w, outDegree[w] - inDegree[w] + maxDegree, head, next, prev);
+                inDegree[w]--;
+                link(w, outDegree[w] - inDegree[w] + maxDegree, head, next, prev);
+                if (inDegree[w] == 0)
+                    sources.add(w);
+            }
+            for (int index = graph.inBegin(v); index < graph.inEnd(v); index++)
+            {
+                int w = graph.inSource(index);
+                if (placed[w])
+                    continue;
+                unlink(w, outDegree[w] - inDegree[w] + maxDegree, head, next, prev);
+                outDegree[w]--;
+                link(w, outDegree[w] - inDegree[w] + maxDegree, head, next, prev);
+                if (outDegree[w] == 0)
+                    sinks.add(w);
+            }
+            // A removed in-edge raises the delta of a node by one.
+            top = Math.min(head.length - 1, top + 1);
+        }
+
+        return order;
+    }
+
+    /**
+     * Adds v to the front of the bucket.
+     */
+    private static void link(int v, int bucket, int[] head, int[] next, int[] prev)
+    {
+        prev[v] = -1;
+        next[v] = head[bucket];
+        if (head[bucket] != -1)
+            prev[head[bucket]] = v;
+        head[bucket] = v;
+    }
+
+    /**
+     * Removes v from the bucket.
+     */
+    private static void unlink(int v, int bucket, int[] head, int[] next, int[] prev)
+    {
+        if (prev[v] != -1)
+            next[prev[v]] = next[v];
+        else
+            head[bucket] = next[v];
+        if (next[v] != -1)
+            prev[next[v]] = prev[v];
+    }
+
+    /**
+     * Returns the levels of the nodes, given their order.
+     */
+    private int[] layer(int[] order)
+    {
+        int numIds = graph.numIds();
+
+        int[] position = new int[numIds];
+        for (int index = 0; index < order.length; index++)
+            position[order[index]] = index;
+
+        // The longest path of forward edges to a sink, back to front.
+        int[] height = new int[numIds];
+        int maxHeight = 0;
+        for (int index = order.length - 1; index >= 0; index--)
+        {
+            int v = order[index];
+            for (int out = graph.outBegin(v); out < graph.outEnd(v); out++)
+            {
+                int w = graph.outTarget(out);
+                if (position[w] > index)
+                    height[v] = Math.max(height[v], height[w] + 1);
+            }
+            maxHeight = Math.max(maxHeight, height[v]);
+        }
+
+        // Scale the heights into the levels.
+        int[] levels = new int[numIds];
+        for (int v : order)
+            levels[v] = (int) ((long) height[v] * numLevels / (maxHeight + 1));
+        return levels;
+    }
+
+    /**
+     * Moves single nodes to their cheapest level until no move lowers the
+     * penalty.
+     */
+    private void refine(int[] levels)
+    {
+        int[] costs = new int[numLevels];
+
+        boolean improved = true;
+        for (numRounds = 0; improved && numRounds < maxRounds; numRounds++)
+        {
+            improved = false;
+            for (int v = 0; v < graph.numIds(); v++)
+            {
+                if (!graph.contains(v))
+                    continue;
+
+                for (int k = 0; k < numLevels; k++)
+                    costs[k] = 0;
+
+                // Out edges are violated at levels LTE the target.
+                for (int index = graph.outBegin(v); index < graph.outEnd(v); index++)
+                {
+                    int w = graph.outTarget(index);
+                    if (w == v)
+                        continue;
+                    for (int k = 0; k <= levels[w]; k++)
+                        costs[k]++;
+                }
+                // In edges are violated at levels GTE the source.
+                for (int index = graph.inBegin(v); index < graph.inEnd(v); index++)
+                {
+                    int w = graph.inSource(index);
+                    if (w == v)
+                        continue;
+                    for (int k = levels[w]; k < numLevels; k++)
+                        costs[k]++;
+                }
+
+                for (int k = 0; k < numLevels; k++)
+                {
+                    if (costs[k] < costs[levels[v]])
+                    {
+                        levels[v] = k;
+                        improved = true;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package DHD.engine;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import DHD.ds.*;
+import DHD.ilp.*;
+
+/**
+ * @author Joshua A. Campbell
+ *
+ * The hierarchy ILP of Complete/PartialILPGenerator in a form that can be
+ * solved in memory. The model is the same: every free node gets an integer
+ * level within its bounds, and an edge (n_i, n_j) is violated iff
+ *  level(n_j) GTE level(n_i)
+ * The objective is the number of violated edges.
+ *
+ * The problem is built from a presolve stage, so fixed nodes are already
+ * constants. An edge between a free node and a fixed node only depends on
+ * the level of the free node and is folded into a per level cost of that
+ * node. Only edges between two free nodes are kept as edges.
+ *
+ * Free nodes are numbered 0..numVars-1, and their levels are stored
+ * relative to their lower bound (0..domainSize-1).
+ */
+public class HierarchyProblem
+{
+    // The name and bounds of each free node.
+    private String[] names;
+    private int[] lower;
+    private int[] upper;
+
+    // The cost of each (relative) level of a free node, from its edges to
+    // fixed nodes.
+    private int[][] levelCosts;
+
+    // Edges between two different free nodes.
+    private int[] edgeFrom;
+    private int[] edgeTo;
+    private int numEdges = 0;
+
+    // The edges of each free node: edge ids in the range
+    // [adjBegin[v], adjBegin[v+1]) of adjEdges.
+    private int[] adjBegin;
+    private int[] adjEdges;
+
+    // The penalty that does not depend on any free node.
+    private int constant;
+
+    /**
+     * @param presolver A presolve stage that has already run.
+     */
+    public HierarchyProblem(Presolver presolver)
+    {
+        constant = presolver.getObjectiveConstant();
+
+        // Number the free nodes.
+        Map<String,Integer> ids = new HashMap<String,Integer>();
+        for (String node : presolver.getNodes())
+            if (!presolver.isFixed(node))
+                ids.put(node, ids.size());
+
+        int numVars = ids.size();
+        names = new String[numVars];
+        lower = new int[numVars];
+        upper = new int[numVars];
+        levelCosts = new int[numVars][];
+        for (Map.Entry<String,Integer> entry : ids.entrySet())
+        {
+            int v = entry.getValue();
+            names[v] = entry.getKey();
+            lower[v] = presolver.getLowerBound(names[v]);
+            upper[v] = presolver.getUpperBound(names[v]);
+            levelCosts[v] = new int[upper[v] - lower[v] + 1];
+        }
+
+        int numRemaining = presolver.getRemainingEdges().size();
+        edgeFrom = new int[numRemaining];
+        edgeTo = new int[numRemaining];
+        int[] degree = new int[numVars];
+
+        for (Edge edge : presolver.getRemainingEdges())
+        {
+            String from = edge.getFrom().getName();
+            String to = edge.getTo().getName();
+
+            if (presolver.isFixed(to))
+            {
+                // Violated iff level(from) LTE level(to).
+                int v = ids.get(from);
+                int level = presolver.getFixedLevel(to);
+                for (int k = 0; k < levelCosts[v].length; k++)
+                    if (lower[v] + k <= level)
+                        levelCosts[v][k]++;
+            }
+            else if (presolver.isFixed(from))
+            {
+                // Violated iff level(to) GTE level(from).
+                int v = ids.get(to);
+                int level = presolver.getFixedLevel(from);
+                for (int k = 0; k < levelCosts[v].length; k++)
+                    if (lower[v] + k >= level)
+                        levelCosts[v][k]++;
+            }
+            else if (from.equals(to))
+            {
+                // A self loop is always violated.
+                constant++;
+            }
+            else
+            {
+                edgeFrom[numEdges] = ids.get(from);
+                edgeTo[numEdges] = ids.get(to);
+                degree[edgeFrom[numEdges]]++;
+                degree[edgeTo[numEdges]]++;
+                numEdges++;
+            }
+        }
+
+        // Build the adjacency of the free nodes.
+        adjBegin = new int[numVars + 1];
+        for (int v = 0; v < numVars; v++)
+            adjBegin[v + 1] = adjBegin[v] + degree[v];
+        adjEdges = new int[adjBegin[numVars]];
+        int[] next = new int[numVars];
+        for (int v = 0; v < numVars; v++)
+            next[v] = adjBegin[v];
+        for (int e = 0; e < numEdges; e++)
+        {
+            adjEdges[next[edgeFrom[e]]++] = e;
+            adjEdges[next[edgeTo[e]]++] = e;
+        }
+    }
+
+    /**
+     * Returns the number of free nodes.
+     */
+    public int numVars()
+    {
+        return names.length;
+    }
+
+    /**
+     * Returns the number of edges between two free nodes.
+     */
+    public int numEdges()
+    {
+        return numEdges;
+    }
+
+    /**
+     * Returns the name of the free node.
+     */
+    public String getName(int v)
+    {
+        return names[v];
+    }
+
+    /**
+     * Returns the lower bound of the level of the free node.
+     */
+    public int getLower(int v)
+    {
+        return lower[v];
+    }
+
+    /**
+     * Returns the number of levels the free node may take.
+     */
+    public int domainSize(int v)
+    {
+        return levelCosts[v].length;
+    }
+
+    /**
+     * Returns the cost of the free node taking the relative level k, from
+     * its edges to fixed nodes.
+     */
+    public int levelCost(int v, int k)
+    {
+        return levelCosts[v][k];
+    }
+
+    public int edgeFrom(int e)
+    {
+        return edgeFrom[e];
+    }
+
+    public int edgeTo(int e)
+    {
+        return edgeTo[e];
+    }
+
+    public int adjBegin(int v)
+    {
+        return adjBegin[v];
+    }
+
+    public int adjEnd(int v)
+    {
+        return adjBegin[v + 1];
+    }
+
+    public int adjEdge(int index)
+    {
+        return adjEdges[index];
+    }
+
+    /**
+     * Returns the penalty that does not depend on any free node.
+     */
+    public int getConstant()
+    {
+        return constant;
+    }
+
+    /**
+     * Returns true if the edge is violated when its endpoints take the
+     * absolute levels.
+     */
+    public static boolean isViolated(int fromLevel, int toLevel)
+    {
+        return toLevel >= fromLevel;
+    }
+
+    /**
+     * Returns the relative levels of the given levels, clamped to the bounds.
+     * Nodes without a level start at their lower bound.
+     */
+    public int[] toRelative(Map<String,Integer> levels)
+    {
+        int[] relative = new int[names.length];
+        for (int v = 0; v < names.length; v++)
+        {
+            Integer level = levels == null ? null : levels.get(names[v]);
+            if (level == null || level < lower[v])
+                relative[v] = 0;
+            else if (level > upper[v])
+                relative[v] = upper[v] - lower[v];
+            else
+                relative[v] = level - lower[v];
+        }
+        return relative;
+    }
+
+    /**
+     * Returns the absolute level of every free node.
+     */
+    public Map<String,Integer> toLevels(int[] relative)
+    {
+        Map<String,Integer> levels = new HashMap<String,Integer>();
+        for (int v = 0; v < names.length; v++)
+            levels.put(names[v], lower[v] + relative[v]);
+        return levels;
+    }
+
+    /**
+     * Returns the objective value of the relative levels.
+     */
+    public int evaluate(int[] relative)
+    {
+        int objective = constant;
+        for (int v = 0; v < names.length; v++)
+            objective += levelCosts[v][relative[v]];
+        for (int e = 0; e < numEdges; e++)
+            if (isViolated(lower[edgeFrom[e]] + relative[edgeFrom[e]],
+                        lower[edgeTo[e]] + relative[edgeTo[e]]))
+                objective++;
+        return objective;
+    }
+}
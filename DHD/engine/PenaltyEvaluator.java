@@ -0,0 +1,249 @@
+package DHD.engine;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import DHD.ds.*;
+
+/**
+ * @author Joshua A. Campbell
+ *
+ * Scores a ranking of a graph without solving anything: the penalty (the
+ * number of violated edges), the violations per level and the violating
+ * edges themselves. As in the ILP, the edge (n_i, n_j) is violated iff
+ * level(n_j) GTE level(n_i). The violations of an edge are counted at the
+ * level of n_i, the node the edge leaves.
+ *
+ * The edges are split into ranges that are scored in parallel, and the
+ * results of the ranges are merged in edge order, so the result does not
+ * depend on the number of threads.
+ */
+public class PenaltyEvaluator
+{
+    // Ranges smaller than this are not worth a thread.
+    private static final int MIN_RANGE_SIZE = 1 << 16;
+
+    private CompactGraph graph;
+    private int[] levels;
+
+    // The results of the last evaluation.
+    private int penalty = 0;
+    private int[] violationsByLevel = new int[0];
+    private int[] violatingEdges = new int[0];
+
+    /**
+     * @param graph The graph.
+     * @param levels The level of each id of the graph, see readRanking(...).
+     */
+    public PenaltyEvaluator(CompactGraph graph, int[] levels)
+    {
+        this.graph = graph;
+        this.levels = levels;
+    }
+
+    /**
+     * Returns the level of every id of the graph as given by a ranking in
+     * the state file format (one "name level" per line). Nodes that are not
+     * in the ranking get level 0, like new nodes in the state file. Names
+     * that are not in the graph are ignored.
+     *
+     * @param graph The graph.
+     * @param rankingFile The ranking, e.g. tmp/__state.
+     * @param ranked If not null, set to true for the ids of the graph that
+     * are in the ranking. Must have room for every id.
+     */
+    public static int[] readRanking(CompactGraph graph, File rankingFile,
+            boolean[] ranked)
+    {
+        int[] levels = new int[graph.numIds()];
+
+        String line;
+        try (BufferedReader input = new BufferedReader(new FileReader(rankingFile)))
+        {
+            // Read the whole file.
+            while ((line = input.readLine()) != null)
+            {
+                // Split the line at the whitespace between name and level.
+                int nameEnd = 0;
+                while (nameEnd < line.length() && !Character.isWhitespace(line.charAt(nameEnd)))
+                    nameEnd++;
+                int levelBegin = nameEnd;
+                while (levelBegin < line.length() && Character.isWhitespace(line.charAt(levelBegin)))
+                    levelBegin++;
+                if (nameEnd == 0 || levelBegin == line.length())
+                    continue;
+
+                int id = graph.getId(line.substring(0, nameEnd));
+                if (id == -1 || id >= levels.length)
+                    continue;
+
+                levels[id] = Integer.parseInt(line.substring(levelBegin).trim());
+                if (ranked != null)
+                    ranked[id] = true;
+            }
+
+            input.close();
+        }
+        catch (IOException e)
+        {
+            System.err.println(e);
+        }
+
+        return levels;
+    }
+
+    /**
+     * Scores the ranking in this thread.
+     *
+     * @return Returns the penalty.
+     */
+    public int evaluate()
+    {
+        return evaluate(1);
+    }
+
+    /**
+     * Scores the ranking.
+     *
+     * @param numThreads The number of threads to score with.
+     *
+     * @return Returns the penalty.
+     */
+    public int evaluate(int numThreads)
+    {
+        int numEdges = graph.numEdges();
+
+        // The breakdown covers every level that is used.
+        int numLevels = 1;
+        for (int v = 0; v < levels.length; v++)
+            numLevels = Math.max(numLevels, levels[v] + 1);
+
+        int numRanges = Math.max(1, Math.min(numThreads, numEdges / MIN_RANGE_SIZE));
+        List<Range> ranges = new ArrayList<Range>();
+        for (int index = 0; index < numRanges; index++)
+            ranges.add(new Range((int) ((long) numEdges * index / numRanges),
+                        (int) ((long) numEdges * (index + 1) / numRanges), numLevels));
+
+        if (numRanges == 1)
+            ranges.get(0).call();
+        else runAll(ranges, numRanges);
+
+        // Merge the ranges in edge order.
+        penalty = 0;
+        violationsByLevel = new int[numLevels];
+        for (Range range : ranges)
+        {
+            penalty += range.violating.size();
+            for (int level = 0; level < numLevels; level++)
+                violationsByLevel[level] += range.violationsByLevel[level];
+        }
+
+        violatingEdges = new int[penalty];
+        int count = 0;
+        for (Range range : ranges)
+            for (int index = 0; index < range.violating.size(); index++)
+                violatingEdges[count++] = range.violating.get(index);
+
+        return penalty;
+    }
+
+    /**
+     * Scores the ranges on a pool of threads. The other ranges alone would pass
+     * for the whole penalty, so the failure of a range is rethrown.
+     */
+    private static void runAll(List<Range> ranges, int numThreads)
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        try
+        {
+            for (Future<Void> future : pool.invokeAll(ranges))
+                future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while scoring.", e);
+        }
+        catch (ExecutionException e)
+        {
+            // Fail as the range would have in this thread.
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error)
+                throw (Error) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Returns the penalty of the last evaluation.
+     */
+    public int getPenalty()
+    {
+        return penalty;
+    }
+
+    /**
+     * Returns the number of violated edges leaving each level, for the
+     * levels 0 up to the highest level used.
+     */
+    public int[] getViolationsByLevel()
+    {
+        return violationsByLevel;
+    }
+
+    /**
+     * Returns the ids of the violated edges in increasing order, see
+     * CompactGraph.edgeFrom(...) and edgeTo(...).
+     */
+    public int[] getViolatingEdges()
+    {
+        return violatingEdges;
+    }
+
+    /**
+     * Scores the edges [begin, end).
+     */
+    private class Range implements Callable<Void>
+    {
+        private int begin;
+        private int end;
+        private int[] violationsByLevel;
+        private IntList violating = new IntList();
+
+        Range(int begin, int end, int numLevels)
+        {
+            this.begin = begin;
+            this.end = end;
+            this.violationsByLevel = new int[numLevels];
+        }
+
+        @Override
+        public Void call()
+        {
+            for (int e = begin; e < end; e++)
+            {
+                int fromLevel = levels[graph.edgeFrom(e)];
+                if (HierarchyProblem.isViolated(fromLevel, levels[graph.edgeTo(e)]))
+                {
+                    violating.add(e);
+                    violationsByLevel[Math.max(fromLevel, 0)]++;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package DHD.graph;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import DHD.ds.*;
+
+/**
+ * @author Joshua A. Campbell
+ *
+ * Reads a graph written by BinaryGraphWriter. The file is memory-mapped and
+ * decoded in a single pass; see BinaryGraphWriter for the layout.
+ *
+ * This class was not meant to be thread-safe.
+ */
+public class BinaryGraphReader extends GraphReader
+{
+    // The file containing the graph to be processed.
+    private File graphFile;
+
+    // The decoded file. Ids are local to the file.
+    private String[] names = null;
+    private int[] from;
+    private int[] to;
+
+    // Holds the nodes and edges in this graph.
+    private Set<Node> nodes = null;
+    private Set<Edge> edges = null;
+
+    /**
+     * Constructs a graph reader using the specified file as the input graph.
+     *
+     * @param graphFile The graph file to parse.
+     */
+    public BinaryGraphReader(File graphFile)
+    {
+        this.graphFile = graphFile;
+    }
+
+    /**
+     * Returns true if the file starts with the binary graph magic bytes.
+     */
+    public static boolean isBinaryGraph(File file)
+    {
+        byte[] magic = BinaryGraphWriter.MAGIC;
+        if (file.length() < magic.length)
+            return false;
+
+        try (RandomAccessFile input = new RandomAccessFile(file, "r"))
+        {
+            for (byte b : magic)
+                if (input.readByte() != b)
+                    return false;
+            return true;
+        }
+        catch (IOException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Decodes the graph file into the name and endpoint arrays.
+     */
+    private void decode()
+    {
+        names = new String[0];
+        from = new int[0];
+        to = new int[0];
+
+        try (RandomAccessFile input = new RandomAccessFile(graphFile, "r");
+                FileChannel channel = input.getChannel())
+        {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                    0, channel.size());
+
+            for (byte b : BinaryGraphWriter.MAGIC)
+                if (buffer.get() != b)
+                    throw new IOException("Not a binary graph file: " + graphFile);
+            int version = buffer.get();
+            if (version != BinaryGraphWriter.VERSION)
+                throw new IOException("Unsupported binary graph version: " + version);
+
+            int numNodes = readVarint(buffer);
+            int numEdges = readVarint(buffer);
+
+            // Node name dictionary.
+            String[] tempNames = new String[numNodes];
+            byte[] scratch = new byte[64];
+            for (int v = 0; v < numNodes; v++)
+            {
+                int length = readVarint(buffer);
+                if (length > scratch.length)
+                    scratch = new byte[Math.max(length, 2 * scratch.length)];
+                buffer.get(scratch, 0, length);
+                tempNames[v] = new String(scratch, 0, length, StandardCharsets.UTF_8);
+            }
+
+            // Delta-encoded adjacency.
+            int[] tempFrom = new int[numEdges];
+            int[] tempTo = new int[numEdges];
+            int e = 0;
+            for (int v = 0; v < numNodes; v++)
+            {
+                int degree = readVarint(buffer);
+                int target = 0;
+                for (int index = 0; index < degree; index++)
+                {
+                    target += readVarint(buffer);
+                    tempFrom[e] = v;
+                    tempTo[e] = target;
+                    e++;
+                }
+            }
+
+            names = tempNames;
+            from = tempFrom;
+            to = tempTo;
+        }
+        catch (IOException e)
+        {
+            System.err.println(e);
+        }
+    }
+
+    /**
+     * Reads an unsigned LEB128 varint.
+     */
+    private static int readVarint(MappedByteBuffer buffer)
+    {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do
+        {
+            b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        }
+        while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * Builds the Node and Edge sets from the decoded arrays.
+     */
+    private void buildSets()
+    {
+        if (names == null)
+            decode();
+
+        Node[] tempNodes = new Node[names.length];
+        for (int v = 0; v < names.length; v++)
+            tempNodes[v] = new Node(names[v]);
+
+        edges = new HashSet<Edge>();
+        for (int e = 0; e < from.length; e++)
+        {
+            Node a = tempNodes[from[e]];
+            Node b = tempNodes[to[e]];
+
+            edges.add(new Edge(a,b));
+
+            // Update the neighbors.
+            a.addNeighbor(b);
+            b.addNeighbor(a);
+            a.addTail(b);
+            b.addHead(a);
+        }
+
+        nodes = new HashSet<Node>();
+        for (Node node : tempNodes)
+            nodes.add(node);
+    }
+
+    /**
+     * Builds the compact graph straight from the decoded arrays.
+     */
+    @Override
+    public CompactGraph getCompactGraph(NameIndex index)
+    {
+        if (names == null)
+            decode();
+
+        // Translate the file ids to ids of the shared index.
+        int[] ids = new int[names.length];
+        for (int v = 0; v < names.length; v++)
+            ids[v] = index.intern(names[v]);
+
+        int[] tempFrom = new int[from.length];
+        int[] tempTo = new int[to.length];
+        for (int e = 0; e < from.length; e++)
+        {
+            tempFrom[e] = ids[from[e]];
+            tempTo[e] = ids[to[e]];
+        }
+
+        return new CompactGraph(index, tempFrom, tempTo, from.length);
+    }
+
+    /**
+     * Returns the nodes that were read from the graph file.
+     * Lazy-reads the graph.
+     */
+    @Override
+    public Set<Node> getNodes()
+    {
+        if (nodes == null)
+            buildSets();
+        return new HashSet<Node>(nodes);
+    }
+
+    /**
+     * Returns the edges that were read from the graph file.
+     * Lazy-reads the graph.
+     */
+    @Override
+    public Set<Edge> getEdges()
+    {
+        if (edges == null)
+            buildSets();
+        return new HashSet<Edge>(edges);
+    }
+
+    /**
+     * Returns a read-only view of the nodes without copying them.
+     * Lazy-reads the graph.
+     */
+    @Override
+    public Set<Node> nodeView()
+    {
+        if (nodes == null)
+            buildSets();
+        return Collections.unmodifiableSet(nodes);
+    }
+
+    /**
+     * Returns a read-only view of the edges without copying them.
+     * Lazy-reads the graph.
+     */
+    @Override
+    public Set<Edge> edgeView()
+    {
+        if (edges == null)
+            buildSets();
+        return Collections.unmodifiableSet(edges);
+    }
+
+    /**
+     * Passes every edge to the visitor straight from the decoded arrays.
+     */
+    @Override
+    public void forEachEdge(EdgeVisitor visitor)
+    {
+        if (names == null)
+            decode();
+
+        for (int e = 0; e < from.length; e++)
+            visitor.visit(names[from[e]], names[to[e]]);
+    }
+}
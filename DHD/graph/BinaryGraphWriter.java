@@ -0,0 +1,140 @@
+package DHD.graph;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+import DHD.ds.*;
+
+/**
+ * @author Joshua A. Campbell
+ *
+ * Outputs the graph in the compact binary format read by BinaryGraphReader.
+ *
+ * Layout (all integers are unsigned LEB128 varints unless noted):
+ *  magic      : the 4 bytes "DHDG"
+ *  version    : 1 byte
+ *  numNodes
+ *  numEdges
+ *  dictionary : for each node id, the length of its UTF-8 name then the name
+ *  adjacency  : for each node id, its out degree followed by its sorted
+ *               targets. The first target is stored as is, every following
+ *               target as the difference to the previous one.
+ */
+public class BinaryGraphWriter extends GraphWriter
+{
+    // Identifies the binary graph format.
+    public static final byte[] MAGIC = { 'D', 'H', 'D', 'G' };
+    // The current version of the format.
+    public static final int VERSION = 1;
+
+    // The graph to write.
+    private CompactGraph graph;
+    // The output file to write to.
+    private File outputFile;
+
+    /**
+     * @param edges The edges of the graph.
+     * @param outputFile The output file.
+     */
+    public BinaryGraphWriter(Set<Edge> edges, File outputFile)
+    {
+        NameIndex names = new NameIndex();
+        int[] from = new int[edges.size()];
+        int[] to = new int[edges.size()];
+
+        int count = 0;
+        for (Edge edge : edges)
+        {
+            from[count] = names.intern(edge.getFrom().getName());
+            to[count] = names.intern(edge.getTo().getName());
+            count++;
+        }
+
+        this.graph = new CompactGraph(names, from, to, count);
+        this.outputFile = outputFile;
+    }
+
+    /**
+     * @param graph The graph to write.
+     * @param outputFile The output file.
+     */
+    public BinaryGraphWriter(CompactGraph graph, File outputFile)
+    {
+        this.graph = graph;
+        this.outputFile = outputFile;
+    }
+
+    @Override
+    public void write()
+    {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(outputFile), 1 << 16)))
+        {
+            // Only the ids used by the graph are written, so they need to be
+            // renumbered densely.
+            int numIds = graph.numIds();
+            int[] newId = new int[numIds];
+            int numNodes = 0;
+            for (int v = 0; v < numIds; v++)
+                newId[v] = graph.contains(v) ? numNodes++ : -1;
+
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            writeVarint(out, numNodes);
+            writeVarint(out, graph.numEdges());
+
+            // Node name dictionary.
+            for (int v = 0; v < numIds; v++)
+            {
+                if (newId[v] == -1)
+                    continue;
+                byte[] name = graph.getName(v).getBytes(StandardCharsets.UTF_8);
+                writeVarint(out, name.length);
+                out.write(name);
+            }
+
+            // Delta-encoded adjacency. Renumbering keeps the id order, so
+            // the targets stay sorted.
+            for (int v = 0; v < numIds; v++)
+            {
+                if (newId[v] == -1)
+                    continue;
+
+                writeVarint(out, graph.outEnd(v) - graph.outBegin(v));
+                int prev = 0;
+                for (int e = graph.outBegin(v); e < graph.outEnd(v); e++)
+                {
+                    int target = newId[graph.outTarget(e)];
+                    writeVarint(out, target - prev);
+                    prev = target;
+                }
+            }
+
+            out.close();
+        }
+        catch (IOException e)
+        {
+            System.err.println("Unable to write graph to file in BinaryGraphWriter.write()");
+            System.err.println(e);
+        }
+    }
+
+    /**
+     * Writes a non-negative int as an unsigned LEB128 varint.
+     */
+    private static void writeVarint(DataOutputStream out, int value)
+        throws IOException
+    {
+        while ((value & ~0x7F) != 0)
+        {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+}
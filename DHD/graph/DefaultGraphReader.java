@@ -5,6 +5,7 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.File;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -126,5 +127,63 @@ public class DefaultGraphReader extends GraphReader
         return new HashSet<Edge>(edges);
     }
 
+    /**
+     * Returns a read-only view of the nodes without copying them.
+     * Lazy-reads the graph.
+     */
+    @Override
+    public Set<Node> nodeView()
+    {
+        if (nodes == null)
+            parseGraph();
+        return Collections.unmodifiableSet(nodes);
+    }
+
+    /**
+     * Returns a read-only view of the edges without copying them.
+     * Lazy-reads the graph.
+     */
+    @Override
+    public Set<Edge> edgeView()
+    {
+        if (edges == null)
+            parseGraph();
+        return Collections.unmodifiableSet(edges);
+    }
+
+    /**
+     * Passes every edge to the visitor. If the graph has not been read yet,
+     * the edges are streamed from the file without building the node and
+     * edge sets. Duplicate lines are then passed on as they appear.
+     */
+    @Override
+    public void forEachEdge(EdgeVisitor visitor)
+    {
+        if (edges != null)
+        {
+            super.forEachEdge(visitor);
+            return;
+        }
+
+        String line;
+        String[] lineObjs;
+
+        try(BufferedReader input = new BufferedReader(new FileReader(graphFile)))
+        {
+            // Read the whole file.
+            while ((line = input.readLine()) != null)
+            {
+                lineObjs = line.split("\\s++"); 
+                
+                if (lineObjs.length != 2) 
+                    break;
 
+                visitor.visit(lineObjs[0], lineObjs[1]);
+            }
+        }
+        catch(IOException e)
+        {
+            System.err.println(e);
+        }
+    }
 }
@@ -0,0 +1,77 @@
+package DHD.graph;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+import DHD.ds.*;
+
+/**
+ * @author Joshua A. Campbell
+ *
+ * Reads an edge delta written by DeltaWriter.
+ * Ex:
+ * + a b
+ * - a c
+ *
+ * Empty lines are skipped. Reading stops at the first malformed line.
+ */
+public class DeltaReader
+{
+    // The file containing the delta.
+    private File deltaFile;
+
+    public DeltaReader(File deltaFile)
+    {
+        this.deltaFile = deltaFile;
+    }
+
+    /**
+     * Returns the delta stored in the file.
+     */
+    public EdgeDelta getDelta()
+    {
+        EdgeDelta delta = new EdgeDelta();
+
+        String line;
+        String[] lineObjs;
+
+        try (BufferedReader input = new BufferedReader(new FileReader(deltaFile)))
+        {
+            // Read the whole file.
+            while ((line = input.readLine()) != null)
+            {
+                line = line.trim();
+                if (line.isEmpty())
+                    continue;
+
+                lineObjs = line.split("\\s++");
+                if (lineObjs.length != 3)
+                {
+                    System.err.println("Malformed delta line: " + line);
+                    break;
+                }
+
+                Edge edge = new Edge(new Node(lineObjs[1]), new Node(lineObjs[2]));
+                if (lineObjs[0].equals(DeltaWriter.ADDED))
+                    delta.addAdded(edge);
+                else if (lineObjs[0].equals(DeltaWriter.REMOVED))
+                    delta.addRemoved(edge);
+                else
+                {
+                    System.err.println("Malformed delta line: " + line);
+                    break;
+                }
+            }
+
+            input.close();
+        }
+        catch (IOException e)
+        {
+            System.err.println(e);
+        }
+
+        return delta;
+    }
+}
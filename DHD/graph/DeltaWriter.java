@@ -0,0 +1,55 @@
+package DHD.graph;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+
+import DHD.ds.*;
+
+/**
+ * @author Joshua A. Campbell
+ *
+ * Outputs an edge delta. The file will consist of one changed edge per line:
+ *  + E1  E2
+ *  - E3  E1
+ *  ...
+ * where + marks an added edge and - marks a removed edge.
+ */
+public class DeltaWriter
+{
+    // Line prefixes for added and removed edges.
+    public static final String ADDED = "+";
+    public static final String REMOVED = "-";
+
+    // The delta to write.
+    private EdgeDelta delta;
+    // The output file to write to.
+    private File outputFile;
+
+    public DeltaWriter(EdgeDelta delta, File outputFile)
+    {
+        this.delta = delta;
+        this.outputFile = outputFile;
+    }
+
+    /**
+     * Write the delta to the output file.
+     */
+    public void write()
+    {
+        try (PrintWriter writer = new PrintWriter(outputFile))
+        {
+            for (Edge edge : delta.getAdded())
+                writer.println(ADDED + " " + edge.getFrom() + " " + edge.getTo());
+            for (Edge edge : delta.getRemoved())
+                writer.println(REMOVED + " " + edge.getFrom() + " " + edge.getTo());
+
+            writer.close();
+        }
+        catch (FileNotFoundException e)
+        {
+            System.err.println("Unable to write delta to file in DeltaWriter.write()");
+            System.err.println(e);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package DHD.graph;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import DHD.ds.*;
+
+/**
+ * @author Joshua A. Campbell
+ *
+ * The edges that were added to and removed from a graph between two
+ * revisions. See DeltaReader and DeltaWriter for the file format.
+ */
+public class EdgeDelta
+{
+    // The edges that are in the new graph but not in the old one.
+    private List<Edge> added = new ArrayList<Edge>();
+    // The edges that are in the old graph but not in the new one.
+    private List<Edge> removed = new ArrayList<Edge>();
+
+    public EdgeDelta()
+    {
+
+    }
+
+    /**
+     * Marks an edge as added.
+     */
+    public void addAdded(Edge edge)
+    {
+        added.add(edge);
+    }
+
+    /**
+     * Marks an edge as removed.
+     */
+    public void addRemoved(Edge edge)
+    {
+        removed.add(edge);
+    }
+
+    /**
+     * Returns the edges that were added.
+     */
+    public List<Edge> getAdded()
+    {
+        return added;
+    }
+
+    /**
+     * Returns the edges that were removed.
+     */
+    public List<Edge> getRemoved()
+    {
+        return removed;
+    }
+
+    /**
+     * Returns the number of changed edges.
+     */
+    public int size()
+    {
+        return added.size() + removed.size();
+    }
+
+    /**
+     * Returns the graph that results from applying this delta to the given
+     * graph. New node names are interned in the graph's index.
+     *
+     * @param graph The old revision of the graph.
+     */
+    public CompactGraph applyTo(CompactGraph graph)
+    {
+        NameIndex names = graph.getNameIndex();
+
+        // The removed edges, packed.
+        LongHashSet gone = new LongHashSet(removed.size());
+        for (Edge edge : removed)
+        {
+            int from = names.getId(edge.getFrom().getName());
+            int to = names.getId(edge.getTo().getName());
+            if (from != -1 && to != -1)
+                gone.add(LongHashSet.pack(from, to));
+        }
+
+        IntList from = new IntList(graph.numEdges() + added.size());
+        IntList to = new IntList(graph.numEdges() + added.size());
+        for (int e = 0; e < graph.numEdges(); e++)
+        {
+            if (gone.contains(LongHashSet.pack(graph.edgeFrom(e), graph.edgeTo(e))))
+                continue;
+            from.add(graph.edgeFrom(e));
+            to.add(graph.edgeTo(e));
+        }
+        for (Edge edge : added)
+        {
+            from.add(names.intern(edge.getFrom().getName()));
+            to.add(names.intern(edge.getTo().getName()));
+        }
+
+        return new CompactGraph(names, from.toArray(), to.toArray(), from.size());
+    }
+}
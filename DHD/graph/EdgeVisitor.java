@@ -0,0 +1,18 @@
+package DHD.graph;
+
+/**
+ * @author Joshua A. Campbell
+ *
+ * Receives the edges of a graph one at a time, see
+ * GraphReader.forEachEdge().
+ */
+public interface EdgeVisitor
+{
+    /**
+     * Called once for every directed edge (from, to) of the graph.
+     *
+     * @param from The name of the node the edge starts at.
+     * @param to The name of the node the edge points to.
+     */
+    public void visit(String from, String to);
+}
@@ -0,0 +1,503 @@
+package DHD.graph;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * @author Joshua A. Campbell
+ *
+ * Diffs two revisions of a graph that do not fit in memory. Each graph is
+ * sorted on disk: its edges are streamed from the graph file, sorted in runs
+ * of a bounded number of edges, and the runs are merged k ways at a time
+ * until a single sorted run without duplicate edges is left. The two sorted
+ * runs are then merged into the edge delta (see DeltaWriter) in one pass.
+ *
+ * The memory used is bounded by the run size and the merge fan-in, not by
+ * the size of the graphs. Text graphs are streamed line by line
+ * (see DefaultGraphReader), binary graphs are decoded into their compact
+ * arrays first.
+ *
+ * A run holds (from, to) name pairs sorted by from and then to, as a flag
+ * that is true before every edge and false after the last one, followed by
+ * the two names in modified UTF-8.
+ *
+ * This class was not meant to be thread-safe.
+ */
+public class ExternalGraphDiff
+{
+    // The default number of edges sorted in memory per run.
+    public static final int DEFAULT_RUN_SIZE = 1 << 20;
+    // The most runs that are merged at once.
+    private static final int MAX_FAN_IN = 64;
+
+    // The directory the runs are written to.
+    private File scratchDir;
+    // The number of edges sorted in memory per run.
+    private int runSize;
+    // The number of runs written so far, used to name them.
+    private int numRuns = 0;
+
+    // The size of the last delta.
+    private int numAdded = 0;
+    private int numRemoved = 0;
+
+    /**
+     * @param scratchDir The directory to write the runs to.
+     */
+    public ExternalGraphDiff(File scratchDir)
+    {
+        this(scratchDir, DEFAULT_RUN_SIZE);
+    }
+
+    /**
+     * @param scratchDir The directory to write the runs to.
+     * @param runSize The number of edges sorted in memory per run.
+     */
+    public ExternalGraphDiff(File scratchDir, int runSize)
+    {
+        this.scratchDir = scratchDir;
+        this.runSize = runSize < 1 ? 1 : runSize;
+    }
+
+    /**
+     * Returns a reader that streams the edges of the graph file without
+     * building its node and edge sets.
+     */
+    public static GraphReader openStream(File graphFile)
+    {
+        if (BinaryGraphReader.isBinaryGraph(graphFile))
+            return new BinaryGraphReader(graphFile);
+        return new DefaultGraphReader(graphFile);
+    }
+
+    /**
+     * Sorts the edges of the graph file into a single run in the scratch
+     * directory. Duplicate edges are dropped.
+     *
+     * @param graphFile The graph to sort.
+     *
+     * @return Returns the sorted run, or null if it could not be written.
+     */
+    public File sort(File graphFile)
+    {
+        scratchDir.mkdirs();
+
+        RunWriter writer = new RunWriter();
+        openStream(graphFile).forEachEdge(writer);
+        writer.flush();
+
+        List<File> runs = writer.runs;
+        try
+        {
+            if (writer.error != null)
+                throw writer.error;
+
+            // An empty graph still gets a run.
+            if (runs.isEmpty())
+                runs.add(writeRun(new EdgeKey[0], 0));
+
+            // Merge the runs in groups until a single one is left.
+            while (runs.size() > 1)
+            {
+                List<File> merged = new ArrayList<File>();
+                for (int begin = 0; begin < runs.size(); begin += MAX_FAN_IN)
+                    merged.add(mergeRuns(runs.subList(begin,
+                                    Math.min(runs.size(), begin + MAX_FAN_IN))));
+                runs = merged;
+            }
+
+            return runs.get(0);
+        }
+        catch (IOException e)
+        {
+            System.err.println("Unable to sort graph: " + graphFile);
+            System.err.println(e);
+            for (File run : runs)
+                run.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Writes the edge delta between two sorted runs (see sort(...)) to the
+     * delta file, in the format read by DeltaReader.
+     *
+     * @param prevRun The sorted edges of the previous revision.
+     * @param currRun The sorted edges of the current revision.
+     * @param deltaFile The file to write the delta to.
+     *
+     * @return Returns true if the delta was written.
+     */
+    public boolean diff(File prevRun, File currRun, File deltaFile)
+    {
+        numAdded = 0;
+        numRemoved = 0;
+
+        try (RunReader prev = new RunReader(prevRun);
+             RunReader curr = new RunReader(currRun);
+             PrintWriter writer = new PrintWriter(new BufferedWriter(
+                     new FileWriter(deltaFile))))
+        {
+            boolean hasPrev = prev.next();
+            boolean hasCurr = curr.next();
+            while (hasPrev || hasCurr)
+            {
+                int order = !hasPrev ? 1 : !hasCurr ? -1 : prev.edge.compareTo(curr.edge);
+                if (order == 0)
+                {
+                    hasPrev = prev.next();
+                    hasCurr = curr.next();
+                }
+                else if (order < 0)
+                {
+                    writer.println(DeltaWriter.REMOVED + " " + prev.edge);
+                    numRemoved++;
+                    hasPrev = prev.next();
+                }
+                else
+                {
+                    writer.println(DeltaWriter.ADDED + " " + curr.edge);
+                    numAdded++;
+                    hasCurr = curr.next();
+                }
+            }
+
+            if (writer.checkError())
+                throw new IOException("Unable to write delta to file: " + deltaFile);
+            return true;
+        }
+        catch (IOException e)
+        {
+            System.err.println(e);
+            return false;
+        }
+    }
+
+    /**
+     * Writes the edge delta between two graph files, sorting both of them on
+     * disk first. The runs are deleted afterwards.
+     *
+     * @param prevFile The previous revision of the graph.
+     * @param currFile The current revision of the graph.
+     * @param deltaFile The file to write the delta to.
+     *
+     * @return Returns true if the delta was written.
+     */
+    public boolean diffFiles(File prevFile, File currFile, File deltaFile)
+    {
+        File prevRun = sort(prevFile);
+        File currRun = prevRun == null ? null : sort(currFile);
+
+        boolean written = currRun != null && diff(prevRun, currRun, deltaFile);
+
+        if (prevRun != null)
+            prevRun.delete();
+        if (currRun != null)
+            currRun.delete();
+        return written;
+    }
+
+    /**
+     * Passes every edge of a sorted run to the visitor, in order.
+     *
+     * @param run The sorted run (see sort(...)).
+     * @param visitor The visitor to call for each edge.
+     *
+     * @return Returns true if the whole run was read.
+     */
+    public static boolean forEachEdge(File run, EdgeVisitor visitor)
+    {
+        try (RunReader reader = new RunReader(run))
+        {
+            while (reader.next())
+                visitor.visit(reader.edge.from, reader.edge.to);
+            return true;
+        }
+        catch (IOException e)
+        {
+            System.err.println(e);
+            return false;
+        }
+    }
+
+    /**
+     * Returns the number of edges added in the last delta.
+     */
+    public int getNumAdded()
+    {
+        return numAdded;
+    }
+
+    /**
+     * Returns the number of edges removed in the last delta.
+     */
+    public int getNumRemoved()
+    {
+        return numRemoved;
+    }
+
+    /**
+     * Returns a new run file in the scratch directory.
+     */
+    private File newRun() throws IOException
+    {
+        return File.createTempFile("run" + (numRuns++) + "_", ".edges", scratchDir);
+    }
+
+    /**
+     * Sorts the first count edges and writes them to a new run.
+     */
+    private File writeRun(EdgeKey[] edges, int count) throws IOException
+    {
+        Arrays.sort(edges, 0, count);
+
+        File run = newRun();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(run))))
+        {
+            for (int index = 0; index < count; index++)
+                if (index == 0 || edges[index].compareTo(edges[index-1]) != 0)
+                    writeEdge(out, edges[index]);
+            out.writeBoolean(false);
+        }
+        return run;
+    }
+
+    /**
+     * Merges the runs into a new run and deletes them.
+     */
+    private File mergeRuns(List<File> runs) throws IOException
+    {
+        File run = newRun();
+        try (RunMerger merger = new RunMerger(runs);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(run))))
+        {
+            while (merger.next())
+                writeEdge(out, merger.edge);
+            out.writeBoolean(false);
+        }
+        catch (IOException e)
+        {
+            run.delete();
+            throw e;
+        }
+
+        for (File merged : runs)
+            merged.delete();
+        return run;
+    }
+
+    private static void writeEdge(DataOutputStream out, EdgeKey edge)
+        throws IOException
+    {
+        out.writeBoolean(true);
+        out.writeUTF(edge.from);
+        out.writeUTF(edge.to);
+    }
+
+    /**
+     * An edge as a pair of names, ordered by from and then to.
+     */
+    private static class EdgeKey implements Comparable<EdgeKey>
+    {
+        private String from;
+        private String to;
+
+        EdgeKey(String from, String to)
+        {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public int compareTo(EdgeKey other)
+        {
+            int order = from.compareTo(other.from);
+            return order != 0 ? order : to.compareTo(other.to);
+        }
+
+        @Override
+        public String toString()
+        {
+            return from + " " + to;
+        }
+    }
+
+    /**
+     * Collects the streamed edges and writes a sorted run whenever the
+     * buffer is full. The visitor cannot throw, so the first error is kept.
+     */
+    private class RunWriter implements EdgeVisitor
+    {
+        private EdgeKey[] buffer = new EdgeKey[Math.min(runSize, 1 << 16)];
+        private int count = 0;
+        private List<File> runs = new ArrayList<File>();
+        private IOException error = null;
+
+        @Override
+        public void visit(String from, String to)
+        {
+            if (error != null)
+                return;
+
+            // Grow the buffer up to the run size.
+            if (count == buffer.length)
+                buffer = Arrays.copyOf(buffer, Math.min(runSize, 2 * buffer.length));
+
+            buffer[count++] = new EdgeKey(from, to);
+            if (count == runSize)
+                flush();
+        }
+
+        /**
+         * Writes the buffered edges to a run.
+         */
+        void flush()
+        {
+            if (count == 0 || error != null)
+                return;
+
+            try
+            {
+                runs.add(writeRun(buffer, count));
+            }
+            catch (IOException e)
+            {
+                error = e;
+            }
+
+            // Let the old edges be collected.
+            Arrays.fill(buffer, 0, count, null);
+            count = 0;
+        }
+    }
+
+    /**
+     * Reads the edges of a run in order.
+     */
+    private static class RunReader implements Closeable
+    {
+        private DataInputStream in;
+        // The current edge, after next() returned true.
+        private EdgeKey edge = null;
+
+        RunReader(File run) throws IOException
+        {
+            in = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(run)));
+        }
+
+        /**
+         * Moves to the next edge. Returns false at the end of the run.
+         */
+        boolean next() throws IOException
+        {
+            if (!in.readBoolean())
+                return false;
+            edge = new EdgeKey(in.readUTF(), in.readUTF());
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Merges sorted runs into one sorted sequence without duplicates.
+     */
+    private static class RunMerger implements Closeable
+    {
+        // The runs that have edges left, ordered by their current edge.
+        private PriorityQueue<RunCursor> queue = new PriorityQueue<RunCursor>();
+        private List<RunReader> readers = new ArrayList<RunReader>();
+        // The current edge, after next() returned true.
+        private EdgeKey edge = null;
+
+        RunMerger(List<File> runs) throws IOException
+        {
+            try
+            {
+                for (File run : runs)
+                {
+                    RunReader reader = new RunReader(run);
+                    readers.add(reader);
+                    if (reader.next())
+                        queue.add(new RunCursor(reader));
+                }
+            }
+            catch (IOException e)
+            {
+                close();
+                throw e;
+            }
+        }
+
+        /**
+         * Moves to the next distinct edge. Returns false when every run is
+         * exhausted.
+         */
+        boolean next() throws IOException
+        {
+            EdgeKey last = edge;
+            while (!queue.isEmpty())
+            {
+                RunCursor cursor = queue.poll();
+                EdgeKey candidate = cursor.reader.edge;
+                if (cursor.reader.next())
+                    queue.add(cursor);
+
+                // The same edge can be in several runs.
+                if (last == null || candidate.compareTo(last) != 0)
+                {
+                    edge = candidate;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            for (RunReader reader : readers)
+                reader.close();
+        }
+    }
+
+    /**
+     * A run in the merge queue, ordered by its current edge.
+     */
+    private static class RunCursor implements Comparable<RunCursor>
+    {
+        private RunReader reader;
+
+        RunCursor(RunReader reader)
+        {
+            this.reader = reader;
+        }
+
+        @Override
+        public int compareTo(RunCursor other)
+        {
+            return reader.edge.compareTo(other.reader.edge);
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package DHD.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import DHD.ds.*;
+
+/**
+ * @author Joshua A. Campbell
+ *
+ * The edges added and removed between two revisions of a graph, as packed
+ * (from, to) id pairs (see LongHashSet.pack(...)) sorted by from and then
+ * to.
+ *
+ * Two CompactGraphs that share a NameIndex give every node the same id, and
+ * their out lists are sorted, so both edge lists already are in packed
+ * order. The diff merges the out lists of each node, in time linear in the
+ * number of edges and without hashing or sorting. The nodes are split into
+ * ranges with about the same number of edges that are merged in parallel,
+ * and the results are concatenated in node order, so the result does not
+ * depend on the number of threads.
+ */
+public class GraphDiff
+{
+    // Ranges with fewer edges than this are not worth a thread.
+    private static final int MIN_RANGE_SIZE = 1 << 18;
+
+    private long[] added;
+    private long[] removed;
+
+    private GraphDiff(long[] added, long[] removed)
+    {
+        this.added = added;
+        this.removed = removed;
+    }
+
+    /**
+     * Returns the diff between two revisions of a graph, in this thread.
+     */
+    public static GraphDiff diff(CompactGraph prev, CompactGraph curr)
+    {
+        return diff(prev, curr, 1);
+    }
+
+    /**
+     * Returns the diff between two revisions of a graph.
+     *
+     * @param prev The previous revision.
+     * @param curr The current revision. Must share prev's NameIndex.
+     * @param numThreads The number of threads to merge with.
+     */
+    public static GraphDiff diff(CompactGraph prev, CompactGraph curr,
+            int numThreads)
+    {
+        if (prev.getNameIndex() != curr.getNameIndex())
+            throw new IllegalArgumentException("The graphs must share a NameIndex.");
+
+        int numIds = Math.max(prev.numIds(), curr.numIds());
+        long numEdges = (long) prev.numEdges() + curr.numEdges();
+        int numRanges = (int) Math.max(1, Math.min(numThreads, numEdges / MIN_RANGE_SIZE));
+
+        // Split the ids where the edges before them reach each share.
+        List<Range> ranges = new ArrayList<Range>();
+        int begin = 0;
+        for (int index = 1; index <= numRanges; index++)
+        {
+            int end = index == numRanges ? numIds
+                : firstIdAfter(prev, curr, numEdges * index / numRanges, begin, numIds);
+            ranges.add(new Range(prev, curr, begin, end));
+            begin = end;
+        }
+
+        if (numRanges == 1)
+            ranges.get(0).call();
+        else runAll(ranges, numRanges);
+
+        // Concatenate the ranges in id order.
+        int numAdded = 0;
+        int numRemoved = 0;
+        for (Range range : ranges)
+        {
+            numAdded += range.added.size();
+            numRemoved += range.removed.size();
+        }
+        long[] added = new long[numAdded];
+        long[] removed = new long[numRemoved];
+        numAdded = 0;
+        numRemoved = 0;
+        for (Range range : ranges)
+        {
+            for (int index = 0; index < range.added.size(); index++)
+                added[numAdded++] = range.added.get(index);
+            for (int index = 0; index < range.removed.size(); index++)
+                removed[numRemoved++] = range.removed.get(index);
+        }
+
+        return new GraphDiff(added, removed);
+    }
+
+    /**
+     * Returns the diff of an edge delta (see DeltaReader). New node names
+     * are interned in the index.
+     *
+     * @param delta The delta.
+     * @param names The index of the graphs the delta is between.
+     */
+    public static GraphDiff fromDelta(EdgeDelta delta, NameIndex names)
+    {
+        return new GraphDiff(pack(delta.getAdded(), names),
+                pack(delta.getRemoved(), names));
+    }
+
+    private static long[] pack(List<Edge> edges, NameIndex names)
+    {
+        long[] packed = new long[edges.size()];
+        int count = 0;
+        for (Edge edge : edges)
+            packed[count++] = LongHashSet.pack(names.intern(edge.getFrom().getName()),
+                    names.intern(edge.getTo().getName()));
+        Arrays.sort(packed);
+        return packed;
+    }
+
+    /**
+     * Returns the edges that are in the current revision but not in the
+     * previous one.
+     */
+    public long[] getAdded()
+    {
+        return added;
+    }
+
+    /**
+     * Returns the edges that are in the previous revision but not in the
+     * current one.
+     */
+    public long[] getRemoved()
+    {
+        return removed;
+    }
+
+    /**
+     * Returns the number of changed edges.
+     */
+    public int size()
+    {
+        return added.length + removed.length;
+    }
+
+    /**
+     * Returns the diff as an edge delta, e.g. for DeltaWriter.
+     *
+     * @param names The index of the graphs.
+     */
+    public EdgeDelta toDelta(NameIndex names)
+    {
+        EdgeDelta delta = new EdgeDelta();
+        for (long edge : added)
+            delta.addAdded(toEdge(edge, names));
+        for (long edge : removed)
+            delta.addRemoved(toEdge(edge, names));
+        return delta;
+    }
+
+    private static Edge toEdge(long edge, NameIndex names)
+    {
+        return new Edge(new Node(names.getName(LongHashSet.from(edge))),
+                new Node(names.getName(LongHashSet.to(edge))));
+    }
+
+    /**
+     * Returns the number of out edges of the ids before v in both graphs.
+     */
+    private static long edgesBefore(CompactGraph prev, CompactGraph curr, int v)
+    {
+        return (long) (v < prev.numIds() ? prev.outBegin(v) : prev.numEdges())
+            + (v < curr.numIds() ? curr.outBegin(v) : curr.numEdges());
+    }
+
+    /**
+     * Returns the first id in [low, high] with at least the given number of
+     * edges before it.
+     */
+    private static int firstIdAfter(CompactGraph prev, CompactGraph curr,
+            long edges, int low, int high)
+    {
+        while (low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if (edgesBefore(prev, curr, middle) < edges)
+                low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * Merges the ranges on a pool of threads. The other ranges alone would pass
+     * for the whole diff, so the failure of a range is rethrown.
+     */
+    private static void runAll(List<Range> ranges, int numThreads)
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        try
+        {
+            for (Future<Void> future : pool.invokeAll(ranges))
+                future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while diffing.", e);
+        }
+        catch (ExecutionException e)
+        {
+            // Fail as the range would have in this thread.
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error)
+                throw (Error) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Merges the out lists of the ids [begin, end).
+     */
+    private static class Range implements Callable<Void>
+    {
+        private CompactGraph prev;
+        private CompactGraph curr;
+        private int begin;
+        private int end;
+        private LongList added = new LongList();
+        private LongList removed = new LongList();
+
+        Range(CompactGraph prev, CompactGraph curr, int begin, int end)
+        {
+            this.prev = prev;
+            this.curr = curr;
+            this.begin = begin;
+            this.end = end;
+        }
+
+        @Override
+        public Void call()
+        {
+            for (int v = begin; v < end; v++)
+            {
+                int p = v < prev.numIds() ? prev.outBegin(v) : 0;
+                int pEnd = v < prev.numIds() ? prev.outEnd(v) : 0;
+                int c = v < curr.numIds() ? curr.outBegin(v) : 0;
+                int cEnd = v < curr.numIds() ? curr.outEnd(v) : 0;
+
+                // Both lists are sorted by target.
+                while (p < pEnd && c < cEnd)
+                {
+                    int prevTarget = prev.outTarget(p);
+                    int currTarget = curr.outTarget(c);
+                    if (prevTarget == currTarget)
+                    {
+                        p++;
+                        c++;
+                    }
+                    else if (prevTarget < currTarget)
+                    {
+                        removed.add(LongHashSet.pack(v, prevTarget));
+                        p++;
+                    }
+                    else
+                    {
+                        added.add(LongHashSet.pack(v, currTarget));
+                        c++;
+                    }
+                }
+                for (; p < pEnd; p++)
+                    removed.add(LongHashSet.pack(v, prev.outTarget(p)));
+                for (; c < cEnd; c++)
+                    added.add(LongHashSet.pack(v, curr.outTarget(c)));
+            }
+            return null;
+        }
+    }
+}
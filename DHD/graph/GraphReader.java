@@ -1,5 +1,7 @@
 package DHD.graph;
 
+import java.io.File;
+import java.util.Collections;
 import java.util.Set;
 
 import DHD.ds.*;
@@ -10,6 +12,20 @@ import DHD.ds.*;
 public abstract class GraphReader
 {
 
+    /**
+     * Returns a reader for the graph file. Binary graphs (see
+     * BinaryGraphWriter) are recognized by their header, every other file is
+     * read as an edge pair list.
+     *
+     * @param graphFile The graph file to read.
+     */
+    public static GraphReader open(File graphFile)
+    {
+        if (BinaryGraphReader.isBinaryGraph(graphFile))
+            return new BinaryGraphReader(graphFile);
+        return new MappedGraphReader(graphFile);
+    }
+
     /**
      * Returns the nodes of the graph.
      */
@@ -19,4 +35,60 @@ public abstract class GraphReader
      * Returns the edges of the graph.
      */
     public abstract Set<Edge> getEdges();
+
+    /**
+     * Returns a read-only view of the nodes of the graph. Unlike getNodes(),
+     * readers that hold the nodes should not copy them.
+     */
+    public Set<Node> nodeView()
+    {
+        return Collections.unmodifiableSet(getNodes());
+    }
+
+    /**
+     * Returns a read-only view of the edges of the graph. Unlike getEdges(),
+     * readers that hold the edges should not copy them.
+     */
+    public Set<Edge> edgeView()
+    {
+        return Collections.unmodifiableSet(getEdges());
+    }
+
+    /**
+     * Passes every edge of the graph to the visitor. Readers that have not
+     * built their node and edge sets yet should stream the edges without
+     * building them.
+     *
+     * @param visitor The visitor to call for each edge.
+     */
+    public void forEachEdge(EdgeVisitor visitor)
+    {
+        for (Edge edge : edgeView())
+            visitor.visit(edge.getFrom().getName(), edge.getTo().getName());
+    }
+
+    /**
+     * Returns the graph in compact form, interning the node names in the
+     * given index. Readers that can build the arrays directly should
+     * override this.
+     *
+     * @param names The index used to intern the node names.
+     */
+    public CompactGraph getCompactGraph(final NameIndex names)
+    {
+        final IntList from = new IntList();
+        final IntList to = new IntList();
+
+        forEachEdge(new EdgeVisitor()
+        {
+            @Override
+            public void visit(String fromName, String toName)
+            {
+                from.add(names.intern(fromName));
+                to.add(names.intern(toName));
+            }
+        });
+
+        return new CompactGraph(names, from.toArray(), to.toArray(), from.size());
+    }
 }
@@ -0,0 +1,555 @@
+package DHD.graph;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import DHD.ds.*;
+
+/**
+ * @author Joshua A. Campbell
+ *
+ * Reads the same edge pair format as DefaultGraphReader, but memory-maps the
+ * graph file and tokenizes the bytes directly. No regular expressions or
+ * per-line Strings are created; a String is only allocated the first time a
+ * node name is seen in a chunk.
+ *
+ * Large files are split at newline boundaries and the chunks are parsed in
+ * parallel. The chunks are then merged in file order, so the resulting nodes
+ * and edges are the same as the ones produced by DefaultGraphReader. As with
+ * DefaultGraphReader, parsing stops at the first line that does not contain
+ * exactly two names.
+ *
+ * This class was not meant to be thread-safe.
+ */
+public class MappedGraphReader extends GraphReader
+{
+    // Chunks smaller than this are not worth splitting further.
+    private static final long MIN_CHUNK_SIZE = 1 << 20;
+    // A single mapping should stay well below the 2GB mapping limit.
+    private static final long MAX_CHUNK_SIZE = 1 << 28;
+
+    // The file containing the graph to be processed.
+    private File graphFile;
+    // The number of threads used to parse the chunks.
+    private int numThreads;
+
+    // Holds the nodes and edges in this graph.
+    private Set<Node> nodes = null;
+    private Set<Edge> edges = null;
+
+    /**
+     * Constructs a graph reader using the specified file as the input graph.
+     * One parsing thread is used per available processor.
+     *
+     * @param graphFile The graph file to parse.
+     */
+    public MappedGraphReader(File graphFile)
+    {
+        this(graphFile, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructs a graph reader using the specified file as the input graph.
+     *
+     * @param graphFile The graph file to parse.
+     * @param numThreads The number of threads used to parse the file.
+     */
+    public MappedGraphReader(File graphFile, int numThreads)
+    {
+        this.graphFile = graphFile;
+        this.numThreads = numThreads < 1 ? 1 : numThreads;
+    }
+
+    /**
+     * Parses the input graph file in order to fill out the node and edge data
+     * structures.
+     */
+    private void parseGraph()
+    {
+        edges = new HashSet<Edge>();
+        nodes = new HashSet<Node>();
+
+        mergeChunks(readChunks());
+    }
+
+    /**
+     * Splits and tokenizes the whole file.
+     *
+     * @return The parsed chunks in file order.
+     */
+    private List<Chunk> readChunks()
+    {
+        try (FileChannel channel = FileChannel.open(graphFile.toPath(),
+                    StandardOpenOption.READ))
+        {
+            long[] bounds = splitFile(channel);
+            return parseChunks(channel, bounds);
+        }
+        catch(IOException e)
+        {
+            System.err.println(e);
+        }
+
+        return new ArrayList<Chunk>();
+    }
+
+    /**
+     * Splits the file into chunks that start at the beginning of a line.
+     *
+     * @return The chunk boundaries. Chunk i covers [bounds[i], bounds[i+1]).
+     */
+    private long[] splitFile(FileChannel channel) throws IOException
+    {
+        long size = channel.size();
+
+        // Decide how many chunks we want.
+        long numChunks = Math.max(numThreads, (size + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE);
+        long chunkSize = Math.max(MIN_CHUNK_SIZE, (size + numChunks - 1) / numChunks);
+
+        List<Long> bounds = new ArrayList<Long>();
+        bounds.add(0L);
+
+        long start = 0;
+        while (start + chunkSize < size)
+        {
+            long next = nextLineStart(channel, start + chunkSize, size);
+            if (next >= size)
+                break;
+            bounds.add(next);
+            start = next;
+        }
+        bounds.add(size);
+
+        long[] result = new long[bounds.size()];
+        for (int index = 0; index < result.length; index++)
+            result[index] = bounds.get(index);
+        return result;
+    }
+
+    /**
+     * Returns the position of the first line that starts at or after pos.
+     */
+    private static long nextLineStart(FileChannel channel, long pos, long size)
+        throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+
+        // If the previous byte ends a line, pos is already a line start.
+        long curr = pos - 1;
+        while (curr < size)
+        {
+            buffer.clear();
+            int read = channel.read(buffer, curr);
+            if (read <= 0)
+                break;
+
+            for (int index = 0; index < read; index++)
+                if (buffer.get(index) == '\n')
+                    return curr + index + 1;
+
+            curr += read;
+        }
+
+        return size;
+    }
+
+    /**
+     * Parses every chunk of the file, in parallel if there is more than one.
+     */
+    private List<Chunk> parseChunks(final FileChannel channel, long[] bounds)
+        throws IOException
+    {
+        List<Chunk> chunks = new ArrayList<Chunk>();
+        int numChunks = bounds.length - 1;
+
+        // Small files do not need a thread pool.
+        if (numChunks == 1 || numThreads == 1)
+        {
+            for (int index = 0; index < numChunks; index++)
+                chunks.add(parseChunk(channel, bounds[index], bounds[index+1]));
+            return chunks;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Math.min(numThreads, numChunks));
+        try
+        {
+            List<Future<Chunk>> futures = new ArrayList<Future<Chunk>>();
+            for (int index = 0; index < numChunks; index++)
+            {
+                final long start = bounds[index];
+                final long end = bounds[index+1];
+                futures.add(pool.submit(new Callable<Chunk>()
+                {
+                    @Override
+                    public Chunk call() throws IOException
+                    {
+                        return parseChunk(channel, start, end);
+                    }
+                }));
+            }
+
+            for (Future<Chunk> future : futures)
+                chunks.add(future.get());
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new IOException(e.getCause());
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+
+        return chunks;
+    }
+
+    /**
+     * Tokenizes the edges in the region [start, end) of the file.
+     */
+    private static Chunk parseChunk(FileChannel channel, long start, long end)
+        throws IOException
+    {
+        Chunk chunk = new Chunk();
+        if (end <= start)
+            return chunk;
+
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                start, end - start);
+        int limit = buffer.limit();
+
+        int pos = 0;
+        while (pos < limit)
+        {
+            // Find the end of the current line.
+            int lineEnd = pos;
+            while (lineEnd < limit && buffer.get(lineEnd) != '\n')
+                lineEnd++;
+
+            // Lines starting with whitespace (including empty lines) do not
+            // hold an edge.
+            if (lineEnd == pos || isSpace(buffer.get(pos)))
+            {
+                chunk.truncated = true;
+                break;
+            }
+
+            // First name.
+            int fromStart = pos;
+            while (pos < lineEnd && !isSpace(buffer.get(pos)))
+                pos++;
+            int fromEnd = pos;
+            while (pos < lineEnd && isSpace(buffer.get(pos)))
+                pos++;
+
+            // Second name.
+            int toStart = pos;
+            while (pos < lineEnd && !isSpace(buffer.get(pos)))
+                pos++;
+            int toEnd = pos;
+            while (pos < lineEnd && isSpace(buffer.get(pos)))
+                pos++;
+
+            // There must be exactly two names on the line.
+            if (toStart == toEnd || pos != lineEnd)
+            {
+                chunk.truncated = true;
+                break;
+            }
+
+            chunk.addEdge(chunk.intern(buffer, fromStart, fromEnd),
+                    chunk.intern(buffer, toStart, toEnd));
+
+            pos = lineEnd + 1;
+        }
+
+        return chunk;
+    }
+
+    /**
+     * Merges the parsed chunks in file order into the node and edge sets.
+     */
+    private void mergeChunks(List<Chunk> chunks)
+    {
+        // Temporary node data structure used to add neighbors to nodes.
+        Map<String, Node> tempNodes = new HashMap<String, Node>();
+
+        for (Chunk chunk : chunks)
+        {
+            // Resolve the chunk's local ids to shared nodes.
+            Node[] local = new Node[chunk.numNames];
+            for (int id = 0; id < chunk.numNames; id++)
+            {
+                String name = chunk.names[id];
+                Node node = tempNodes.get(name);
+                if (node == null)
+                {
+                    node = new Node(name);
+                    tempNodes.put(name, node);
+                }
+                local[id] = node;
+            }
+
+            for (int index = 0; index < chunk.numEdges; index++)
+            {
+                Node a = local[chunk.pairs[2*index]];
+                Node b = local[chunk.pairs[2*index+1]];
+
+                edges.add(new Edge(a,b));
+
+                // Update the neighbors.
+                a.addNeighbor(b);
+                b.addNeighbor(a);
+                a.addTail(b);
+                b.addHead(a);
+            }
+
+            // The rest of the file is ignored after a malformed line.
+            if (chunk.truncated)
+                break;
+        }
+
+        nodes.addAll(tempNodes.values());
+    }
+
+    /**
+     * Returns true for the bytes matched by the regex class \s.
+     */
+    private static boolean isSpace(byte b)
+    {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\f' || b == 0x0B;
+    }
+
+    /**
+     * Returns the nodes that were read from the graph file.
+     * Lazy-reads the graph.
+     */
+    @Override
+    public Set<Node> getNodes()
+    {
+        if (nodes == null)
+            parseGraph();
+        return new HashSet<Node>(nodes);
+    }
+
+    /**
+     * Returns the edges that were read from the graph file.
+     * Lazy-reads the graph.
+     */
+    @Override
+    public Set<Edge> getEdges()
+    {
+        if (edges == null)
+            parseGraph();
+        return new HashSet<Edge>(edges);
+    }
+
+    /**
+     * Returns a read-only view of the nodes without copying them.
+     * Lazy-reads the graph.
+     */
+    @Override
+    public Set<Node> nodeView()
+    {
+        if (nodes == null)
+            parseGraph();
+        return Collections.unmodifiableSet(nodes);
+    }
+
+    /**
+     * Returns a read-only view of the edges without copying them.
+     * Lazy-reads the graph.
+     */
+    @Override
+    public Set<Edge> edgeView()
+    {
+        if (edges == null)
+            parseGraph();
+        return Collections.unmodifiableSet(edges);
+    }
+
+    /**
+     * Passes every edge to the visitor. If the graph has not been read yet,
+     * the edges come straight from the tokenized chunks without building the
+     * node and edge sets. Duplicate lines are then passed on as they appear.
+     */
+    @Override
+    public void forEachEdge(EdgeVisitor visitor)
+    {
+        if (edges != null)
+        {
+            super.forEachEdge(visitor);
+            return;
+        }
+
+        for (Chunk chunk : readChunks())
+        {
+            for (int index = 0; index < chunk.numEdges; index++)
+                visitor.visit(chunk.names[chunk.pairs[2*index]],
+                        chunk.names[chunk.pairs[2*index+1]]);
+
+            // The rest of the file is ignored after a malformed line.
+            if (chunk.truncated)
+                break;
+        }
+    }
+
+    /**
+     * Builds the compact graph from the tokenized chunks. Each name is only
+     * looked up once per chunk.
+     */
+    @Override
+    public CompactGraph getCompactGraph(NameIndex index)
+    {
+        if (edges != null)
+            return super.getCompactGraph(index);
+
+        IntList from = new IntList();
+        IntList to = new IntList();
+
+        for (Chunk chunk : readChunks())
+        {
+            // Translate the chunk's local ids to ids of the shared index.
+            int[] ids = new int[chunk.numNames];
+            for (int id = 0; id < chunk.numNames; id++)
+                ids[id] = index.intern(chunk.names[id]);
+
+            for (int edge = 0; edge < chunk.numEdges; edge++)
+            {
+                from.add(ids[chunk.pairs[2*edge]]);
+                to.add(ids[chunk.pairs[2*edge+1]]);
+            }
+
+            // The rest of the file is ignored after a malformed line.
+            if (chunk.truncated)
+                break;
+        }
+
+        return new CompactGraph(index, from.toArray(), to.toArray(), from.size());
+    }
+
+    /**
+     * The parsed contents of a region of the graph file. Names are interned
+     * to ids that are local to the chunk.
+     */
+    private static class Chunk
+    {
+        // Local id -> node name, and the raw bytes of that name.
+        String[] names = new String[64];
+        byte[][] nameBytes = new byte[64][];
+        int numNames = 0;
+
+        // Open addressing table of (local id + 1), 0 marks an empty slot.
+        int[] table = new int[128];
+
+        // Edge endpoints as local ids: from0, to0, from1, to1, ...
+        int[] pairs = new int[256];
+        int numEdges = 0;
+
+        // True if parsing stopped at a malformed line.
+        boolean truncated = false;
+
+        void addEdge(int from, int to)
+        {
+            if (2*numEdges + 1 >= pairs.length)
+                pairs = Arrays.copyOf(pairs, pairs.length * 2);
+            pairs[2*numEdges] = from;
+            pairs[2*numEdges+1] = to;
+            numEdges++;
+        }
+
+        /**
+         * Returns the local id of the name stored in buffer[start, end).
+         */
+        int intern(ByteBuffer buffer, int start, int end)
+        {
+            int hash = 1;
+            for (int index = start; index < end; index++)
+                hash = 31 * hash + buffer.get(index);
+            hash ^= (hash >>> 16);
+
+            int mask = table.length - 1;
+            int slot = hash & mask;
+            while (table[slot] != 0)
+            {
+                int id = table[slot] - 1;
+                if (matches(nameBytes[id], buffer, start, end))
+                    return id;
+                slot = (slot + 1) & mask;
+            }
+
+            // This is a new name in this chunk.
+            byte[] bytes = new byte[end - start];
+            for (int index = start; index < end; index++)
+                bytes[index - start] = buffer.get(index);
+
+            if (numNames == names.length)
+            {
+                names = Arrays.copyOf(names, names.length * 2);
+                nameBytes = Arrays.copyOf(nameBytes, nameBytes.length * 2);
+            }
+            names[numNames] = new String(bytes, StandardCharsets.UTF_8);
+            nameBytes[numNames] = bytes;
+            table[slot] = ++numNames;
+
+            // Keep the table at most half full.
+            if (2 * numNames > table.length)
+                rehash();
+
+            return numNames - 1;
+        }
+
+        private static boolean matches(byte[] bytes, ByteBuffer buffer,
+                int start, int end)
+        {
+            if (bytes.length != end - start)
+                return false;
+            for (int index = 0; index < bytes.length; index++)
+                if (bytes[index] != buffer.get(start + index))
+                    return false;
+            return true;
+        }
+
+        private void rehash()
+        {
+            table = new int[table.length * 2];
+            int mask = table.length - 1;
+            for (int id = 0; id < numNames; id++)
+            {
+                byte[] bytes = nameBytes[id];
+                int hash = 1;
+                for (byte b : bytes)
+                    hash = 31 * hash + b;
+                hash ^= (hash >>> 16);
+
+                int slot = hash & mask;
+                while (table[slot] != 0)
+                    slot = (slot + 1) & mask;
+                table[slot] = id + 1;
+            }
+        }
+    }
+}
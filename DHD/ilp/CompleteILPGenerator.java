@@ -1,8 +1,7 @@
 package DHD.ilp;
 
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.List;
+import java.io.File;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
@@ -17,7 +16,7 @@ public class CompleteILPGenerator extends ILPGenerator
 {
     private Set<Edge> edges;
     private Map<String, Integer> prevNodes;
-    private CplexLPFormatter formatter;
+    private ILPFormatter formatter;
     private int numLevels;
 
     /**
@@ -27,7 +26,7 @@ public class CompleteILPGenerator extends ILPGenerator
      * @param numLevels The number of levels in the hierarchy.
      */
     public CompleteILPGenerator(Set<Edge> edges, Map<String,Integer> prevNodes,
-            CplexLPFormatter formatter, int numLevels)
+            ILPFormatter formatter, int numLevels)
     {
         this.edges = edges;
         this.prevNodes = prevNodes;
@@ -36,15 +35,16 @@ public class CompleteILPGenerator extends ILPGenerator
     }
 
     /**
-     * Returns the ILP that will find hierarchy in the graph.
-     *
-     * M = numLevels
+     * Writes the ILP that will find hierarchy in the graph to the file.
      *
      * For directed edge (n_i, n_j):
      *  p_i_j = {0,1}
      *
-     *  t_j - t_i - M * p_i_j GTE -M
-     *  t_j - t_i - M * p_i_j LTE -1
+     *  t_j - t_i - M1 * p_i_j GTE -M1,  M1 = ub(t_i) - lb(t_j)
+     *  t_j - t_i - M2 * p_i_j LTE -1,   M2 = ub(t_j) - lb(t_i) + 1
+     *
+     * where lb and ub are the bounds of the level variables given below.
+     * The big-M constants are derived per edge, see Presolver.
      *
      *  A different constaint will be generated depending on whether the node
      *  was used in a previous computation or not:
@@ -54,71 +54,51 @@ public class CompleteILPGenerator extends ILPGenerator
      *      0 LTE newRank(n) LTE numLevels-1
      *
      * min: sum(p_k)
+     *
+     * The levels of prevNodes are constants, so they are presolved out of
+     * the ILP (see ILPGenerator.generate(...)).
      */
     @Override
-    public String generate()
+    public boolean generate(File outputFile)
     {
-        // Set objective type to minimize.
-        formatter.setObjectiveType(-1);
-
-        // Coefficients for the constraints.
-        List<Integer> coefs = new ArrayList<Integer>();
-        coefs.add(1);
-        coefs.add(-1);
-        coefs.add(-1 * this.numLevels);
+        presolve();
+        return generate(formatter, outputFile);
+    }
 
-        // Holds the unique vars we will create that represent the levels.
-        Set<String> levelVars = new HashSet<String>();
+    /**
+     * Computes the bounds of every level variable and runs the presolve
+     * stage, without formatting the ILP.
+     */
+    @Override
+    public Presolver presolve()
+    {
+        // The bounds of every level variable.
+        Map<String,Integer> lowerBounds = new HashMap<String,Integer>();
+        Map<String,Integer> upperBounds = new HashMap<String,Integer>();
 
         for (Edge edge : edges)
         {
-            // Name the penalty variable
-            String p_i_j = edge.toString() + penaltyEnding;
-            // Name the level variables.
-            String t_j = edge.getTo().toString() + levelEnding;
-            String t_i = edge.getFrom().toString() + levelEnding;
-
-            // Store the level variables.
-            levelVars.add(t_j);
-            levelVars.add(t_i);
-
-            // Variables for the constraint.
-            List<String> vars = new ArrayList<String>();
-            vars.add(t_j);
-            vars.add(t_i);
-            vars.add(p_i_j);
-
-            // Generate two constraints.
-            formatter.addConstraint(coefs, vars, 1, -this.numLevels);
-            formatter.addConstraint(coefs, vars, -1, -1);
-            
-            // Add binary constraints.
-            formatter.addBinaryVar(p_i_j);
-            
-            // Add penalty to objective function.
-            formatter.addToObjective(1, p_i_j);
-        }
-
-        for (String levelVar : levelVars)
-        {
-            // Add integer constraints.
-            formatter.addIntegerVar(levelVar);
-
-            // Check if this node must be a constant level.
-            int endingIndex = levelVar.lastIndexOf(levelEnding);
-            // The key will be the original node name.
-            String key = levelVar.substring(0, endingIndex);
-            if (prevNodes.containsKey(key))
-            {
-                int level = prevNodes.get(key);
-                formatter.addBound(level, level, levelVar);
-            }
-            else
+            for (Node node : new Node[] { edge.getFrom(), edge.getTo() })
             {
-                formatter.addBound(0, this.numLevels-1, levelVar);
+                String key = node.getName();
+                if (lowerBounds.containsKey(key))
+                    continue;
+
+                // Check if this node must be a constant level.
+                if (prevNodes.containsKey(key))
+                {
+                    int level = prevNodes.get(key);
+                    lowerBounds.put(key, level);
+                    upperBounds.put(key, level);
+                }
+                else
+                {
+                    lowerBounds.put(key, 0);
+                    upperBounds.put(key, this.numLevels-1);
+                }
             }
         }
-        
-        return this.formatter.toString();
+
+        return presolve(edges, lowerBounds, upperBounds);
     }
 }
@@ -0,0 +1,153 @@
+package DHD.ilp;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import DHD.ds.*;
+
+/**
+ * @author Joshua A. Campbell
+ *
+ * Splits the edges of a hierarchy ILP into independent subproblems.
+ *
+ * Two level variables only interact through an edge between them, so the
+ * weakly connected components of the graph formed by the free nodes can be
+ * solved separately. Nodes with a constant level (prevNodes) do not connect
+ * components: an edge to a constant node belongs to the component of its
+ * free endpoint. Edges between two constant nodes only add a constant to
+ * the objective and are kept with the first component.
+ */
+public class ComponentDecomposer
+{
+    // The edges of the ILP.
+    private Collection<Edge> edges;
+    // Nodes that have a constant level.
+    private Map<String,Integer> prevNodes;
+
+    /**
+     * @param edges The edges of the ILP.
+     * @param prevNodes Nodes that have a constant level.
+     */
+    public ComponentDecomposer(Collection<Edge> edges, Map<String,Integer> prevNodes)
+    {
+        this.edges = edges;
+        this.prevNodes = prevNodes;
+    }
+
+    /**
+     * Returns the find-set representative of the id, compressing the path.
+     */
+    private static int find(int[] parent, int id)
+    {
+        int root = id;
+        while (parent[root] != root)
+            root = parent[root];
+
+        // Point the whole path at the root.
+        while (parent[id] != root)
+        {
+            int next = parent[id];
+            parent[id] = root;
+            id = next;
+        }
+        return root;
+    }
+
+    /**
+     * Returns the edge set of every component, largest component first. The
+     * result is empty if there are no edges.
+     */
+    public List<Set<Edge>> decompose()
+    {
+        // Give every node a dense id for the union-find.
+        NameIndex names = new NameIndex();
+        int[] from = new int[edges.size()];
+        int[] to = new int[edges.size()];
+        int numEdges = 0;
+        for (Edge edge : edges)
+        {
+            from[numEdges] = names.intern(edge.getFrom().getName());
+            to[numEdges] = names.intern(edge.getTo().getName());
+            numEdges++;
+        }
+
+        // Constant nodes never get joined.
+        boolean[] fixed = new boolean[names.size()];
+        for (int id = 0; id < names.size(); id++)
+            fixed[id] = prevNodes.containsKey(names.getName(id));
+
+        int[] parent = new int[names.size()];
+        for (int id = 0; id < parent.length; id++)
+            parent[id] = id;
+
+        // Union by linking roots. Paths stay short thanks to compression.
+        for (int e = 0; e < numEdges; e++)
+        {
+            if (fixed[from[e]] || fixed[to[e]])
+                continue;
+
+            int a = find(parent, from[e]);
+            int b = find(parent, to[e]);
+            if (a != b)
+                parent[a] = b;
+        }
+
+        // Component of each root, -1 if the root has no component yet.
+        int[] component = new int[parent.length];
+        for (int id = 0; id < component.length; id++)
+            component[id] = -1;
+
+        List<Set<Edge>> components = new ArrayList<Set<Edge>>();
+        // Edges between two constant nodes.
+        Set<Edge> constantEdges = new HashSet<Edge>();
+
+        int e = 0;
+        for (Edge edge : edges)
+        {
+            // Pick the free endpoint, if any.
+            int free = fixed[from[e]] ? to[e] : from[e];
+            e++;
+
+            if (fixed[free])
+            {
+                constantEdges.add(edge);
+                continue;
+            }
+
+            int root = find(parent, free);
+            if (component[root] == -1)
+            {
+                component[root] = components.size();
+                components.add(new HashSet<Edge>());
+            }
+            components.get(component[root]).add(edge);
+        }
+
+        // Solve the largest components first so they do not end up last on
+        // the worker pool.
+        Collections.sort(components, new Comparator<Set<Edge>>()
+        {
+            @Override
+            public int compare(Set<Edge> a, Set<Edge> b)
+            {
+                return Integer.compare(b.size(), a.size());
+            }
+        });
+
+        if (!constantEdges.isEmpty())
+        {
+            if (components.isEmpty())
+                components.add(constantEdges);
+            else
+                components.get(0).addAll(constantEdges);
+        }
+
+        return components;
+    }
+}
@@ -1,17 +1,29 @@
 package DHD.ilp;
 
-import java.lang.StringBuilder;
-import java.util.List;
-
-import DHD.ds.*;
+import java.io.IOException;
 
 /**
  * @author Joshua A. Campbell
  *
  * Generates an ouput file that follows the CPLEX LP file format.
+ * Ex:
+ *  Minimize
+ *   obj: a__b__p + 3
+ *  Subject To
+ *   c1: 1 b__t + -1 a__t + -2 a__b__p >= -2
+ *  Bounds
+ *   0 <= a__t <= 2
+ *  General
+ *   a__t
+ *  Binary
+ *   a__b__p
+ *  End
  */
-public class CplexLPFormatter
+public class CplexLPFormatter extends ILPFormatter
 {
+    // The file extension of the format.
+    public static final String EXTENSION = ".lp";
+
     /*
      * Some string constants.
      */
@@ -47,235 +59,200 @@ public class CplexLPFormatter
     // Terminates the file.
     private static final String END = "End";
 
-    // Holds the type ob the objective function. Maximize by default.
-    private String objectiveType = MAX;
-    // Holds the current objective function.
-    private StringBuilder objectiveFunction = new StringBuilder();
-    // Constraint functions for the problem.
-    private StringBuilder constraints = new StringBuilder();
-    // Bounds on variables.
-    private StringBuilder bounds = new StringBuilder();
-    // Holds the variables that have been constrained to be integers.
-    private StringBuilder generalVars = new StringBuilder();
-    // Holds the variables that have been constrained to be binary.
-    private StringBuilder binaryVars = new StringBuilder();
-
-    // The number of constraints that have been added so far.
-    private int numConstraints = 0;
-    
     public CplexLPFormatter()
     {
     
     }
 
-    /**
-     * Sets the type (max/min) of the objective function.
-     * A positive number indicates max, anything else indicates min.
-     *
-     * @param type The type of the objective function (+ = max, !+ = min).
-     */
-    public void setObjectiveType(int type)
+    @Override
+    public String getExtension()
     {
-        if (type >= 0)
-            objectiveType = MAX;
-        else 
-            objectiveType = MIN;
+        return EXTENSION;
     }
 
     /**
-     * Adds the variable will the given coefficients to the object function.
-     * Ex: addToObjective(-1, "x")
-     * Will result in -1x if the object function is empty.
+     * Writes the model in the CPLEX LP file format, one section after the
+     * other.
      *
-     * @param coef The coefficient of the variable.
-     * @param var The variable to add.
+     * @param model The model to write.
+     * @param lp The writer to write to.
      */
-    public void addToObjective(int coef, String var)
+    @Override
+    public void write(final ILPModel model, ILPWriter lp) throws IOException
     {
-        if (objectiveFunction.length() == 0)
-        {
-            objectiveFunction.append(SPACE);
-            objectiveFunction.append(OBJHEADER);
-        }
-        else 
+        int numColumns = model.numColumns();
+
+        // Add objective function and type. The first term goes without a
+        // plus.
+        int firstColumn = 0;
+        while (firstColumn < numColumns && model.objectiveCoef(firstColumn) == 0)
+            firstColumn++;
+        boolean constant = model.getObjectiveConstant() != 0;
+        if (firstColumn < numColumns || constant)
         {
-            objectiveFunction.append(SPACE);
-            objectiveFunction.append(PLUS);
+            lp.append(model.isMinimize() ? MIN : MAX);
+            lp.append(NEWLINE);
+            lp.append(SPACE);
+            lp.append(OBJHEADER);
         }
 
-        if (coef != 1)
+        final int first = firstColumn;
+        writeRange(lp, numColumns, new RangeWriter()
         {
-            objectiveFunction.append(SPACE);
-            objectiveFunction.append(coef);
-        }
+            @Override
+            public void write(int begin, int end, ILPWriter out) throws IOException
+            {
+                for (int column = begin; column < end; column++)
+                {
+                    int coef = model.objectiveCoef(column);
+                    if (coef == 0)
+                        continue;
 
-        objectiveFunction.append(SPACE);
-        objectiveFunction.append(var);
-    }
+                    if (column != first)
+                    {
+                        out.append(SPACE);
+                        out.append(PLUS);
+                    }
 
-    /**
-     * Adds a new constraint to the list of constraints.
-     * The coefficients list and the variables list must be the same size.
-     *
-     * @param coefs The coefficients of the constraint function.
-     * @param vars The variables corresponding to the coefficients in the
-     * constraint function.
-     * @param eq Is this contraint <= (negative number), = (0), or >= (positive
-     * number).
-     * @param bound The bound on the contraint.
-     */
-    public void addConstraint(List<Integer> coefs, List<String> vars, 
-            int eq, int bound)
-    {
-        if (coefs.size() != vars.size())
-            return;
+                    if (coef != 1)
+                    {
+                        out.append(SPACE);
+                        out.append(coef);
+                    }
 
-        if (constraints.length() != 0)
-            constraints.append(NEWLINE);
-
-        constraints.append(SPACE);
-        constraints.append(CONSPREFIX);
-        constraints.append(++numConstraints);
-        constraints.append(COLON);
+                    out.append(SPACE);
+                    writeColumnName(out, model, column);
+                }
+            }
+        });
 
-        for (int index = 0; index < vars.size(); index++)
+        if (constant)
         {
-            constraints.append(SPACE);
-
-            if (index != 0)
+            if (firstColumn < numColumns)
             {
-                constraints.append(PLUS);
-                constraints.append(SPACE);
+                lp.append(SPACE);
+                lp.append(PLUS);
             }
 
-            constraints.append(coefs.get(index));
-            constraints.append(SPACE);
-            constraints.append(vars.get(index));
+            lp.append(SPACE);
+            lp.append(model.getObjectiveConstant());
+        }
+        if (firstColumn < numColumns || constant)
+            lp.append(NEWLINE);
+
+        // Add contraints. The constraints are numbered by row, so the
+        // numbers stay the same however the rows are split up.
+        if (model.numRows() != 0)
+        {
+            lp.append(CONSHEADER);
+            lp.append(NEWLINE);
         }
+        writeRange(lp, model.numRows(), new RangeWriter()
+        {
+            @Override
+            public void write(int begin, int end, ILPWriter out) throws IOException
+            {
+                for (int row = begin; row < end; row++)
+                    writeRow(out, model, row);
+            }
+        });
 
-        constraints.append(SPACE);
-        if (eq == 0)
-            constraints.append(EQ);
-        else if (eq > 0)
-            constraints.append(GTE);
-        else constraints.append(LTE);
+        // Add bounds and integer constraints of the level variables. Binary
+        // variables need no bounds.
+        writeColumnSection(lp, model, ILPModel.LEVEL, BOUNDSHEADER, true);
+        writeColumnSection(lp, model, ILPModel.LEVEL, GENERAL, false);
 
-        constraints.append(SPACE);
+        // Add binary constraints.
+        writeColumnSection(lp, model, ILPModel.PENALTY, BINARY, false);
 
-        constraints.append(bound);
+        // End the lp specification.
+        lp.append(END);
     }
 
     /**
-     * Adds the specified variable to the list of variables that must be
-     * integers.
-     *
-     * @param var The variable that must be integer.
+     * Writes the constraint of the row.
      */
-    public void addIntegerVar(String var)
+    private static void writeRow(ILPWriter lp, ILPModel model, int row)
+        throws IOException
     {
-        if (generalVars.length() != 0)
-            generalVars.append(NEWLINE);
+        lp.append(SPACE);
+        lp.append(CONSPREFIX);
+        lp.append(row + 1);
+        lp.append(COLON);
 
-        generalVars.append(SPACE);
-        generalVars.append(var);
-    }
+        for (int term = model.rowBegin(row); term < model.rowEnd(row); term++)
+        {
+            lp.append(SPACE);
 
-    /**
-     * Adds the specified variable to the list of variables that must be binary.
-     *
-     * @param var The variable that must be binary.
-     */
-    public void addBinaryVar(String var)
-    {
-        if (binaryVars.length() != 0)
-            binaryVars.append(NEWLINE);
+            if (term != model.rowBegin(row))
+            {
+                lp.append(PLUS);
+                lp.append(SPACE);
+            }
 
-        binaryVars.append(SPACE);
-        binaryVars.append(var);
-    }
+            lp.append(model.termCoef(term));
+            lp.append(SPACE);
+            writeColumnName(lp, model, model.termColumn(term));
+        }
 
-    /**
-     * Add a new bound on a variable.
-     *
-     * @param lower The lower bound.
-     * @param upper The upper bound.
-     * @param var The variable to be bounded.
-     *
-     * Ex: lower <= var <= upper.
-     */
-    public void addBound(int lower, int upper, String var)
-    {
-        if (bounds.length() != 0)
-            bounds.append(NEWLINE);
-        
-        bounds.append(SPACE);
-        bounds.append(lower);
-        bounds.append(SPACE);
-        bounds.append(LTE);
-        bounds.append(SPACE);
-        bounds.append(var);
-        bounds.append(SPACE);
-        bounds.append(LTE);
-        bounds.append(SPACE);
-        bounds.append(upper);
+        lp.append(SPACE);
+        if (model.rowSense(row) == ILPModel.EQ)
+            lp.append(EQ);
+        else if (model.rowSense(row) == ILPModel.GTE)
+            lp.append(GTE);
+        else lp.append(LTE);
+
+        lp.append(SPACE);
+        lp.append(model.rowRhs(row));
+        lp.append(NEWLINE);
     }
 
     /**
-     * Returns the representation of the LP formed so far.
+     * Writes a section listing the columns of one kind: the bounds (bounds =
+     * true), or the names for the General and Binary sections. The header is
+     * left out if there are no such columns.
      */
-    @Override
-    public String toString()
+    private void writeColumnSection(ILPWriter lp, final ILPModel model,
+            final byte kind, String sectionHeader, final boolean bounds)
+        throws IOException
     {
-        StringBuilder lp = new StringBuilder();
-        
-        // Add objective function and type.
-        if (objectiveFunction.length() != 0)
-        {
-                lp.append(objectiveType.toString());
-                lp.append(NEWLINE);
-                lp.append(objectiveFunction.toString());
-                lp.append(NEWLINE);
-        }
-
-        // Add contraints.
-        if (constraints.length() != 0)
-        {
-            lp.append(CONSHEADER);
-            lp.append(NEWLINE);
-            lp.append(constraints.toString());
-            lp.append(NEWLINE);
-        }
-
-        // Add bounds.
-        if (bounds.length() != 0)
-        {
-            lp.append(BOUNDSHEADER);
-            lp.append(NEWLINE);
-            lp.append(bounds.toString());
-            lp.append(NEWLINE);
-        }
+        boolean any = false;
+        for (int column = 0; column < model.numColumns() && !any; column++)
+            any = model.columnKind(column) == kind;
+        if (!any)
+            return;
 
-        // Add integer constraints.
-        if (generalVars.length() != 0)
-        {
-            lp.append(GENERAL);
-            lp.append(NEWLINE);
-            lp.append(generalVars.toString());
-            lp.append(NEWLINE);
-        }
+        lp.append(sectionHeader);
+        lp.append(NEWLINE);
 
-        // Add binary constraints.
-        if (binaryVars.length() != 0)
+        writeRange(lp, model.numColumns(), new RangeWriter()
         {
-            lp.append(BINARY);
-            lp.append(NEWLINE);
-            lp.append(binaryVars.toString());
-            lp.append(NEWLINE);
-        }
-
-        // End the lp specification.
-        lp.append(END);
+            @Override
+            public void write(int begin, int end, ILPWriter out) throws IOException
+            {
+                for (int column = begin; column < end; column++)
+                {
+                    if (model.columnKind(column) != kind)
+                        continue;
 
-        return lp.toString();
+                    out.append(SPACE);
+                    if (bounds)
+                    {
+                        out.append(model.columnLower(column));
+                        out.append(SPACE);
+                        out.append(LTE);
+                        out.append(SPACE);
+                        writeColumnName(out, model, column);
+                        out.append(SPACE);
+                        out.append(LTE);
+                        out.append(SPACE);
+                        out.append(model.columnUpper(column));
+                    }
+                    else
+                        writeColumnName(out, model, column);
+                    out.append(NEWLINE);
+                }
+            }
+        });
     }
 }
@@ -0,0 +1,156 @@
+package DHD.ilp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import DHD.ds.*;
+
+/**
+ * @author Joshua A. Campbell
+ *
+ * Writes an ILPModel in the file format of some solver.
+ *
+ * The lines of a section (one per row or column) do not depend on each
+ * other, so with a pool (see setPool(...)) a formatter renders the sections
+ * in shards of SHARD_SIZE lines on the pool. A wave of shards is rendered
+ * into in-memory writers at a time and then written out in order, which
+ * keeps the memory used bounded by the size of a wave.
+ */
+public abstract class ILPFormatter
+{
+    // The number of rows or columns in one shard.
+    public static final int SHARD_SIZE = 1 << 13;
+
+    // The pool to render shards on, null to render them in this thread.
+    private ForkJoinPool pool = null;
+
+    /**
+     * Writes the lines of the items [begin, end) of a section.
+     */
+    protected interface RangeWriter
+    {
+        public void write(int begin, int end, ILPWriter out) throws IOException;
+    }
+
+    /**
+     * Sets the pool to render the sections on, or null to render them in
+     * the calling thread.
+     */
+    public void setPool(ForkJoinPool pool)
+    {
+        this.pool = pool;
+    }
+
+    /**
+     * Returns the file extension of the format, e.g. ".lp".
+     */
+    public abstract String getExtension();
+
+    /**
+     * Writes the model in the format of this formatter.
+     *
+     * @param model The model to write.
+     * @param out The writer to write to.
+     */
+    public abstract void write(ILPModel model, ILPWriter out) throws IOException;
+
+    /**
+     * Writes the lines of the items [0, count) of a section, in order. The
+     * items are rendered in shards on the pool if one is set.
+     *
+     * @param out The writer to write to.
+     * @param count The number of items.
+     * @param writer Writes the lines of a range of items.
+     */
+    protected void writeRange(ILPWriter out, int count, final RangeWriter writer)
+        throws IOException
+    {
+        if (pool == null || count <= SHARD_SIZE)
+        {
+            writer.write(0, count, out);
+            return;
+        }
+
+        // Two shards per thread keep the threads busy when the shards are
+        // uneven.
+        int waveSize = 2 * pool.getParallelism();
+        final ILPWriter[] shards = new ILPWriter[waveSize];
+        for (int index = 0; index < waveSize; index++)
+            shards[index] = new ILPWriter();
+
+        for (int waveBegin = 0; waveBegin < count; waveBegin += waveSize * SHARD_SIZE)
+        {
+            List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+            for (int index = 0; index < waveSize; index++)
+            {
+                final int begin = waveBegin + index * SHARD_SIZE;
+                if (begin >= count)
+                    break;
+                final int end = Math.min(begin + SHARD_SIZE, count);
+                final ILPWriter shard = shards[index];
+
+                tasks.add(new Callable<Void>()
+                {
+                    @Override
+                    public Void call() throws IOException
+                    {
+                        writer.write(begin, end, shard);
+                        return null;
+                    }
+                });
+            }
+
+            // Concatenate the shards in order.
+            List<Future<Void>> results = pool.invokeAll(tasks);
+            for (int index = 0; index < results.size(); index++)
+            {
+                try
+                {
+                    results.get(index).get();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+                catch (ExecutionException e)
+                {
+                    throw new IOException(e.getCause());
+                }
+                out.transferFrom(shards[index]);
+            }
+        }
+    }
+
+    /**
+     * Writes the variable name of the column (see ILPModel.columnName(...))
+     * without building it as a string first.
+     */
+    protected static void writeColumnName(ILPWriter out, ILPModel model,
+            int column) throws IOException
+    {
+        if (model.isCompactNames())
+        {
+            if (model.columnKind(column) == ILPModel.LEVEL)
+                out.append(ILPModel.COMPACT_LEVEL).append(model.columnNode(column));
+            else out.append(ILPModel.COMPACT_PENALTY).append(column);
+            return;
+        }
+
+        NameIndex nodes = model.getNodes();
+        out.append(nodes.getName(model.columnNode(column)));
+        if (model.columnKind(column) == ILPModel.LEVEL)
+        {
+            out.append(ILPGenerator.levelEnding);
+            return;
+        }
+        out.append("__");
+        out.append(nodes.getName(model.columnNode2(column)));
+        out.append(ILPGenerator.penaltyEnding);
+    }
+}
@@ -1,5 +1,13 @@
 package DHD.ilp;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import DHD.ds.*;
+
 /**
  * @author Joshua A. Campbell
  */
@@ -8,8 +16,247 @@ public abstract class ILPGenerator
     // Ending identifiers for the variables generated for the ILP.
     public static final String penaltyEnding = "__p";
     public static final String levelEnding = "__t";
+    // Ending of the dictionary file written next to an ILP with compact
+    // variable names.
+    public static final String dictionaryEnding = ".names";
+
+    // The presolve stage of the last generated ILP.
+    protected Presolver presolver = null;
+    // The last generated ILP.
+    protected ILPModel model = null;
+    // Whether the ILP uses compact variable names.
+    protected boolean compactNames = false;
+
+    // Generates the ILP and writes it to the file. Returns true on success.
+    public abstract boolean generate(File outputFile);
+
+    // Runs the presolve stage of the ILP without generating it.
+    public abstract Presolver presolve();
+
+    /**
+     * Sets whether the generated ILP uses compact variable names (x12, p34)
+     * instead of names built from the node names. The node names are then
+     * written to a dictionary next to the ILP, see dictionaryFile(...).
+     */
+    public void setCompactNames(boolean compactNames)
+    {
+        this.compactNames = compactNames;
+    }
+
+    /**
+     * Returns the dictionary file that belongs to the ILP file.
+     */
+    public static File dictionaryFile(File ilpFile)
+    {
+        return new File(ilpFile.getPath() + dictionaryEnding);
+    }
+
+    /**
+     * Returns the presolve stage of the last generated ILP, or null if no
+     * ILP was generated yet.
+     */
+    public Presolver getPresolver()
+    {
+        return presolver;
+    }
+
+    /**
+     * Returns the last generated ILP, or null if no ILP was generated yet.
+     */
+    public ILPModel getModel()
+    {
+        return model;
+    }
+
+    /**
+     * Returns the state that the solution of the last generated ILP is merged
+     * into (see CompleteSolver -f). SCIP leaves out the level variables that
+     * are 0, so the nodes with a level column are written at 0. The other
+     * modified nodes are not in the solution at all, so they keep their
+     * previous level clamped to their bounds, and new nodes get 0.
+     *
+     * @param prevLevels The previous level of each node.
+     * @param modifiedNodes The nodes whose level may change.
+     */
+    public Map<String,Integer> getMergeState(Map<String,Integer> prevLevels,
+            Collection<Node> modifiedNodes)
+    {
+        Map<String,Integer> state = new HashMap<String,Integer>(prevLevels);
+        for (Node node : modifiedNodes)
+        {
+            String name = node.getName();
+            if (model.hasLevelColumn(name) || !prevLevels.containsKey(name))
+                state.put(name, 0);
+            else if (presolver.getNodes().contains(name))
+                state.put(name, presolver.clamp(name, prevLevels.get(name)));
+        }
+        return state;
+    }
+
+    /**
+     * Runs the presolve stage on the edges, given the bounds of every level
+     * variable. The result is kept for generate(formatter).
+     *
+     * @param edges The edges in the graph.
+     * @param lowerBounds The lower bound of the level of each node.
+     * @param upperBounds The upper bound of the level of each node.
+     */
+    protected Presolver presolve(Collection<Edge> edges,
+            Map<String,Integer> lowerBounds, Map<String,Integer> upperBounds)
+    {
+        presolver = new Presolver(edges, lowerBounds, upperBounds);
+        presolver.presolve();
+        return presolver;
+    }
+
+    /**
+     * Writes the ILP that will find the hierarchy in the graph, formed from
+     * the last presolve stage. The model is built first and then streamed to
+     * the file in a single pass, the ILP never exists as one string.
+     *
+     * For directed edge (n_i, n_j):
+     *  p_i_j = {0,1}
+     *
+     *  t_j - t_i - M1 * p_i_j GTE -M1
+     *  t_j - t_i - M2 * p_i_j LTE -1
+     *
+     * min: sum(p_k)
+     *
+     * M1 and M2 are derived per edge from the bounds of t_i and t_j, and
+     * edges whose penalty is decided by the bounds are dropped with their
+     * penalty added to the objective as a constant. Fixed level variables
+     * are substituted into the constraints and moved to the right hand
+     * side. See Presolver. Every free level variable is a column of the ILP,
+     * with its bounds, whether or not an edge is left for it.
+     *
+     * @param formatter The formatter for the resulting ILP.
+     * @param outputFile The file to write the ILP to.
+     *
+     * @return Returns true if the ILP was written.
+     */
+    protected boolean generate(ILPFormatter formatter, File outputFile)
+    {
+        model = new ILPModel();
+        // Set objective type to minimize.
+        model.setMinimize(true);
+        model.setCompactNames(compactNames);
+
+        for (Edge edge : presolver.getRemainingEdges())
+        {
+            String from = edge.getFrom().getName();
+            String to = edge.getTo().getName();
+
+            // The big-M constants of the two constraints.
+            int lowerM = presolver.getLowerM(from, to);
+            int upperM = presolver.getUpperM(from, to);
+
+            // The level columns, -1 for fixed levels which are constants.
+            // The constant moves to the right hand side. At most one of the
+            // two nodes is fixed, otherwise the edge would be dropped.
+            int t_j = -1;
+            int t_i = -1;
+            int constant = 0;
+            if (presolver.isFixed(to))
+                constant -= presolver.getFixedLevel(to);
+            else
+                t_j = model.levelColumn(to, presolver.getLowerBound(to),
+                        presolver.getUpperBound(to));
+            if (presolver.isFixed(from))
+                constant += presolver.getFixedLevel(from);
+            else
+                t_i = model.levelColumn(from, presolver.getLowerBound(from),
+                        presolver.getUpperBound(from));
+
+            // The binary penalty column, which is added to the objective.
+            int p_i_j = model.addPenaltyColumn(from, to, 1);
+
+            // Generate two constraints. They only differ in the penalty
+            // coefficient.
+            addEdgeRow(t_j, t_i, p_i_j, -lowerM, ILPModel.GTE, -lowerM + constant);
+            addEdgeRow(t_j, t_i, p_i_j, -upperM, ILPModel.LTE, -1 + constant);
+        }
+
+        // Every free node gets a level column, even if the bounds decided
+        // all of its edges. Otherwise the solution would hold no level for
+        // it, and merging the solution would leave it at whatever level the
+        // state held.
+        for (String node : presolver.getNodes())
+            if (!presolver.isFixed(node))
+                model.levelColumn(node, presolver.getLowerBound(node),
+                        presolver.getUpperBound(node));
+
+        // Add the penalty of the dropped edges.
+        model.addObjectiveConstant(presolver.getObjectiveConstant());
+
+        try (ILPWriter out = new ILPWriter(outputFile))
+        {
+            formatter.write(model, out);
+        }
+        catch (IOException e)
+        {
+            System.err.println("Unable to write ILP to file: " + outputFile);
+            System.err.println(e);
+            return false;
+        }
+
+        // A dictionary of an earlier ILP would not match this one.
+        File dictionary = dictionaryFile(outputFile);
+        if (!compactNames)
+        {
+            dictionary.delete();
+            return true;
+        }
+
+        try (ILPWriter out = new ILPWriter(dictionary))
+        {
+            writeDictionary(model, out);
+        }
+        catch (IOException e)
+        {
+            System.err.println("Unable to write dictionary to file: " + dictionary);
+            System.err.println(e);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Writes the dictionary of the compact variable names: the name of the
+     * node with id i on line i, counting from 0, which level variable x<i>
+     * belongs to. An empty line follows, and then a "column from to" line
+     * with the node ids of the edge of every penalty variable p<column>.
+     */
+    private static void writeDictionary(ILPModel model, ILPWriter out)
+        throws IOException
+    {
+        NameIndex nodes = model.getNodes();
+        for (int id = 0; id < nodes.size(); id++)
+            out.append(nodes.getName(id)).append('\n');
 
-    // Returns the generated ILP.
-    public abstract String generate();
+        // Node names are never empty, so an empty line ends them.
+        out.append('\n');
+        for (int column = 0; column < model.numColumns(); column++)
+        {
+            if (model.columnKind(column) != ILPModel.PENALTY)
+                continue;
+            out.append(column).append(' ').append(model.columnNode(column))
+                .append(' ').append(model.columnNode2(column)).append('\n');
+        }
+    }
 
+    /**
+     * Adds the row t_j - t_i + penaltyCoef * p_i_j (sense) rhs to the model,
+     * leaving out fixed levels (-1).
+     */
+    private void addEdgeRow(int t_j, int t_i, int p_i_j, int penaltyCoef,
+            int sense, int rhs)
+    {
+        if (t_j != -1)
+            model.addTerm(t_j, 1);
+        if (t_i != -1)
+            model.addTerm(t_i, -1);
+        model.addTerm(p_i_j, penaltyCoef);
+        model.endRow(sense, rhs);
+    }
 }
@@ -0,0 +1,298 @@
+package DHD.ilp;
+
+import java.util.Arrays;
+
+import DHD.ds.*;
+
+/**
+ * @author Joshua A. Campbell
+ *
+ * An in-memory hierarchy ILP made of primitive arrays, filled by the ILP
+ * generators and written out by an ILPFormatter.
+ *
+ * Columns (variables) are either the integer level variable of a node or
+ * the binary penalty variable of an edge. Columns only store node ids, the
+ * variable names are derived when the model is written:
+ *  level:   name__t
+ *  penalty: from__to__p
+ * or, with compact names, from the ids of the node and the column:
+ *  level:   x<node id>
+ *  penalty: p<column>
+ * in which case the node names and the edges of the penalty columns are
+ * written to a dictionary file, see ILPGenerator.dictionaryFile(...).
+ *
+ * Rows (constraints) are stored in compressed sparse row form. The terms of
+ * a row are added with addTerm(...) and the row is closed with endRow(...),
+ * so no objects are allocated per constraint.
+ */
+public class ILPModel
+{
+    // Column kinds.
+    public static final byte LEVEL = 0;
+    public static final byte PENALTY = 1;
+
+    // The prefixes of compact variable names.
+    public static final String COMPACT_LEVEL = "x";
+    public static final String COMPACT_PENALTY = "p";
+
+    // Row senses, as in the old formatter: >=, =, <=.
+    public static final int GTE = 1;
+    public static final int EQ = 0;
+    public static final int LTE = -1;
+
+    // The names of the nodes the columns refer to.
+    private NameIndex nodes = new NameIndex();
+    // The level column of each node id, -1 if it has none.
+    private IntList levelColumns = new IntList();
+
+    // Columns.
+    private int numColumns = 0;
+    private byte[] columnKind = new byte[16];
+    // The node of a level column, or the from node of a penalty column.
+    private int[] columnNode = new int[16];
+    // The to node of a penalty column.
+    private int[] columnNode2 = new int[16];
+    private int[] columnLower = new int[16];
+    private int[] columnUpper = new int[16];
+    private int[] objectiveCoefs = new int[16];
+
+    // Rows: the terms of row r are [rowBegin[r], rowBegin[r+1]).
+    private IntList rowBegin = new IntList();
+    private IntList termColumns = new IntList();
+    private IntList termCoefs = new IntList();
+    private IntList rowSense = new IntList();
+    private IntList rowRhs = new IntList();
+
+    // The objective.
+    private boolean minimize = true;
+    private int objectiveConstant = 0;
+
+    // Whether the variables get compact names.
+    private boolean compactNames = false;
+
+    public ILPModel()
+    {
+        rowBegin.add(0);
+    }
+
+    /**
+     * Sets the objective to minimize (true) or maximize (false).
+     */
+    public void setMinimize(boolean minimize)
+    {
+        this.minimize = minimize;
+    }
+
+    /**
+     * Sets whether the variables get compact names (x12, p34) instead of
+     * names built from the node names.
+     */
+    public void setCompactNames(boolean compactNames)
+    {
+        this.compactNames = compactNames;
+    }
+
+    /**
+     * Adds a constant to the objective.
+     */
+    public void addObjectiveConstant(int constant)
+    {
+        objectiveConstant += constant;
+    }
+
+    /**
+     * Returns the level column of the node, adding it with the given bounds
+     * if it does not exist yet.
+     */
+    public int levelColumn(String node, int lower, int upper)
+    {
+        int id = nodes.intern(node);
+        while (levelColumns.size() <= id)
+            levelColumns.add(-1);
+
+        if (levelColumns.get(id) == -1)
+            levelColumns.set(id, addColumn(LEVEL, id, -1, lower, upper, 0));
+        return levelColumns.get(id);
+    }
+
+    /**
+     * Returns true if the node has a level column.
+     */
+    public boolean hasLevelColumn(String node)
+    {
+        int id = nodes.getId(node);
+        return id != -1 && id < levelColumns.size() && levelColumns.get(id) != -1;
+    }
+
+    /**
+     * Adds the binary penalty column of the edge.
+     *
+     * @param from The node the edge starts at.
+     * @param to The node the edge points to.
+     * @param objectiveCoef The coefficient of the column in the objective.
+     */
+    public int addPenaltyColumn(String from, String to, int objectiveCoef)
+    {
+        return addColumn(PENALTY, nodes.intern(from), nodes.intern(to), 0, 1,
+                objectiveCoef);
+    }
+
+    /**
+     * Appends a column.
+     */
+    private int addColumn(byte kind, int node, int node2, int lower, int upper,
+            int objectiveCoef)
+    {
+        if (numColumns == columnKind.length)
+        {
+            int capacity = 2 * numColumns;
+            columnKind = Arrays.copyOf(columnKind, capacity);
+            columnNode = Arrays.copyOf(columnNode, capacity);
+            columnNode2 = Arrays.copyOf(columnNode2, capacity);
+            columnLower = Arrays.copyOf(columnLower, capacity);
+            columnUpper = Arrays.copyOf(columnUpper, capacity);
+            objectiveCoefs = Arrays.copyOf(objectiveCoefs, capacity);
+        }
+
+        columnKind[numColumns] = kind;
+        columnNode[numColumns] = node;
+        columnNode2[numColumns] = node2;
+        columnLower[numColumns] = lower;
+        columnUpper[numColumns] = upper;
+        objectiveCoefs[numColumns] = objectiveCoef;
+        return numColumns++;
+    }
+
+    /**
+     * Adds a term to the current row.
+     */
+    public void addTerm(int column, int coef)
+    {
+        termColumns.add(column);
+        termCoefs.add(coef);
+    }
+
+    /**
+     * Ends the current row.
+     *
+     * @param sense GTE, EQ or LTE.
+     * @param rhs The right hand side of the row.
+     */
+    public void endRow(int sense, int rhs)
+    {
+        rowSense.add(sense);
+        rowRhs.add(rhs);
+        rowBegin.add(termColumns.size());
+    }
+
+    public NameIndex getNodes()
+    {
+        return nodes;
+    }
+
+    public boolean isCompactNames()
+    {
+        return compactNames;
+    }
+
+    public boolean isMinimize()
+    {
+        return minimize;
+    }
+
+    public int getObjectiveConstant()
+    {
+        return objectiveConstant;
+    }
+
+    public int numColumns()
+    {
+        return numColumns;
+    }
+
+    public byte columnKind(int column)
+    {
+        return columnKind[column];
+    }
+
+    /**
+     * Returns the node of a level column, or the from node of a penalty
+     * column.
+     */
+    public int columnNode(int column)
+    {
+        return columnNode[column];
+    }
+
+    /**
+     * Returns the to node of a penalty column.
+     */
+    public int columnNode2(int column)
+    {
+        return columnNode2[column];
+    }
+
+    public int columnLower(int column)
+    {
+        return columnLower[column];
+    }
+
+    public int columnUpper(int column)
+    {
+        return columnUpper[column];
+    }
+
+    public int objectiveCoef(int column)
+    {
+        return objectiveCoefs[column];
+    }
+
+    /**
+     * Returns the variable name of the column.
+     */
+    public String columnName(int column)
+    {
+        if (compactNames)
+            return columnKind[column] == LEVEL
+                ? COMPACT_LEVEL + columnNode[column] : COMPACT_PENALTY + column;
+        if (columnKind[column] == LEVEL)
+            return nodes.getName(columnNode[column]) + ILPGenerator.levelEnding;
+        return nodes.getName(columnNode[column]) + "__"
+            + nodes.getName(columnNode2[column]) + ILPGenerator.penaltyEnding;
+    }
+
+    public int numRows()
+    {
+        return rowSense.size();
+    }
+
+    public int rowBegin(int row)
+    {
+        return rowBegin.get(row);
+    }
+
+    public int rowEnd(int row)
+    {
+        return rowBegin.get(row + 1);
+    }
+
+    public int termColumn(int term)
+    {
+        return termColumns.get(term);
+    }
+
+    public int termCoef(int term)
+    {
+        return termCoefs.get(term);
+    }
+
+    public int rowSense(int row)
+    {
+        return rowSense.get(row);
+    }
+
+    public int rowRhs(int row)
+    {
+        return rowRhs.get(row);
+    }
+}
@@ -4,87 +4,431 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.HashMap;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
 import DHD.ds.*;
 
 /**
  * Parses the result of SCIP ILP solver.
+ *
+ * The solution file is memory-mapped and tokenized byte by byte, without
+ * regular expressions or per-line Strings. A String is only created for the
+ * name of a node (or of a penalty variable, if they are read). The format is:
+ *  solution status: optimal solution found
+ *  objective value:                   12
+ *  a__t                                2 	(obj:0)
+ *  a__b__p                             1 	(obj:1)
+ *
+ * Level variables are either named name__t, or x<id> if the ILP was written
+ * with compact names, in which case the name of node id is looked up in the
+ * dictionary of the ILP (see ILPGenerator.dictionaryFile(...)). Penalty
+ * variables are named from__to__p, or p<column>, whose edge is looked up in
+ * the dictionary as well. Either way they are keyed by from__to.
+ *
+ * This class was not meant to be thread-safe.
  */
 public class ILPOutputReader
 {
-    private static final String levelEnding = ILPGenerator.levelEnding;
+    // The most of the file mapped at once.
+    private static final long MAX_WINDOW_SIZE = 1 << 28;
+
+    private static final byte[] STATUS = bytes("solution status:");
+    private static final byte[] OBJECTIVE = bytes("objective value:");
+    private static final byte[] LEVEL_ENDING = bytes(ILPGenerator.levelEnding);
+    private static final byte[] PENALTY_ENDING = bytes(ILPGenerator.penaltyEnding);
 
     private File solutionFile;
+    // The dictionary of compact names, may be null or not exist.
+    private File dictionaryFile;
+    // Whether the penalty variables are read.
+    private boolean readPenalties = false;
+
+    // The dictionary of the file being read, null if there is none.
+    private String[] dictionary = null;
+    // The node ids of the edge of each penalty column in the dictionary,
+    // -1 for other columns. Null if the dictionary has no penalty columns.
+    private int[] penaltyFrom = null;
+    private int[] penaltyTo = null;
+    // The variables start after the objective value.
+    private boolean objectiveFound = false;
+    // Holds the bytes of a name while it is decoded.
+    private byte[] nameBytes = new byte[64];
 
     public ILPOutputReader(File solutionFile)
     {
-        this.solutionFile = solutionFile; 
+        this(solutionFile, null);
+    }
+
+    /**
+     * @param solutionFile The solution to read.
+     * @param dictionaryFile The dictionary of the ILP, needed if the ILP
+     * used compact names.
+     */
+    public ILPOutputReader(File solutionFile, File dictionaryFile)
+    {
+        this.solutionFile = solutionFile;
+        this.dictionaryFile = dictionaryFile;
+    }
+
+    /**
+     * Sets whether the values of the penalty variables are read as well.
+     */
+    public void setReadPenalties(boolean readPenalties)
+    {
+        this.readPenalties = readPenalties;
     }
 
-    /** 
+    /**
      * Returns the variable mappings for the solution to the ILP.
      */
     public Map<String, Integer> getResults()
     {
-        Map<String, Integer> results = new HashMap<String, Integer>();
+        return read().getLevels();
+    }
 
-        BufferedReader input = null;
-        String line;
+    /**
+     * Reads the solution file. If the file can not be read, the solution
+     * has no objective and no levels.
+     */
+    public ILPSolution read()
+    {
+        ILPSolution solution = new ILPSolution(readPenalties);
+        readDictionary();
+        objectiveFound = false;
 
-        try
+        try (FileChannel channel = FileChannel.open(solutionFile.toPath(),
+                    StandardOpenOption.READ))
         {
-            input = new BufferedReader(new FileReader(solutionFile));
+            long size = channel.size();
+            long start = 0;
 
-            boolean objectiveFound = false;
+            // Map the file in windows that end at a line break.
+            while (start < size)
+            {
+                long length = Math.min(MAX_WINDOW_SIZE, size - start);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                        start, length);
 
-            // Read the whole file.
-            while ((line = input.readLine()) != null)
+                int limit = (int) length;
+                if (start + length < size)
+                {
+                    while (limit > 0 && buffer.get(limit - 1) != '\n')
+                        limit--;
+                    if (limit == 0)
+                        throw new IOException("Line too long in " + solutionFile);
+                }
+
+                parseLines(buffer, limit, solution);
+                start += limit;
+            }
+        }
+        catch (IOException e)
+        {
+            System.err.println(e);
+        }
+
+        return solution;
+    }
+
+    /**
+     * Parses the lines in [0, limit) of the buffer.
+     */
+    private void parseLines(MappedByteBuffer buffer, int limit,
+            ILPSolution solution)
+    {
+        int pos = 0;
+        while (pos < limit)
+        {
+            // Find the end of the current line.
+            int lineEnd = pos;
+            while (lineEnd < limit && buffer.get(lineEnd) != '\n')
+                lineEnd++;
+            int next = lineEnd + 1;
+
+            // Ignore a trailing carriage return.
+            if (lineEnd > pos && buffer.get(lineEnd - 1) == '\r')
+                lineEnd--;
+
+            // The values of the variables start on the line after the
+            // objective value. We need to wait until we find the objective
+            // value.
+            if (!objectiveFound)
             {
-                // If we find the objective value, we are ready to start
-                // parsing the ILP solution.
-                if (line.startsWith("objective value:"))
+                if (startsWith(buffer, pos, lineEnd, OBJECTIVE))
                 {
                     objectiveFound = true;
-                    continue;
+                    solution.setObjective(parseNumber(buffer,
+                                skipSpaces(buffer, pos + OBJECTIVE.length, lineEnd),
+                                lineEnd));
                 }
-
-                // The values of the variables start on the line after the
-                // objective function. We need to wait until we find the
-                // objective value.
-                if (objectiveFound)
+                else if (startsWith(buffer, pos, lineEnd, STATUS))
                 {
-                    String[] lineObjs = line.split("\\s++");
-                    int nameIndex = lineObjs[0].lastIndexOf(levelEnding);
-                    // Penalties may also be in this file.
-                    if (nameIndex == -1)
-                        continue;
-                    String name = lineObjs[0].substring(0, nameIndex);
-                    // In case the value might be something like 0.9999, we
-                    // parse as a Double, then round, and then produce the int
-                    // value.
-                    results.put( name, new Long(Math.round(Double.parseDouble(lineObjs[1]))).intValue() );
+                    int begin = skipSpaces(buffer, pos + STATUS.length, lineEnd);
+                    solution.setStatus(decode(buffer, begin, lineEnd));
                 }
             }
+            else parseVariable(buffer, pos, lineEnd, solution);
+
+            pos = next;
         }
-        catch(IOException e)
+    }
+
+    /**
+     * Parses a "name value" line of the solution.
+     */
+    private void parseVariable(MappedByteBuffer buffer, int pos, int lineEnd,
+            ILPSolution solution)
+    {
+        int nameEnd = pos;
+        while (nameEnd < lineEnd && !isSpace(buffer.get(nameEnd)))
+            nameEnd++;
+        if (nameEnd == pos)
+            return;
+
+        int valueBegin = skipSpaces(buffer, nameEnd, lineEnd);
+        double value = parseNumber(buffer, valueBegin, lineEnd);
+        if (Double.isNaN(value))
+            return;
+        // In case the value might be something like 0.9999, we round it.
+        int rounded = (int) Math.round(value);
+
+        // Level variables.
+        if (endsWith(buffer, pos, nameEnd, LEVEL_ENDING))
         {
-            System.err.println(e);
+            solution.getLevels().put(decode(buffer, pos, nameEnd - LEVEL_ENDING.length),
+                    rounded);
+            return;
         }
-        finally
+        int id = parseCompactId(buffer, pos, nameEnd, ILPModel.COMPACT_LEVEL);
+        if (id != -1)
         {
-            try
+            if (dictionary != null && id < dictionary.length)
+                solution.getLevels().put(dictionary[id], rounded);
+            return;
+        }
+
+        // Penalty variables.
+        if (solution.getPenalties() == null)
+            return;
+        if (endsWith(buffer, pos, nameEnd, PENALTY_ENDING))
+        {
+            solution.getPenalties().put(decode(buffer, pos, nameEnd - PENALTY_ENDING.length),
+                    rounded);
+            return;
+        }
+        int column = parseCompactId(buffer, pos, nameEnd, ILPModel.COMPACT_PENALTY);
+        if (column != -1)
+        {
+            if (penaltyFrom != null && column < penaltyFrom.length
+                    && penaltyFrom[column] != -1)
+                solution.getPenalties().put(dictionary[penaltyFrom[column]] + "__"
+                        + dictionary[penaltyTo[column]], rounded);
+        }
+    }
+
+    /**
+     * Returns the id of a compact name (prefix followed by digits) in
+     * [begin, end), or -1 if it is not one.
+     */
+    private static int parseCompactId(MappedByteBuffer buffer, int begin,
+            int end, String prefix)
+    {
+        if (end - begin <= prefix.length())
+            return -1;
+        for (int index = 0; index < prefix.length(); index++)
+            if (buffer.get(begin + index) != prefix.charAt(index))
+                return -1;
+
+        int id = 0;
+        for (int pos = begin + prefix.length(); pos < end; pos++)
+        {
+            byte b = buffer.get(pos);
+            if (b < '0' || b > '9' || id > (Integer.MAX_VALUE - 9) / 10)
+                return -1;
+            id = 10 * id + (b - '0');
+        }
+        return id;
+    }
+
+    /**
+     * Parses the number at pos, e.g. 2, -1, 0.99999, 1e+00. Returns NaN if
+     * there is no number.
+     */
+    private static double parseNumber(MappedByteBuffer buffer, int pos, int end)
+    {
+        boolean negative = false;
+        if (pos < end && (buffer.get(pos) == '-' || buffer.get(pos) == '+'))
+            negative = buffer.get(pos++) == '-';
+
+        double value = 0;
+        int exponent = 0;
+        boolean digits = false;
+        while (pos < end && buffer.get(pos) >= '0' && buffer.get(pos) <= '9')
+        {
+            value = 10 * value + (buffer.get(pos++) - '0');
+            digits = true;
+        }
+        if (pos < end && buffer.get(pos) == '.')
+        {
+            pos++;
+            while (pos < end && buffer.get(pos) >= '0' && buffer.get(pos) <= '9')
             {
-                if (input != null)
-                    input.close();
+                value = 10 * value + (buffer.get(pos++) - '0');
+                exponent--;
+                digits = true;
             }
-            catch (IOException e)
+        }
+        if (!digits)
+            return Double.NaN;
+
+        if (pos < end && (buffer.get(pos) == 'e' || buffer.get(pos) == 'E'))
+        {
+            pos++;
+            boolean negativeExponent = false;
+            if (pos < end && (buffer.get(pos) == '-' || buffer.get(pos) == '+'))
+                negativeExponent = buffer.get(pos++) == '-';
+            int power = 0;
+            while (pos < end && buffer.get(pos) >= '0' && buffer.get(pos) <= '9')
+                power = 10 * power + (buffer.get(pos++) - '0');
+            exponent += negativeExponent ? -power : power;
+        }
+
+        // The number has to end here.
+        if (pos < end && !isSpace(buffer.get(pos)))
+            return Double.NaN;
+
+        if (exponent != 0)
+            value *= Math.pow(10, exponent);
+        return negative ? -value : value;
+    }
+
+    /**
+     * Returns the first position at or after pos that is not a space.
+     */
+    private static int skipSpaces(MappedByteBuffer buffer, int pos, int end)
+    {
+        while (pos < end && isSpace(buffer.get(pos)))
+            pos++;
+        return pos;
+    }
+
+    private static boolean startsWith(MappedByteBuffer buffer, int begin,
+            int end, byte[] prefix)
+    {
+        if (end - begin < prefix.length)
+            return false;
+        for (int index = 0; index < prefix.length; index++)
+            if (buffer.get(begin + index) != prefix[index])
+                return false;
+        return true;
+    }
+
+    private static boolean endsWith(MappedByteBuffer buffer, int begin,
+            int end, byte[] suffix)
+    {
+        if (end - begin <= suffix.length)
+            return false;
+        for (int index = 0; index < suffix.length; index++)
+            if (buffer.get(end - suffix.length + index) != suffix[index])
+                return false;
+        return true;
+    }
+
+    /**
+     * Returns the UTF-8 string in [begin, end) of the buffer.
+     */
+    private String decode(MappedByteBuffer buffer, int begin, int end)
+    {
+        int length = end - begin;
+        if (length > nameBytes.length)
+            nameBytes = Arrays.copyOf(nameBytes, Math.max(length, 2 * nameBytes.length));
+        for (int index = 0; index < length; index++)
+            nameBytes[index] = buffer.get(begin + index);
+        return new String(nameBytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns true for the bytes matched by the regex class \s.
+     */
+    private static boolean isSpace(byte b)
+    {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\f' || b == 0x0B;
+    }
+
+    private static byte[] bytes(String s)
+    {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the node names of the dictionary by id and the edges of its
+     * penalty columns. Both stay null if there is no dictionary.
+     */
+    private void readDictionary()
+    {
+        dictionary = null;
+        penaltyFrom = null;
+        penaltyTo = null;
+        if (dictionaryFile == null || !dictionaryFile.exists())
+            return;
+
+        List<String> names = new ArrayList<String>();
+        IntList columns = new IntList();
+        IntList froms = new IntList();
+        IntList tos = new IntList();
+        int numColumns = 0;
+
+        String line;
+        String[] lineObjs;
+        try (BufferedReader input = new BufferedReader(new FileReader(dictionaryFile)))
+        {
+            // The node names end at the first empty line.
+            while ((line = input.readLine()) != null && !line.isEmpty())
+                names.add(line);
+
+            // Then come the penalty columns.
+            while ((line = input.readLine()) != null)
             {
-                System.err.println(e);
+                lineObjs = line.split(" ");
+                if (lineObjs.length != 3)
+                    continue;
+
+                int column = Integer.parseInt(lineObjs[0]);
+                int from = Integer.parseInt(lineObjs[1]);
+                int to = Integer.parseInt(lineObjs[2]);
+                if (from < 0 || to < 0 || from >= names.size() || to >= names.size())
+                    continue;
+
+                columns.add(column);
+                froms.add(from);
+                tos.add(to);
+                numColumns = Math.max(numColumns, column + 1);
             }
         }
-        
-        return results;
+        catch (IOException | NumberFormatException e)
+        {
+            System.err.println(e);
+            return;
+        }
+
+        dictionary = names.toArray(new String[names.size()]);
+        if (columns.isEmpty())
+            return;
+
+        penaltyFrom = new int[numColumns];
+        penaltyTo = new int[numColumns];
+        Arrays.fill(penaltyFrom, -1);
+        for (int index = 0; index < columns.size(); index++)
+        {
+            penaltyFrom[columns.get(index)] = froms.get(index);
+            penaltyTo[columns.get(index)] = tos.get(index);
+        }
     }
 }
@@ -0,0 +1,97 @@
+package DHD.ilp;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @author Joshua A. Campbell
+ *
+ * A solution of a hierarchy ILP as read by ILPOutputReader: the status and
+ * objective value reported by the solver, the level of every node and,
+ * if they were asked for, the values of the penalty variables.
+ */
+public class ILPSolution
+{
+    // The solution status line of the solver, null if there was none.
+    private String status = null;
+    // The objective value, NaN if the solver did not report one.
+    private double objective = Double.NaN;
+    // The level of each node.
+    private Map<String,Integer> levels = new HashMap<String,Integer>();
+    // The value of each penalty variable, null if they were not read.
+    private Map<String,Integer> penalties = null;
+
+    /**
+     * @param readPenalties Whether the penalty variables are kept.
+     */
+    ILPSolution(boolean readPenalties)
+    {
+        if (readPenalties)
+            penalties = new HashMap<String,Integer>();
+    }
+
+    void setStatus(String status)
+    {
+        this.status = status;
+    }
+
+    void setObjective(double objective)
+    {
+        this.objective = objective;
+    }
+
+    /**
+     * Returns the solution status reported by the solver, e.g. "optimal
+     * solution found", or null if the file did not have one.
+     */
+    public String getStatus()
+    {
+        return status;
+    }
+
+    /**
+     * Returns true if the solver reported an objective value, i.e. if it
+     * found a solution.
+     */
+    public boolean hasObjective()
+    {
+        return !Double.isNaN(objective);
+    }
+
+    /**
+     * Returns the objective value, NaN if there was none.
+     */
+    public double getObjective()
+    {
+        return objective;
+    }
+
+    /**
+     * Returns the objective value rounded to the nearest integer. The
+     * objective of a hierarchy ILP is a number of edges, but the solver may
+     * report it as e.g. 5.9999999.
+     */
+    public long getRoundedObjective()
+    {
+        return Math.round(objective);
+    }
+
+    /**
+     * Returns the level of each node. Levels the solver left out are 0.
+     */
+    public Map<String,Integer> getLevels()
+    {
+        return levels;
+    }
+
+    /**
+     * Returns the value of each penalty variable, or null if the penalties
+     * were not read. The keys are the edges (from__to). With compact names
+     * the edges come from the dictionary of the ILP, so penalties that it
+     * does not list are left out.
+     */
+    public Map<String,Integer> getPenalties()
+    {
+        return penalties;
+    }
+}
@@ -0,0 +1,173 @@
+package DHD.ilp;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @author Joshua A. Campbell
+ *
+ * Writes an ILP file through a fixed size buffer to a file channel, so a
+ * formatter can stream a model of any size in a single pass. Ints are
+ * written as digits straight into the buffer, nothing is allocated per
+ * term.
+ *
+ * A writer without a file keeps everything in a growing buffer instead. The
+ * formatters render shards of a section into such writers in parallel and
+ * then transfer them to the file in order, see ILPFormatter.
+ */
+public class ILPWriter implements Closeable
+{
+    // The size of the buffer.
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // The channel to write to, null for an in-memory writer.
+    private FileChannel channel = null;
+    private ByteBuffer buffer;
+    // Holds the digits of an int, in reverse.
+    private byte[] digits = new byte[11];
+
+    /**
+     * @param outputFile The file to write to, it is truncated.
+     */
+    public ILPWriter(File outputFile) throws IOException
+    {
+        channel = new FileOutputStream(outputFile).getChannel();
+        buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    /**
+     * Creates an in-memory writer.
+     */
+    public ILPWriter()
+    {
+        buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    }
+
+    /**
+     * Appends the string, encoded in UTF-8.
+     */
+    public ILPWriter append(String s) throws IOException
+    {
+        for (int index = 0; index < s.length(); index++)
+        {
+            char c = s.charAt(index);
+
+            // Names are almost always ASCII, anything else is encoded with
+            // the rest of the string.
+            if (c >= 0x80)
+            {
+                byte[] bytes = s.substring(index).getBytes(StandardCharsets.UTF_8);
+                for (byte b : bytes)
+                    put(b);
+                break;
+            }
+            put((byte) c);
+        }
+        return this;
+    }
+
+    /**
+     * Appends the decimal digits of the int.
+     */
+    public ILPWriter append(int value) throws IOException
+    {
+        // Work with the negative value, which also covers MIN_VALUE.
+        if (value < 0)
+            put((byte) '-');
+        else value = -value;
+
+        int count = 0;
+        do
+        {
+            digits[count++] = (byte) ('0' - value % 10);
+            value /= 10;
+        }
+        while (value != 0);
+
+        while (count > 0)
+            put(digits[--count]);
+        return this;
+    }
+
+    /**
+     * Appends the (ASCII) character.
+     */
+    public ILPWriter append(char c) throws IOException
+    {
+        put((byte) c);
+        return this;
+    }
+
+    /**
+     * Writes the contents of an in-memory writer to this writer's channel
+     * and empties it, so it can be used again.
+     */
+    public void transferFrom(ILPWriter shard) throws IOException
+    {
+        flush();
+
+        shard.buffer.flip();
+        while (shard.buffer.hasRemaining())
+            channel.write(shard.buffer);
+        shard.buffer.clear();
+    }
+
+    /**
+     * Puts one byte into the buffer, flushing it when it is full. An
+     * in-memory writer grows the buffer instead.
+     */
+    private void put(byte b) throws IOException
+    {
+        if (!buffer.hasRemaining())
+        {
+            if (channel == null)
+            {
+                ByteBuffer larger = ByteBuffer.allocate(2 * buffer.capacity());
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+            else flush();
+        }
+        buffer.put(b);
+    }
+
+    /**
+     * Writes the buffer to the channel, does nothing for an in-memory
+     * writer.
+     */
+    public void flush() throws IOException
+    {
+        if (channel == null)
+            return;
+
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Flushes the buffer and closes the channel.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (channel == null || !channel.isOpen())
+            return;
+
+        try
+        {
+            flush();
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package DHD.ilp;
+
+import java.io.IOException;
+
+/**
+ * @author Joshua A. Campbell
+ *
+ * Generates an output file that follows the free MPS file format. Since all
+ * columns of the hierarchy ILP are integer, they are all written inside one
+ * INTORG/INTEND marker block.
+ * Ex:
+ *  NAME DHD
+ *  OBJSENSE
+ *   MIN
+ *  ROWS
+ *   N obj
+ *   G c1
+ *  COLUMNS
+ *   MARKER 'MARKER' 'INTORG'
+ *   a__t c1 -1
+ *   a__b__p obj 1
+ *   a__b__p c1 -2
+ *   MARKER 'MARKER' 'INTEND'
+ *  RHS
+ *   RHS c1 -2
+ *   RHS obj -3
+ *  BOUNDS
+ *   LO BND a__t 0
+ *   UP BND a__t 2
+ *   BV BND a__b__p
+ *  ENDATA
+ *
+ * The objective constant is written as the negated right hand side of the
+ * objective row.
+ */
+public class MPSFormatter extends ILPFormatter
+{
+    // The file extension of the format.
+    public static final String EXTENSION = ".mps";
+
+    // Used to delimite fields.
+    private static final String SPACE = " ";
+    // New line.
+    private static final String NEWLINE = "\n";
+    // The name of the objective row.
+    private static final String OBJROW = "obj";
+    // The prefix for each constraint.
+    private static final String CONSPREFIX = "c";
+
+    public MPSFormatter()
+    {
+
+    }
+
+    @Override
+    public String getExtension()
+    {
+        return EXTENSION;
+    }
+
+    /**
+     * Writes the model in the free MPS file format.
+     *
+     * @param model The model to write.
+     * @param mps The writer to write to.
+     */
+    @Override
+    public void write(final ILPModel model, ILPWriter mps) throws IOException
+    {
+        int numColumns = model.numColumns();
+
+        mps.append("NAME DHD").append(NEWLINE);
+        mps.append("OBJSENSE").append(NEWLINE);
+        mps.append(SPACE).append(model.isMinimize() ? "MIN" : "MAX").append(NEWLINE);
+
+        // Rows.
+        mps.append("ROWS").append(NEWLINE);
+        mps.append(" N ").append(OBJROW).append(NEWLINE);
+        writeRange(mps, model.numRows(), new RangeWriter()
+        {
+            @Override
+            public void write(int begin, int end, ILPWriter out) throws IOException
+            {
+                for (int row = begin; row < end; row++)
+                {
+                    String sense = model.rowSense(row) == ILPModel.EQ ? "E"
+                        : model.rowSense(row) == ILPModel.GTE ? "G" : "L";
+                    out.append(SPACE).append(sense).append(SPACE);
+                    out.append(CONSPREFIX).append(row + 1).append(NEWLINE);
+                }
+            }
+        });
+
+        // The rows store terms by row, MPS lists them by column, so
+        // transpose the terms.
+        int numTerms = model.numRows() == 0 ? 0 : model.rowEnd(model.numRows() - 1);
+        final int[] columnBegin = new int[numColumns + 1];
+        for (int term = 0; term < numTerms; term++)
+            columnBegin[model.termColumn(term) + 1]++;
+        for (int column = 0; column < numColumns; column++)
+            columnBegin[column + 1] += columnBegin[column];
+
+        int[] next = columnBegin.clone();
+        final int[] termRows = new int[numTerms];
+        final int[] termCoefs = new int[numTerms];
+        for (int row = 0; row < model.numRows(); row++)
+        {
+            for (int term = model.rowBegin(row); term < model.rowEnd(row); term++)
+            {
+                int index = next[model.termColumn(term)]++;
+                termRows[index] = row;
+                termCoefs[index] = model.termCoef(term);
+            }
+        }
+
+        // Columns.
+        mps.append("COLUMNS").append(NEWLINE);
+        mps.append(" MARKER 'MARKER' 'INTORG'").append(NEWLINE);
+        writeRange(mps, numColumns, new RangeWriter()
+        {
+            @Override
+            public void write(int begin, int end, ILPWriter out) throws IOException
+            {
+                for (int column = begin; column < end; column++)
+                {
+                    // One entry per line, a line may hold at most two. A
+                    // column without any entry still needs one, so it gets
+                    // a zero in the objective.
+                    if (model.objectiveCoef(column) != 0
+                            || columnBegin[column] == columnBegin[column + 1])
+                    {
+                        out.append(SPACE);
+                        writeColumnName(out, model, column);
+                        out.append(SPACE).append(OBJROW);
+                        out.append(SPACE).append(model.objectiveCoef(column)).append(NEWLINE);
+                    }
+                    for (int index = columnBegin[column]; index < columnBegin[column + 1]; index++)
+                    {
+                        out.append(SPACE);
+                        writeColumnName(out, model, column);
+                        out.append(SPACE);
+                        out.append(CONSPREFIX).append(termRows[index] + 1);
+                        out.append(SPACE).append(termCoefs[index]).append(NEWLINE);
+                    }
+                }
+            }
+        });
+        mps.append(" MARKER 'MARKER' 'INTEND'").append(NEWLINE);
+
+        // Right hand sides, zeros may be left out.
+        mps.append("RHS").append(NEWLINE);
+        writeRange(mps, model.numRows(), new RangeWriter()
+        {
+            @Override
+            public void write(int begin, int end, ILPWriter out) throws IOException
+            {
+                for (int row = begin; row < end; row++)
+                {
+                    if (model.rowRhs(row) == 0)
+                        continue;
+                    out.append(" RHS ").append(CONSPREFIX).append(row + 1);
+                    out.append(SPACE).append(model.rowRhs(row)).append(NEWLINE);
+                }
+            }
+        });
+        if (model.getObjectiveConstant() != 0)
+        {
+            mps.append(" RHS ").append(OBJROW);
+            mps.append(SPACE).append(-model.getObjectiveConstant()).append(NEWLINE);
+        }
+
+        // Bounds.
+        mps.append("BOUNDS").append(NEWLINE);
+        writeRange(mps, numColumns, new RangeWriter()
+        {
+            @Override
+            public void write(int begin, int end, ILPWriter out) throws IOException
+            {
+                for (int column = begin; column < end; column++)
+                {
+                    if (model.columnKind(column) == ILPModel.PENALTY)
+                    {
+                        out.append(" BV BND ");
+                        writeColumnName(out, model, column);
+                        out.append(NEWLINE);
+                        continue;
+                    }
+                    out.append(" LO BND ");
+                    writeColumnName(out, model, column);
+                    out.append(SPACE).append(model.columnLower(column)).append(NEWLINE);
+                    out.append(" UP BND ");
+                    writeColumnName(out, model, column);
+                    out.append(SPACE).append(model.columnUpper(column)).append(NEWLINE);
+                }
+            }
+        });
+
+        mps.append("ENDATA").append(NEWLINE);
+    }
+}
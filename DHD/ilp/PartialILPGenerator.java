@@ -1,8 +1,7 @@
 package DHD.ilp;
 
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.List;
+import java.io.File;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
@@ -21,10 +20,13 @@ public class PartialILPGenerator extends ILPGenerator
     private Set<Node> unmodifiedNodes;
     private Set<Node> modifiedNodes;
     private Map<String,Integer> rankings;
-    private CplexLPFormatter formatter;
+    private ILPFormatter formatter;
     private int levelChange;
     private int numLevels;
-
+    // The edges between unmodified nodes that are not in edges, and the
+    // number of them that are violated.
+    private int numOutsideEdges = 0;
+    private int outsidePenalty = 0;
 
     /**
      * @param edges The edges in the graph.
@@ -39,7 +41,7 @@ public class PartialILPGenerator extends ILPGenerator
      */
     public PartialILPGenerator(Set<Edge> edges, Set<Node> unmodifiedNodes,
             Set<Node> modifiedNodes, Map<String,Integer> rankings,
-            CplexLPFormatter formatter, int levelChange, int numLevels)
+            ILPFormatter formatter, int levelChange, int numLevels)
     {
         this.edges = edges;
         this.unmodifiedNodes = unmodifiedNodes;
@@ -51,15 +53,32 @@ public class PartialILPGenerator extends ILPGenerator
     }
 
     /**
-     * Returns the ILP that will find hierarchy in the graph.
+     * Sets the edges between unmodified nodes that were left out of the
+     * edges, e.g. because only the neighborhoods of the modified nodes were
+     * loaded. Their penalty is a constant, which is added to the objective
+     * so that it matches the ILP over all the edges.
      *
-     * M = numLevels
+     * @param numEdges The number of left out edges.
+     * @param penalty The number of left out edges that are violated by the
+     * rankings.
+     */
+    public void setOutsideEdges(int numEdges, int penalty)
+    {
+        numOutsideEdges = numEdges;
+        outsidePenalty = penalty;
+    }
+
+    /**
+     * Writes the ILP that will find hierarchy in the graph to the file.
      *
      * For directed edge (n_i, n_j):
      *  p_i_j = {0,1}
      *
-     *  t_j - t_i - M * p_i_j GTE -M
-     *  t_j - t_i - M * p_i_j LTE -1
+     *  t_j - t_i - M1 * p_i_j GTE -M1,  M1 = ub(t_i) - lb(t_j)
+     *  t_j - t_i - M2 * p_i_j LTE -1,   M2 = ub(t_j) - lb(t_i) + 1
+     *
+     * where lb and ub are the bounds of the level variables given below.
+     * The big-M constants are derived per edge, see Presolver.
      *
      * A different constaint will be used depending on whether this node was
      * unmodified or not:
@@ -68,86 +87,73 @@ public class PartialILPGenerator extends ILPGenerator
      *      uBound = level(n) + levelChange GT numLevels-1 ? numLevels-1 :
      *          level(n) + levelChange
      *      lBound LTE newRank(n) LTE uBound
+     *  modified without a previous level (Node n):
+     *      0 LTE newRank(n) LTE numLevels-1
      *  unmodified:
      *      level(n) LTE newRank(n) LTE level(n)
      *
      * min: sum(p_k)
+     *
+     * The levels of unmodified nodes are constants, so they are presolved
+     * out of the ILP (see ILPGenerator.generate(...)).
      */
     @Override
-    public String generate()
+    public boolean generate(File outputFile)
     {
-        // Set objective type to minimize.
-        formatter.setObjectiveType(-1);
-
-        // Coefficients for the constraints.
-        List<Integer> coefs = new ArrayList<Integer>();
-        coefs.add(1);
-        coefs.add(-1);
-        coefs.add(-1 * this.numLevels);
+        presolve();
+        return generate(formatter, outputFile);
+    }
 
-        // Holds the unique vars we will create that represent the levels.
-        Set<String> levelVars = new HashSet<String>();
+    /**
+     * Computes the bounds of every level variable and runs the presolve
+     * stage, without formatting the ILP.
+     */
+    @Override
+    public Presolver presolve()
+    {
+        // The bounds of every level variable.
+        Map<String,Integer> lowerBounds = new HashMap<String,Integer>();
+        Map<String,Integer> upperBounds = new HashMap<String,Integer>();
 
         for (Edge edge : edges)
         {
-            // Name the penalty variable
-            String p_i_j = edge.toString() + penaltyEnding;
-            // Name the level variables.
-            String t_j = edge.getTo().toString() + levelEnding;
-            String t_i = edge.getFrom().toString() + levelEnding;
-
-            // Store the level variables.
-            levelVars.add(t_j);
-            levelVars.add(t_i);
-
-            // Variables for the constraint.
-            List<String> vars = new ArrayList<String>();
-            vars.add(t_j);
-            vars.add(t_i);
-            vars.add(p_i_j);
-
-            // Generate two constraints.
-            formatter.addConstraint(coefs, vars, 1, -this.numLevels);
-            formatter.addConstraint(coefs, vars, -1, -1);
-            
-            // Add binary constraints.
-            formatter.addBinaryVar(p_i_j);
-            
-            // Add penalty to objective function.
-            formatter.addToObjective(1, p_i_j);
-        }
-
-        // Now we add the level constraints.
-        for (String levelVar : levelVars)
-        {
-            // Add integer constraints.
-            formatter.addIntegerVar(levelVar);
-
-            // Check if this node must be a constant level.
-            int endingIndex = levelVar.lastIndexOf(levelEnding);
-            // The key will be the original node name.
-            String key = levelVar.substring(0, endingIndex);
-
-            // This node was unmodified nodes.
-            if (unmodifiedNodes.contains(new Node(key)))
-            {
-                int level = rankings.get(key);
-                formatter.addBound(level, level, levelVar);
-            }
-            else // This node was modified.
+            for (Node node : new Node[] { edge.getFrom(), edge.getTo() })
             {
-                // Calculate the lower bound.
-                int negOffset = rankings.get(key) - levelChange;
-                int lBound = negOffset < 0 ? 0 : negOffset;
-
-                // Calculate the upper bound.
-                int posOffSet = rankings.get(key) + levelChange;
-                int uBound = (posOffSet > (numLevels-1)) ? (numLevels-1) : posOffSet;
-
-                formatter.addBound(lBound, uBound, levelVar);
+                String key = node.getName();
+                if (lowerBounds.containsKey(key))
+                    continue;
+
+                // This node was unmodified nodes.
+                if (unmodifiedNodes.contains(node))
+                {
+                    int level = rankings.get(key);
+                    lowerBounds.put(key, level);
+                    upperBounds.put(key, level);
+                }
+                else if (!rankings.containsKey(key))
+                {
+                    // This node has no previous level, so any level will do.
+                    lowerBounds.put(key, 0);
+                    upperBounds.put(key, numLevels-1);
+                }
+                else // This node was modified.
+                {
+                    // Calculate the lower bound.
+                    int negOffset = rankings.get(key) - levelChange;
+                    int lBound = negOffset < 0 ? 0 : negOffset;
+
+                    // Calculate the upper bound.
+                    int posOffSet = rankings.get(key) + levelChange;
+                    int uBound = (posOffSet > (numLevels-1)) ? (numLevels-1) : posOffSet;
+
+                    lowerBounds.put(key, lBound);
+                    upperBounds.put(key, uBound);
+                }
             }
         }
-        
-        return this.formatter.toString();
+
+        Presolver presolver = presolve(edges, lowerBounds, upperBounds);
+        presolver.addFixedEdges(numOutsideEdges, outsidePenalty);
+        return presolver;
     }
 }
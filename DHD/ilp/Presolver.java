@@ -0,0 +1,232 @@
+package DHD.ilp;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import DHD.ds.*;
+
+/**
+ * @author Joshua A. Campbell
+ *
+ * Presolve stage for the hierarchy ILPs. Level variables whose lower and
+ * upper bound are equal are fixed, so they are substituted into the edge
+ * constraints instead of being emitted as variables.
+ *
+ * The edge (n_i, n_j) is violated (p_i_j = 1) iff t_j GTE t_i. Given the
+ * bounds of the two level variables, the penalty may already be decided:
+ *  lb(t_j) GTE ub(t_i) : the edge is always violated, p = 1
+ *  ub(t_j) LT lb(t_i)  : the edge is never violated, p = 0
+ * This always holds for an edge between two fixed nodes. Such edges are
+ * dropped and their penalties are summed up into a constant that is added
+ * to the objective.
+ *
+ * For the remaining edges the big-M constants are derived from the bounds
+ * instead of using M = numLevels:
+ *  t_j - t_i - M1 * p_i_j GTE -M1,  M1 = ub(t_i) - lb(t_j)
+ *  t_j - t_i - M2 * p_i_j LTE -1,   M2 = ub(t_j) - lb(t_i) + 1
+ * These are the smallest constants that leave the constraints slack when
+ * they should be, which gives a much tighter LP relaxation.
+ */
+public class Presolver
+{
+    // The edges of the ILP before presolve.
+    private Collection<Edge> edges;
+    // The bounds of the level variable of each node.
+    private Map<String,Integer> lowerBounds;
+    private Map<String,Integer> upperBounds;
+
+    // The edges that still need a penalty variable.
+    private List<Edge> remainingEdges = new ArrayList<Edge>();
+    // The fixed nodes that appear in the ILP.
+    private Set<String> fixedNodes = new HashSet<String>();
+    // The number of dropped edges and the penalty they add up to.
+    private int numRemovedEdges = 0;
+    private int objectiveConstant = 0;
+    // The number of fixed edges that were not passed in, see addFixedEdges.
+    private int numOutsideEdges = 0;
+
+    /**
+     * @param edges The edges of the ILP.
+     * @param lowerBounds The lower bound of the level of each node.
+     * @param upperBounds The upper bound of the level of each node.
+     */
+    public Presolver(Collection<Edge> edges, Map<String,Integer> lowerBounds,
+            Map<String,Integer> upperBounds)
+    {
+        this.edges = edges;
+        this.lowerBounds = lowerBounds;
+        this.upperBounds = upperBounds;
+    }
+
+    /**
+     * Runs the presolve stage.
+     */
+    public void presolve()
+    {
+        for (Edge edge : edges)
+        {
+            String from = edge.getFrom().getName();
+            String to = edge.getTo().getName();
+
+            boolean fromFixed = isFixed(from);
+            boolean toFixed = isFixed(to);
+            if (fromFixed)
+                fixedNodes.add(from);
+            if (toFixed)
+                fixedNodes.add(to);
+
+            if (lowerBounds.get(to) >= upperBounds.get(from))
+            {
+                // Always violated.
+                numRemovedEdges++;
+                objectiveConstant++;
+            }
+            else if (upperBounds.get(to) < lowerBounds.get(from))
+            {
+                // Never violated.
+                numRemovedEdges++;
+            }
+            else
+                remainingEdges.add(edge);
+        }
+    }
+
+    /**
+     * Accounts for edges between fixed nodes that are not among the edges
+     * of the ILP, e.g. the edges far from the changes of a graph that was
+     * never loaded as a whole. They are dropped like any other edge between
+     * fixed nodes. Their nodes are not counted as fixed level variables.
+     *
+     * @param numEdges The number of such edges.
+     * @param penalty The number of them that are violated.
+     */
+    public void addFixedEdges(int numEdges, int penalty)
+    {
+        numOutsideEdges += numEdges;
+        numRemovedEdges += numEdges;
+        objectiveConstant += penalty;
+    }
+
+    /**
+     * Returns true if the level of the node is fixed by its bounds.
+     */
+    public boolean isFixed(String node)
+    {
+        return lowerBounds.get(node).equals(upperBounds.get(node));
+    }
+
+    /**
+     * Returns the level of a fixed node.
+     */
+    public int getFixedLevel(String node)
+    {
+        return lowerBounds.get(node);
+    }
+
+    /**
+     * Returns every node of the ILP, fixed or not.
+     */
+    public Set<String> getNodes()
+    {
+        return lowerBounds.keySet();
+    }
+
+    /**
+     * Returns the lower bound of the level of the node.
+     */
+    public int getLowerBound(String node)
+    {
+        return lowerBounds.get(node);
+    }
+
+    /**
+     * Returns the upper bound of the level of the node.
+     */
+    public int getUpperBound(String node)
+    {
+        return upperBounds.get(node);
+    }
+
+    /**
+     * Returns the level clamped to the bounds of the node. A node without a
+     * level starts at its lower bound.
+     */
+    public int clamp(String node, Integer level)
+    {
+        int lower = lowerBounds.get(node);
+        int upper = upperBounds.get(node);
+        if (level == null || level < lower)
+            return lower;
+        return level > upper ? upper : level;
+    }
+
+    /**
+     * Returns the big-M constant of the GTE constraint of a remaining edge.
+     *
+     * @param from The node the edge starts at.
+     * @param to The node the edge points to.
+     */
+    public int getLowerM(String from, String to)
+    {
+        return upperBounds.get(from) - lowerBounds.get(to);
+    }
+
+    /**
+     * Returns the big-M constant of the LTE constraint of a remaining edge.
+     *
+     * @param from The node the edge starts at.
+     * @param to The node the edge points to.
+     */
+    public int getUpperM(String from, String to)
+    {
+        return upperBounds.get(to) - lowerBounds.get(from) + 1;
+    }
+
+    /**
+     * Returns the edges that still need a penalty variable.
+     */
+    public List<Edge> getRemainingEdges()
+    {
+        return remainingEdges;
+    }
+
+    /**
+     * Returns the penalty of the dropped edges. It must be added to the
+     * objective of the reduced ILP.
+     */
+    public int getObjectiveConstant()
+    {
+        return objectiveConstant;
+    }
+
+    /**
+     * Returns the number of dropped edges.
+     */
+    public int getNumRemovedEdges()
+    {
+        return numRemovedEdges;
+    }
+
+    /**
+     * Returns the number of level variables that were removed.
+     */
+    public int getNumFixedVars()
+    {
+        return fixedNodes.size();
+    }
+
+    /**
+     * Returns a short summary of the presolve stage.
+     */
+    public String getReport()
+    {
+        return "Presolve: removed " + numRemovedEdges + " of "
+            + (edges.size() + numOutsideEdges)
+            + " edges and " + fixedNodes.size() + " fixed level variables,"
+            + " objective constant " + objectiveConstant + ".";
+    }
+}
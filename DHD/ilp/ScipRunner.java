@@ -0,0 +1,110 @@
+package DHD.ilp;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Joshua A. Campbell
+ *
+ * Solves an ILP file with the SCIP command line solver, the same way the run
+ * scripts do:
+ *  scip -q -c "read lp" -c "optimize" -c "write solution sol" -c "quit"
+ * The solver output is written next to the solution file (sol.log), so
+ * several runners can solve at the same time.
+ */
+public class ScipRunner
+{
+    // The SCIP executable, looked up on the PATH.
+    public static final String SCIP = "scip";
+
+    // The ILP to solve.
+    private File lpFile;
+    // The file SCIP writes the solution to.
+    private File solutionFile;
+    // An optional start solution, see StartSolutionWriter.
+    private File startFile = null;
+
+    /**
+     * @param lpFile The ILP to solve.
+     * @param solutionFile The file to write the solution to.
+     */
+    public ScipRunner(File lpFile, File solutionFile)
+    {
+        this.lpFile = lpFile;
+        this.solutionFile = solutionFile;
+    }
+
+    /**
+     * Sets a start solution to load after the ILP.
+     */
+    public void setStartFile(File startFile)
+    {
+        this.startFile = startFile;
+    }
+
+    /**
+     * Runs SCIP and waits for it to finish.
+     *
+     * @return Returns true if SCIP exited normally.
+     */
+    public boolean run()
+    {
+        List<String> command = new ArrayList<String>();
+        command.add(SCIP);
+        command.add("-q");
+        command.add("-c");
+        command.add("read " + lpFile.getPath());
+        if (startFile != null)
+        {
+            command.add("-c");
+            command.add("read " + startFile.getPath());
+        }
+        command.add("-c");
+        command.add("optimize");
+        command.add("-c");
+        command.add("write solution " + solutionFile.getPath());
+        command.add("-c");
+        command.add("quit");
+
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(new File(solutionFile.getPath() + ".log"));
+
+        // Do not pick up the solution of an earlier run.
+        solutionFile.delete();
+
+        try
+        {
+            Process process = builder.start();
+            return process.waitFor() == 0;
+        }
+        catch (IOException e)
+        {
+            System.err.println("Unable to run " + SCIP + " on " + lpFile);
+            System.err.println(e);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the node levels of the solution, or an empty map if SCIP did
+     * not write a solution.
+     */
+    public Map<String,Integer> getResults()
+    {
+        if (!solutionFile.exists())
+            return new HashMap<String,Integer>();
+
+        return new ILPOutputReader(solutionFile,
+                ILPGenerator.dictionaryFile(lpFile)).getResults();
+    }
+}
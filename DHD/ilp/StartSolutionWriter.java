@@ -0,0 +1,111 @@
+package DHD.ilp;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import DHD.ds.*;
+
+/**
+ * @author Joshua A. Campbell
+ *
+ * Writes a start solution (MIP start) for a generated hierarchy ILP in the
+ * SCIP solution format, so the solver begins with an incumbent instead of
+ * from scratch. It can be loaded after the LP with "read file.sol".
+ *
+ * The start levels are clamped to the bounds of each level variable, and the
+ * penalty of every remaining edge is computed from them:
+ *  p_i_j = 1 if level(n_j) GTE level(n_i), else 0
+ * so the start solution is always feasible. The variables are named as in
+ * the generated ILP, so compact names work as well.
+ */
+public class StartSolutionWriter
+{
+    // The presolve stage of the generated ILP.
+    private Presolver presolver;
+    // The generated ILP.
+    private ILPModel model;
+    // The start level of each node.
+    private Map<String,Integer> startLevels;
+    // The output file to write to.
+    private File outputFile;
+
+    // The objective value of the start solution.
+    private int objective = 0;
+
+    /**
+     * @param presolver The presolve stage of the generated ILP, see
+     * ILPGenerator.getPresolver().
+     * @param model The generated ILP, see ILPGenerator.getModel().
+     * @param startLevels The start level of each node, e.g. the previous
+     * ranking. Nodes without a start level start at their lower bound.
+     * @param outputFile The file to write the start solution to.
+     */
+    public StartSolutionWriter(Presolver presolver, ILPModel model,
+            Map<String,Integer> startLevels, File outputFile)
+    {
+        this.presolver = presolver;
+        this.model = model;
+        this.startLevels = startLevels;
+        this.outputFile = outputFile;
+    }
+
+    /**
+     * Returns the start level of the node, clamped to its bounds.
+     */
+    private int getLevel(String node)
+    {
+        return presolver.clamp(node, startLevels.get(node));
+    }
+
+    /**
+     * Returns the start value of the column.
+     */
+    private int getValue(int column)
+    {
+        NameIndex nodes = model.getNodes();
+        int level = getLevel(nodes.getName(model.columnNode(column)));
+        if (model.columnKind(column) == ILPModel.LEVEL)
+            return level;
+        // The column is the penalty of the edge from columnNode to
+        // columnNode2.
+        return getLevel(nodes.getName(model.columnNode2(column))) >= level ? 1 : 0;
+    }
+
+    /**
+     * Write the start solution to the output file.
+     */
+    public void write()
+    {
+        // Compute the objective first, it comes first in the file.
+        objective = model.getObjectiveConstant();
+        for (int column = 0; column < model.numColumns(); column++)
+            if (model.objectiveCoef(column) != 0)
+                objective += model.objectiveCoef(column) * getValue(column);
+
+        try (ILPWriter writer = new ILPWriter(outputFile))
+        {
+            writer.append("solution status: feasible\n");
+            writer.append("objective value: ").append(objective).append('\n');
+
+            for (int column = 0; column < model.numColumns(); column++)
+            {
+                writer.append(model.columnName(column)).append(' ');
+                writer.append(getValue(column)).append('\n');
+            }
+        }
+        catch (IOException e)
+        {
+            System.err.println("Unable to write start solution to file in StartSolutionWriter.write()");
+            System.err.println(e);
+        }
+    }
+
+    /**
+     * Returns the objective value of the last written start solution.
+     */
+    public int getObjective()
+    {
+        return objective;
+    }
+}
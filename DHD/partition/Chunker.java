@@ -0,0 +1,17 @@
+package DHD.partition;
+
+/**
+ * @author Joshua A. Campbell
+ *
+ * Chooses the chunks of nodes that CompleteSolver solves one after the
+ * other. A chunker is created with the nodes used by previous iterations
+ * and hands out each remaining node of the graph in exactly one chunk.
+ */
+public interface Chunker
+{
+    /**
+     * Returns the ids of the nodes of the next chunk. The nodes count as
+     * used from now on. Returns an empty array once every node was used.
+     */
+    public int[] nextChunk();
+}
@@ -0,0 +1,284 @@
+package DHD.partition;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import DHD.ds.*;
+
+/**
+ * @author Joshua A. Campbell
+ *
+ * Splits the nodes of a graph into parts of about the same size with few
+ * edges between the parts, e.g. the chunks of CompleteSolver. An edge
+ * between two parts joins two ILPs that are solved apart, so every cut edge
+ * is a chance to lose quality and a constant that makes the second ILP
+ * bigger.
+ *
+ * The partitioner is multilevel, like METIS:
+ *  1. Coarsen: the graph is shrunk by merging the endpoints of heavy edges
+ *     (see WeightedGraph.coarsen(...)) until it is small.
+ *  2. Partition: the parts of the small graph are grown breadth first from
+ *     random seeds, one part at a time, up to the target weight.
+ *  3. Refine: the parts are projected back through the levels. At every
+ *     level, boundary vertices move to the neighboring part they have the
+ *     most edges to, if that lowers the cut (or keeps it and evens out the
+ *     part weights) and the part does not get too heavy.
+ *
+ * The direction of the edges is ignored. The partition only depends on the
+ * graph and the seed.
+ *
+ * This class was not meant to be thread-safe.
+ */
+public class GraphPartitioner
+{
+    // Coarsening stops at about this many vertices per part.
+    private static final int COARSEST_VERTICES_PER_PART = 20;
+    // Coarsening stops if a level shrinks the graph by less than this.
+    private static final double MIN_SHRINK = 0.05;
+    // How much heavier than the average a part may get during refinement.
+    private static final double IMBALANCE = 0.05;
+    // The most refinement passes over a level.
+    private static final int REFINE_PASSES = 8;
+
+    private CompactGraph graph;
+    // The number of nodes per part to aim for.
+    private int partSize;
+    private long seed;
+
+    // The results of the last partition.
+    private int numParts = 0;
+    private long cut = 0;
+
+    /**
+     * @param graph The graph.
+     * @param partSize The number of nodes per part to aim for. The parts
+     * may be up to IMBALANCE heavier.
+     * @param seed The seed of the random choices.
+     */
+    public GraphPartitioner(CompactGraph graph, int partSize, long seed)
+    {
+        this.graph = graph;
+        this.partSize = Math.max(1, partSize);
+        this.seed = seed;
+    }
+
+    /**
+     * Partitions the graph.
+     *
+     * @return Returns the part of each id of the graph, -1 for ids without
+     * a node. The parts are numbered from 0 to numParts() - 1.
+     */
+    public int[] partition()
+    {
+        Random random = new Random(seed);
+
+        int[] vertexIds = WeightedGraph.vertexIds(graph);
+        WeightedGraph finest = WeightedGraph.fromGraph(graph, vertexIds);
+        numParts = (int) Math.max(1, (finest.totalWeight + partSize - 1) / partSize);
+
+        // Coarsen.
+        List<WeightedGraph> levels = new ArrayList<WeightedGraph>();
+        levels.add(finest);
+        long coarsestSize = (long) COARSEST_VERTICES_PER_PART * numParts;
+        int maxVertexWeight = (int) Math.max(1,
+                Math.min(Integer.MAX_VALUE, 3 * finest.totalWeight / (2 * coarsestSize)));
+        while (numParts > 1)
+        {
+            WeightedGraph fine = levels.get(levels.size() - 1);
+            if (fine.numVertices <= coarsestSize)
+                break;
+
+            WeightedGraph coarse = fine.coarsen(maxVertexWeight, random);
+            if (coarse.numVertices > (1 - MIN_SHRINK) * fine.numVertices)
+            {
+                // Not worth another level.
+                fine.coarseMap = null;
+                break;
+            }
+            levels.add(coarse);
+        }
+
+        // Partition the coarsest graph.
+        WeightedGraph coarsest = levels.get(levels.size() - 1);
+        int[] part = grow(coarsest, random);
+
+        long[] partWeight = new long[numParts];
+        for (int v = 0; v < coarsest.numVertices; v++)
+            partWeight[part[v]] += coarsest.vertexWeight[v];
+        long maxPartWeight = (long) Math.ceil((1 + IMBALANCE)
+                * finest.totalWeight / numParts);
+
+        // Refine, projecting the parts to the next finer level.
+        refine(coarsest, part, partWeight, maxPartWeight, random);
+        for (int level = levels.size() - 2; level >= 0; level--)
+        {
+            WeightedGraph fine = levels.get(level);
+            int[] finePart = new int[fine.numVertices];
+            for (int v = 0; v < fine.numVertices; v++)
+                finePart[v] = part[fine.coarseMap[v]];
+            part = finePart;
+
+            refine(fine, part, partWeight, maxPartWeight, random);
+        }
+        cut = finest.cut(part);
+
+        // Map the vertices back to the ids of the graph.
+        int[] partOf = new int[graph.numIds()];
+        for (int v = 0; v < partOf.length; v++)
+            partOf[v] = -1;
+        for (int vertex = 0; vertex < vertexIds.length; vertex++)
+            partOf[vertexIds[vertex]] = part[vertex];
+        return partOf;
+    }
+
+    /**
+     * Returns the number of parts of the last partition.
+     */
+    public int numParts()
+    {
+        return numParts;
+    }
+
+    /**
+     * Returns the number of edges between different parts in the last
+     * partition.
+     */
+    public long getCut()
+    {
+        return cut;
+    }
+
+    /**
+     * Grows the parts of the graph one at a time, breadth first from a
+     * random unassigned vertex, until each has its share of the remaining
+     * weight. A part that runs out of neighbors continues from another
+     * random vertex. The last part takes what is left.
+     */
+    private int[] grow(WeightedGraph g, Random random)
+    {
+        int[] part = new int[g.numVertices];
+        for (int v = 0; v < g.numVertices; v++)
+            part[v] = -1;
+
+        int[] order = g.permutation(random);
+        int nextSeed = 0;
+        long remaining = g.totalWeight;
+
+        // The part each vertex was last queued for.
+        int[] queuedFor = new int[g.numVertices];
+        for (int v = 0; v < g.numVertices; v++)
+            queuedFor[v] = -1;
+        int[] queue = new int[g.numVertices];
+
+        for (int p = 0; p < numParts - 1; p++)
+        {
+            long target = (remaining + numParts - p - 1) / (numParts - p);
+            long weight = 0;
+            int head = 0;
+            int tail = 0;
+
+            while (weight < target)
+            {
+                if (head == tail)
+                {
+                    // Start from a new random vertex.
+                    while (nextSeed < order.length && part[order[nextSeed]] != -1)
+                        nextSeed++;
+                    if (nextSeed == order.length)
+                        break;
+                    queue[tail++] = order[nextSeed];
+                    queuedFor[order[nextSeed]] = p;
+                }
+
+                int v = queue[head++];
+                if (part[v] != -1)
+                    continue;
+                part[v] = p;
+                weight += g.vertexWeight[v];
+
+                for (int index = g.begin[v]; index < g.begin[v+1]; index++)
+                {
+                    int u = g.adjacent[index];
+                    if (part[u] == -1 && queuedFor[u] != p)
+                    {
+                        queuedFor[u] = p;
+                        queue[tail++] = u;
+                    }
+                }
+            }
+
+            remaining -= weight;
+        }
+
+        for (int v = 0; v < g.numVertices; v++)
+            if (part[v] == -1)
+                part[v] = numParts - 1;
+        return part;
+    }
+
+    /**
+     * Moves boundary vertices to better parts until a pass moves nothing.
+     *
+     * @param partWeight The weight of each part, kept up to date.
+     */
+    private void refine(WeightedGraph g, int[] part, long[] partWeight,
+            long maxPartWeight, Random random)
+    {
+        // The weight of the edges of the current vertex to each part, and
+        // the parts it has edges to.
+        int[] connection = new int[numParts];
+        IntList touched = new IntList();
+
+        for (int pass = 0; pass < REFINE_PASSES; pass++)
+        {
+            int moves = 0;
+            for (int v : g.permutation(random))
+            {
+                int own = part[v];
+                touched.clear();
+                for (int index = g.begin[v]; index < g.begin[v+1]; index++)
+                {
+                    int p = part[g.adjacent[index]];
+                    if (connection[p] == 0)
+                        touched.add(p);
+                    connection[p] += g.edgeWeight[index];
+                }
+
+                // Find the part with the best gain that has room for v.
+                int weight = g.vertexWeight[v];
+                int best = own;
+                int bestGain = 0;
+                for (int index = 0; index < touched.size(); index++)
+                {
+                    int p = touched.get(index);
+                    if (p == own || partWeight[p] + weight > maxPartWeight)
+                        continue;
+
+                    int gain = connection[p] - connection[own];
+                    if (gain > bestGain
+                            || (gain == bestGain && best != own && partWeight[p] < partWeight[best])
+                            || (gain == 0 && best == own && partWeight[p] + weight < partWeight[own]))
+                    {
+                        best = p;
+                        bestGain = gain;
+                    }
+                }
+
+                for (int index = 0; index < touched.size(); index++)
+                    connection[touched.get(index)] = 0;
+
+                if (best != own)
+                {
+                    part[v] = best;
+                    partWeight[own] -= weight;
+                    partWeight[best] += weight;
+                    moves++;
+                }
+            }
+
+            if (moves == 0)
+                break;
+        }
+    }
+}
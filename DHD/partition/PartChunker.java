@@ -0,0 +1,61 @@
+package DHD.partition;
+
+import DHD.ds.*;
+
+/**
+ * @author Joshua A. Campbell
+ *
+ * Uses the parts of a partition as chunks, see GraphPartitioner. Each chunk
+ * is the unused nodes of the next part that has any, in the order of the
+ * parts.
+ *
+ * This class was not meant to be thread-safe.
+ */
+public class PartChunker implements Chunker
+{
+    // The unused nodes of part p are [partBegin[p], partBegin[p+1]).
+    private int[] partBegin;
+    private int[] members;
+    // The next part to hand out.
+    private int nextPart = 0;
+
+    /**
+     * @param partOf The part of each id, -1 for ids without a node, see
+     * GraphPartitioner.partition().
+     * @param numParts The number of parts.
+     * @param prev The nodes used in previous iterations.
+     */
+    public PartChunker(int[] partOf, int numParts, boolean[] prev)
+    {
+        // Count, then fill the unused nodes of each part in id order.
+        partBegin = new int[numParts + 1];
+        for (int v = 0; v < partOf.length; v++)
+            if (partOf[v] != -1 && !prev[v])
+                partBegin[partOf[v] + 1]++;
+        for (int p = 0; p < numParts; p++)
+            partBegin[p+1] += partBegin[p];
+
+        members = new int[partBegin[numParts]];
+        int[] fill = new int[numParts];
+        for (int v = 0; v < partOf.length; v++)
+            if (partOf[v] != -1 && !prev[v])
+                members[partBegin[partOf[v]] + fill[partOf[v]]++] = v;
+    }
+
+    @Override
+    public int[] nextChunk()
+    {
+        // Skip the parts that were used up by previous iterations.
+        int numParts = partBegin.length - 1;
+        while (nextPart < numParts && partBegin[nextPart] == partBegin[nextPart+1])
+            nextPart++;
+        if (nextPart == numParts)
+            return new int[0];
+
+        IntList chunk = new IntList(partBegin[nextPart+1] - partBegin[nextPart]);
+        for (int index = partBegin[nextPart]; index < partBegin[nextPart+1]; index++)
+            chunk.add(members[index]);
+        nextPart++;
+        return chunk.toArray();
+    }
+}
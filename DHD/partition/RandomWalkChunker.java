@@ -0,0 +1,101 @@
+package DHD.partition;
+
+import java.util.Random;
+
+import DHD.ds.*;
+
+/**
+ * @author Joshua A. Campbell
+ *
+ * Chooses chunks by random walks. A chunk grows by picking a random node of
+ * the frontier (the unused neighbors of the used nodes) until it has the
+ * chunk size or the frontier is empty. If the frontier is empty when a
+ * chunk starts, the walk starts at a random unused node.
+ *
+ * The unused nodes and the frontier are kept between chunks, so after the
+ * set up a chunk costs time in the degrees of its nodes, not in the size of
+ * the graph.
+ *
+ * This class was not meant to be thread-safe.
+ */
+public class RandomWalkChunker implements Chunker
+{
+    private CompactGraph graph;
+    private int chunkSize;
+    private Random random;
+
+    // The nodes that are in no chunk yet.
+    private IndexedIntSet unused;
+    // The unused nodes next to a used node.
+    private IndexedIntSet frontier;
+
+    /**
+     * @param graph The graph.
+     * @param prev The nodes used in previous iterations.
+     * @param chunkSize The number of nodes per chunk.
+     * @param random The random number generator of the walk.
+     */
+    public RandomWalkChunker(CompactGraph graph, boolean[] prev,
+            int chunkSize, Random random)
+    {
+        this.graph = graph;
+        this.chunkSize = chunkSize;
+        this.random = random;
+
+        int numIds = graph.numIds();
+        unused = new IndexedIntSet(numIds);
+        frontier = new IndexedIntSet(numIds);
+
+        for (int v = 0; v < numIds; v++)
+            if (graph.contains(v) && !prev[v])
+                unused.add(v);
+
+        // Start with the unused neighbors of all the previous nodes.
+        for (int v = 0; v < numIds; v++)
+        {
+            if (!prev[v])
+                continue;
+            for (int index = graph.neighborBegin(v); index < graph.neighborEnd(v); index++)
+                if (unused.contains(graph.neighbor(index)))
+                    frontier.add(graph.neighbor(index));
+        }
+    }
+
+    @Override
+    public int[] nextChunk()
+    {
+        IntList chunk = new IntList();
+        int numNodes = chunkSize;
+
+        // If necessary, select an initial node. This will be necessary for
+        // the first chunk.
+        if (frontier.isEmpty() && !unused.isEmpty())
+        {
+            take(unused.pick(random), chunk);
+            numNodes--;
+        }
+
+        // Random walk the graph.
+        while (numNodes > 0 && !frontier.isEmpty())
+        {
+            take(frontier.pick(random), chunk);
+            numNodes--;
+        }
+
+        return chunk.toArray();
+    }
+
+    /**
+     * Adds the node to the chunk and its unused neighbors to the frontier.
+     */
+    private void take(int v, IntList chunk)
+    {
+        unused.remove(v);
+        frontier.remove(v);
+        chunk.add(v);
+
+        for (int index = graph.neighborBegin(v); index < graph.neighborEnd(v); index++)
+            if (unused.contains(graph.neighbor(index)))
+                frontier.add(graph.neighbor(index));
+    }
+}
@@ -0,0 +1,236 @@
+package DHD.partition;
+
+import java.util.Random;
+
+import DHD.ds.*;
+
+/**
+ * @author Joshua A. Campbell
+ *
+ * An undirected graph with vertex and edge weights in compressed sparse row
+ * form, one level of the multilevel hierarchy of GraphPartitioner. The
+ * weight of a vertex is the number of nodes of the input graph it stands
+ * for, and the weight of an edge is the number of directed edges of the
+ * input graph between the nodes of its endpoints.
+ *
+ * This class was not meant to be thread-safe.
+ */
+class WeightedGraph
+{
+    // The number of vertices.
+    final int numVertices;
+    // The weight of each vertex.
+    final int[] vertexWeight;
+    // Adjacency of vertex v is [begin[v], begin[v+1]).
+    final int[] begin;
+    final int[] adjacent;
+    final int[] edgeWeight;
+    // The sum of the vertex weights.
+    final long totalWeight;
+
+    // The vertex of the next coarser graph each vertex was merged into,
+    // set by coarsen(...).
+    int[] coarseMap = null;
+
+    private WeightedGraph(int[] vertexWeight, int[] begin, int[] adjacent,
+            int[] edgeWeight)
+    {
+        this.numVertices = vertexWeight.length;
+        this.vertexWeight = vertexWeight;
+        this.begin = begin;
+        this.adjacent = adjacent;
+        this.edgeWeight = edgeWeight;
+
+        long total = 0;
+        for (int v = 0; v < numVertices; v++)
+            total += vertexWeight[v];
+        this.totalWeight = total;
+    }
+
+    /**
+     * Returns the weighted graph of the nodes of the graph. Vertex v is the
+     * v-th id of the graph that the graph contains, see vertexIds(...).
+     */
+    static WeightedGraph fromGraph(CompactGraph graph, int[] vertexIds)
+    {
+        int numIds = graph.numIds();
+
+        // Dense vertex of each id, -1 for ids without a node.
+        int[] vertexOf = new int[numIds];
+        for (int v = 0; v < numIds; v++)
+            vertexOf[v] = -1;
+        for (int vertex = 0; vertex < vertexIds.length; vertex++)
+            vertexOf[vertexIds[vertex]] = vertex;
+
+        int[] weights = new int[vertexIds.length];
+        int[] begin = new int[vertexIds.length + 1];
+        IntList adjacent = new IntList();
+        IntList edgeWeight = new IntList();
+
+        for (int vertex = 0; vertex < vertexIds.length; vertex++)
+        {
+            int v = vertexIds[vertex];
+            weights[vertex] = 1;
+
+            // The neighbor lists have no duplicates, an edge in both
+            // directions counts twice.
+            for (int index = graph.neighborBegin(v); index < graph.neighborEnd(v); index++)
+            {
+                int u = graph.neighbor(index);
+                if (u == v || vertexOf[u] == -1)
+                    continue;
+
+                adjacent.add(vertexOf[u]);
+                edgeWeight.add((graph.hasEdge(v, u) ? 1 : 0)
+                        + (graph.hasEdge(u, v) ? 1 : 0));
+            }
+            begin[vertex + 1] = adjacent.size();
+        }
+
+        return new WeightedGraph(weights, begin, adjacent.toArray(),
+                edgeWeight.toArray());
+    }
+
+    /**
+     * Returns the ids of the nodes of the graph in increasing order.
+     */
+    static int[] vertexIds(CompactGraph graph)
+    {
+        IntList ids = new IntList();
+        for (int v = 0; v < graph.numIds(); v++)
+            if (graph.contains(v))
+                ids.add(v);
+        return ids.toArray();
+    }
+
+    /**
+     * Returns the vertices in a random order.
+     */
+    int[] permutation(Random random)
+    {
+        int[] order = new int[numVertices];
+        for (int v = 0; v < numVertices; v++)
+            order[v] = v;
+        for (int v = numVertices - 1; v > 0; v--)
+        {
+            int other = random.nextInt(v + 1);
+            int swap = order[v];
+            order[v] = order[other];
+            order[other] = swap;
+        }
+        return order;
+    }
+
+    /**
+     * Matches every vertex with the unmatched neighbor it shares the
+     * heaviest edge with (heavy edge matching), visiting the vertices in a
+     * random order, and returns the graph with every matched pair merged
+     * into one vertex. Sets coarseMap.
+     *
+     * @param maxVertexWeight Pairs heavier than this are not merged, which
+     * keeps the coarse vertices small enough to balance the parts.
+     * @param random The source of the visiting order.
+     */
+    WeightedGraph coarsen(int maxVertexWeight, Random random)
+    {
+        int[] match = new int[numVertices];
+        for (int v = 0; v < numVertices; v++)
+            match[v] = -1;
+
+        for (int v : permutation(random))
+        {
+            if (match[v] != -1)
+                continue;
+
+            // Find the heaviest edge to an unmatched neighbor.
+            int best = v;
+            int bestWeight = 0;
+            for (int index = begin[v]; index < begin[v+1]; index++)
+            {
+                int u = adjacent[index];
+                if (match[u] == -1 && edgeWeight[index] > bestWeight
+                        && vertexWeight[v] + vertexWeight[u] <= maxVertexWeight)
+                {
+                    best = u;
+                    bestWeight = edgeWeight[index];
+                }
+            }
+
+            match[v] = best;
+            match[best] = v;
+        }
+
+        // Number the coarse vertices in the order of their lower vertex.
+        coarseMap = new int[numVertices];
+        int numCoarse = 0;
+        for (int v = 0; v < numVertices; v++)
+            if (v <= match[v])
+                coarseMap[v] = coarseMap[match[v]] = numCoarse++;
+
+        int[] weights = new int[numCoarse];
+        int[] coarseBegin = new int[numCoarse + 1];
+        IntList coarseAdjacent = new IntList(adjacent.length);
+        IntList coarseEdgeWeight = new IntList(adjacent.length);
+
+        // The position of each coarse neighbor in the list being built, -1
+        // if it is not in the list.
+        int[] position = new int[numCoarse];
+        for (int c = 0; c < numCoarse; c++)
+            position[c] = -1;
+
+        for (int v = 0; v < numVertices; v++)
+        {
+            if (v > match[v])
+                continue;
+            int c = coarseMap[v];
+            int listBegin = coarseAdjacent.size();
+
+            // Merge the lists of v and its match.
+            for (int member = v; ; member = match[v])
+            {
+                weights[c] += vertexWeight[member];
+                for (int index = begin[member]; index < begin[member+1]; index++)
+                {
+                    int neighbor = coarseMap[adjacent[index]];
+                    if (neighbor == c)
+                        continue;
+
+                    if (position[neighbor] == -1)
+                    {
+                        position[neighbor] = coarseAdjacent.size();
+                        coarseAdjacent.add(neighbor);
+                        coarseEdgeWeight.add(edgeWeight[index]);
+                    }
+                    else coarseEdgeWeight.set(position[neighbor],
+                            coarseEdgeWeight.get(position[neighbor]) + edgeWeight[index]);
+                }
+
+                if (member == match[v])
+                    break;
+            }
+
+            // Clear the positions for the next vertex.
+            for (int index = listBegin; index < coarseAdjacent.size(); index++)
+                position[coarseAdjacent.get(index)] = -1;
+            coarseBegin[c + 1] = coarseAdjacent.size();
+        }
+
+        return new WeightedGraph(weights, coarseBegin, coarseAdjacent.toArray(),
+                coarseEdgeWeight.toArray());
+    }
+
+    /**
+     * Returns the total weight of the edges between different parts.
+     */
+    long cut(int[] part)
+    {
+        long cut = 0;
+        for (int v = 0; v < numVertices; v++)
+            for (int index = begin[v]; index < begin[v+1]; index++)
+                if (part[adjacent[index]] != part[v])
+                    cut += edgeWeight[index];
+
+        // Every edge was seen from both ends.
+        return cut / 2;
+    }
+}
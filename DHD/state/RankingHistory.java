@@ -0,0 +1,416 @@
+package DHD.state;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import DHD.ds.*;
+
+/**
+ * @author Joshua A. Campbell
+ *
+ * The rankings of a chain of graph revisions (e.g. graph, graph.mutate.1,
+ * graph.mutate.2, ...) in one append-only file. A revision only records the
+ * nodes whose level changed since the revision before it, so a long history
+ * costs about as much as its changes instead of a full state file per
+ * revision.
+ *
+ * Every node gets an id the first time it is ranked, and a ranking is a
+ * PersistentIntArray of levels by id, NO_LEVEL for nodes that are not
+ * ranked. The arrays of different revisions share structure, so any number
+ * of them can be kept in memory. A revision is rebuilt from the closest
+ * revision before it that is in memory or has a checkpoint (a full copy of
+ * its levels in the file), by applying the changes in between.
+ * Checkpoints are written every CHECKPOINT_INTERVAL revisions, or sooner if
+ * the changes since the last one add up to more than the ranking, so
+ * rebuilding a revision never replays more than that.
+ *
+ * File layout (big-endian): the 4 bytes "DHDH", the version as an int, then
+ * records that start with their type:
+ *  'N' : a new node: the length of its UTF-8 name, the name.
+ *  'R' : a revision: the length of its UTF-8 label, the label, the number
+ *        of changes and for each change the id and the new level.
+ *  'C' : a checkpoint of the last revision: the number of ids and the
+ *        level of each id.
+ * A record cut off by a crash is dropped when the file is opened.
+ *
+ * This class was not meant to be thread-safe.
+ */
+public class RankingHistory implements Closeable
+{
+    // The level of a node that is not ranked in a revision.
+    public static final int NO_LEVEL = -1;
+
+    private static final byte[] MAGIC = { 'D', 'H', 'D', 'H' };
+    private static final int VERSION = 1;
+    private static final byte NAME = 'N';
+    private static final byte REVISION = 'R';
+    private static final byte CHECKPOINT = 'C';
+
+    // The most revisions between two checkpoints.
+    private static final int CHECKPOINT_INTERVAL = 64;
+
+    private FileChannel channel;
+    // The end of the readable records.
+    private long end;
+
+    // The ids of the nodes.
+    private NameIndex names = new NameIndex();
+    // The revisions in order.
+    private List<Revision> revisions = new ArrayList<Revision>();
+    // The rankings that were rebuilt, by revision.
+    private Map<Integer,PersistentIntArray> versions =
+        new HashMap<Integer,PersistentIntArray>();
+
+    // The changes since the last checkpoint.
+    private long changesSinceCheckpoint = 0;
+    private int lastCheckpoint = -1;
+
+    /**
+     * Where a revision is in the file.
+     */
+    private static class Revision
+    {
+        private String label;
+        // The position of the first change and the number of changes.
+        private long changesPos;
+        private int numChanges;
+        // The position of the levels of the checkpoint, -1 if none.
+        private long checkpointPos = -1;
+        private int checkpointSize = 0;
+    }
+
+    /**
+     * Opens the history, creating the file if it does not exist.
+     */
+    public RankingHistory(File historyFile) throws IOException
+    {
+        channel = FileChannel.open(historyFile.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+
+        if (channel.size() == 0)
+        {
+            ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 4);
+            header.put(MAGIC).putInt(VERSION).flip();
+            writeFully(header, 0);
+            end = header.limit();
+        }
+        else scan(historyFile);
+
+        // Drop a record that was cut off, it would hide the new ones.
+        if (channel.size() > end)
+            channel.truncate(end);
+    }
+
+    /**
+     * Reads the names and where the revisions are. The changes and
+     * checkpoints themselves are only read when a revision is rebuilt.
+     */
+    private void scan(File historyFile) throws IOException
+    {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                0, channel.size());
+        for (byte b : MAGIC)
+            if (buffer.remaining() == 0 || buffer.get() != b)
+                throw new IOException("Not a ranking history: " + historyFile);
+        if (buffer.remaining() < 4 || buffer.getInt() != VERSION)
+            throw new IOException("Unknown ranking history version: " + historyFile);
+        end = buffer.position();
+
+        try
+        {
+            while (buffer.hasRemaining())
+            {
+                byte type = buffer.get();
+                if (type == NAME)
+                    names.intern(readString(buffer));
+                else if (type == REVISION)
+                {
+                    Revision revision = new Revision();
+                    revision.label = readString(buffer);
+                    revision.numChanges = buffer.getInt();
+                    revision.changesPos = buffer.position();
+                    skip(buffer, 8L * revision.numChanges);
+                    revisions.add(revision);
+                    changesSinceCheckpoint += revision.numChanges;
+                }
+                else if (type == CHECKPOINT && !revisions.isEmpty())
+                {
+                    // The revision only gets the checkpoint once it is known
+                    // to be whole. A cut off one is dropped when the file is
+                    // truncated, so the revision must not point into it.
+                    int checkpointSize = buffer.getInt();
+                    long checkpointPos = buffer.position();
+                    skip(buffer, 4L * checkpointSize);
+
+                    Revision revision = revisions.get(revisions.size() - 1);
+                    revision.checkpointSize = checkpointSize;
+                    revision.checkpointPos = checkpointPos;
+                    lastCheckpoint = revisions.size() - 1;
+                    changesSinceCheckpoint = 0;
+                }
+                else break;
+
+                end = buffer.position();
+            }
+        }
+        catch (BufferUnderflowException e)
+        {
+            // The last record was cut off, it ends the history.
+        }
+    }
+
+    /**
+     * Adds the ranking as the next revision.
+     *
+     * @param label A name for the revision, e.g. the graph file.
+     * @param ranking The level of each ranked node.
+     *
+     * @return Returns the number of the revision.
+     */
+    public int commit(String label, Map<String,Integer> ranking) throws IOException
+    {
+        int number = revisions.size();
+        PersistentIntArray prev = number == 0
+            ? new PersistentIntArray(NO_LEVEL) : getVersion(number - 1);
+        int numIds = names.size();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        IntList changes = new IntList();
+
+        // New nodes get their ids first.
+        for (Map.Entry<String,Integer> entry : ranking.entrySet())
+        {
+            int id = names.getId(entry.getKey());
+            if (id == -1)
+            {
+                id = names.intern(entry.getKey());
+                out.writeByte(NAME);
+                writeString(out, entry.getKey());
+            }
+            if (prev.get(id) != entry.getValue())
+            {
+                changes.add(id);
+                changes.add(entry.getValue());
+            }
+        }
+
+        // Nodes that are no longer ranked.
+        for (int id = 0; id < numIds; id++)
+            if (prev.get(id) != NO_LEVEL && !ranking.containsKey(names.getName(id)))
+            {
+                changes.add(id);
+                changes.add(NO_LEVEL);
+            }
+
+        Revision revision = new Revision();
+        revision.label = label;
+        revision.numChanges = changes.size() / 2;
+
+        PersistentIntArray next = prev;
+        out.writeByte(REVISION);
+        writeString(out, label);
+        out.writeInt(revision.numChanges);
+        int changesOffset = out.size();
+        for (int index = 0; index < changes.size(); index += 2)
+        {
+            out.writeInt(changes.get(index));
+            out.writeInt(changes.get(index + 1));
+            next = next.set(changes.get(index), changes.get(index + 1));
+        }
+
+        // Write a checkpoint if rebuilding this revision got too costly.
+        int checkpointOffset = -1;
+        changesSinceCheckpoint += revision.numChanges;
+        if (number - lastCheckpoint >= CHECKPOINT_INTERVAL
+                || changesSinceCheckpoint > ranking.size())
+        {
+            out.writeByte(CHECKPOINT);
+            out.writeInt(names.size());
+            checkpointOffset = out.size();
+            for (int id = 0; id < names.size(); id++)
+                out.writeInt(next.get(id));
+            revision.checkpointSize = names.size();
+        }
+        out.flush();
+
+        writeFully(ByteBuffer.wrap(bytes.toByteArray()), end);
+        revision.changesPos = end + changesOffset;
+        if (checkpointOffset != -1)
+        {
+            revision.checkpointPos = end + checkpointOffset;
+            lastCheckpoint = number;
+            changesSinceCheckpoint = 0;
+        }
+        end += bytes.size();
+
+        revisions.add(revision);
+        versions.put(number, next);
+        return number;
+    }
+
+    /**
+     * Returns the number of revisions.
+     */
+    public int numRevisions()
+    {
+        return revisions.size();
+    }
+
+    /**
+     * Returns the label of the revision.
+     */
+    public String getLabel(int number)
+    {
+        return revisions.get(number).label;
+    }
+
+    /**
+     * Returns the number of nodes whose level changed in the revision,
+     * including nodes that were added or dropped.
+     */
+    public int numChanges(int number)
+    {
+        return revisions.get(number).numChanges;
+    }
+
+    /**
+     * Returns true if the revision has a checkpoint.
+     */
+    public boolean hasCheckpoint(int number)
+    {
+        return revisions.get(number).checkpointPos != -1;
+    }
+
+    /**
+     * Returns the level of the node in the revision, NO_LEVEL if it is not
+     * ranked.
+     */
+    public int getLevel(int number, String name) throws IOException
+    {
+        int id = names.getId(name);
+        return id == -1 ? NO_LEVEL : getVersion(number).get(id);
+    }
+
+    /**
+     * Returns the ranking of the revision.
+     */
+    public Map<String,Integer> getRanking(int number) throws IOException
+    {
+        PersistentIntArray version = getVersion(number);
+        Map<String,Integer> ranking = new HashMap<String,Integer>();
+        for (int id = 0; id < names.size(); id++)
+        {
+            int level = version.get(id);
+            if (level != NO_LEVEL)
+                ranking.put(names.getName(id), level);
+        }
+        return ranking;
+    }
+
+    /**
+     * Returns the levels of the revision by node id, rebuilding it if it is
+     * not in memory.
+     */
+    private PersistentIntArray getVersion(int number) throws IOException
+    {
+        if (number < 0 || number >= revisions.size())
+            throw new IndexOutOfBoundsException("No revision " + number);
+
+        PersistentIntArray version = versions.get(number);
+        if (version != null)
+            return version;
+
+        // Find the closest revision to start from.
+        int start = number;
+        while (start >= 0 && !versions.containsKey(start)
+                && revisions.get(start).checkpointPos == -1)
+            start--;
+
+        if (start == -1)
+            version = new PersistentIntArray(NO_LEVEL);
+        else if (versions.containsKey(start))
+            version = versions.get(start);
+        else
+        {
+            Revision revision = revisions.get(start);
+            ByteBuffer levels = read(revision.checkpointPos, 4 * revision.checkpointSize);
+            int[] values = new int[revision.checkpointSize];
+            levels.asIntBuffer().get(values);
+            version = PersistentIntArray.fromArray(values, values.length, NO_LEVEL);
+            versions.put(start, version);
+        }
+
+        // Apply the changes of the revisions in between.
+        for (int next = start + 1; next <= number; next++)
+        {
+            Revision revision = revisions.get(next);
+            ByteBuffer changes = read(revision.changesPos, 8 * revision.numChanges);
+            for (int index = 0; index < revision.numChanges; index++)
+                version = version.set(changes.getInt(), changes.getInt());
+        }
+
+        versions.put(number, version);
+        return version;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+
+    private ByteBuffer read(long pos, int length) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining())
+            if (channel.read(buffer, pos + buffer.position()) < 0)
+                throw new IOException("Ranking history ends early");
+        buffer.flip();
+        return buffer;
+    }
+
+    private void writeFully(ByteBuffer buffer, long pos) throws IOException
+    {
+        while (buffer.hasRemaining())
+            pos += channel.write(buffer, pos);
+    }
+
+    private static void skip(ByteBuffer buffer, long length)
+    {
+        if (length < 0 || length > buffer.remaining())
+            throw new BufferUnderflowException();
+        buffer.position(buffer.position() + (int) length);
+    }
+
+    private static void writeString(DataOutputStream out, String s)
+        throws IOException
+    {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer)
+    {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining())
+            throw new BufferUnderflowException();
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
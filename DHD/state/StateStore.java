@@ -0,0 +1,492 @@
+package DHD.state;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * @author Joshua A. Campbell
+ *
+ * The binary store behind the state file (tmp/__state), so that the state
+ * can be changed without rewriting it. The store is a snapshot of the whole
+ * state plus a journal of the levels set since the snapshot:
+ *
+ *  name.snap    : the snapshot, written at once by save(...) and compact().
+ *  name.journal : the journal, only ever appended to by append(...).
+ *
+ * Snapshot layout (big-endian, fixed width so the level of the i-th node
+ * is at HEADER_SIZE + 4 * i and can be read from a mapped file):
+ *  magic        : the 4 bytes "DHDS"
+ *  version      : int
+ *  numNodes     : int
+ *  textModified : long, the last modified time of the text state file the
+ *                 snapshot was written with
+ *  textLength   : long, its length
+ *  textChecksum : long, the CRC32 of its contents
+ *  levels       : numNodes ints
+ *  dictionary   : for each node, the length of its UTF-8 name then the name
+ *
+ * Journal layout: the 4 bytes "DHDJ", then one record per level set, the
+ * length of the UTF-8 name, the name and the level. A record cut off by a
+ * crash is ignored. Later entries win over earlier ones, in the snapshot as
+ * well as in the journal.
+ *
+ * The text state file stays the format every tool and script reads, and
+ * save(...) writes it as before. Between saves it may be older than the
+ * store. If the text file was changed by anything but save(...), e.g. a
+ * script that copied another state over it, its time, length or checksum no
+ * longer match the snapshot and load() imports the text file instead. The
+ * checksum catches a rewrite with the same length within the granularity
+ * of the file times, or a copy that kept the time (cp -p, rsync).
+ *
+ * This class was not meant to be thread-safe.
+ */
+public class StateStore
+{
+    // The endings of the snapshot and journal files.
+    public static final String snapshotEnding = ".snap";
+    public static final String journalEnding = ".journal";
+
+    private static final byte[] SNAPSHOT_MAGIC = { 'D', 'H', 'D', 'S' };
+    private static final byte[] JOURNAL_MAGIC = { 'D', 'H', 'D', 'J' };
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 8 + 8 + 8;
+
+    // The journal is folded into the snapshot once it has this many records
+    // and more records than the snapshot has nodes.
+    private static final int MIN_COMPACT_RECORDS = 1 << 12;
+
+    private File textFile;
+    private File snapshotFile;
+    private File journalFile;
+
+    // The number of nodes in the snapshot and records in the journal, -1
+    // until the store was loaded.
+    private int snapshotSize = -1;
+    private int journalRecords = -1;
+    // The length of the readable part of the journal.
+    private long journalEnd = 0;
+    // The text file the snapshot was written with.
+    private long textModified = 0;
+    private long textLength = 0;
+    private long textChecksum = 0;
+
+    /**
+     * @param textFile The text state file, e.g. tmp/__state. The store
+     * lives next to it.
+     */
+    public StateStore(File textFile)
+    {
+        this.textFile = textFile;
+        this.snapshotFile = new File(textFile.getPath() + snapshotEnding);
+        this.journalFile = new File(textFile.getPath() + journalEnding);
+    }
+
+    /**
+     * Returns the level of every node of the state.
+     */
+    public Map<String,Integer> load()
+    {
+        Map<String,Integer> state = new HashMap<String,Integer>();
+
+        if (!readSnapshot(state))
+        {
+            // There is no snapshot of the text file, start over from it.
+            state.clear();
+            readText(textFile, state);
+            textModified = textFile.lastModified();
+            textLength = textFile.length();
+            textChecksum = checksum(textFile);
+            if (writeSnapshot(state, null))
+                deleteJournal();
+            return state;
+        }
+
+        readJournal(state);
+        return state;
+    }
+
+    /**
+     * Sets the levels of the nodes in the journal. The text state file is
+     * not touched. The journal is compacted if it got too long.
+     *
+     * @param levels The new levels, may be for nodes new to the state.
+     */
+    public void append(Map<String,Integer> levels)
+    {
+        if (journalRecords == -1)
+            load();
+
+        // Drop a record that was cut off, it would hide the new ones.
+        if (journalFile.length() > journalEnd)
+        {
+            try (FileChannel channel = FileChannel.open(journalFile.toPath(),
+                        StandardOpenOption.WRITE))
+            {
+                channel.truncate(journalEnd);
+            }
+            catch (IOException e)
+            {
+                System.err.println(e);
+                return;
+            }
+        }
+
+        boolean header = journalEnd == 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(journalFile, true), 1 << 16)))
+        {
+            if (header)
+                out.write(JOURNAL_MAGIC);
+            for (Map.Entry<String,Integer> entry : levels.entrySet())
+                writeEntry(out, entry.getKey(), entry.getValue());
+
+            out.close();
+        }
+        catch (IOException e)
+        {
+            System.err.println("Unable to append to state journal: " + journalFile);
+            System.err.println(e);
+            return;
+        }
+
+        journalRecords += levels.size();
+        journalEnd = journalFile.length();
+        if (journalRecords >= MIN_COMPACT_RECORDS && journalRecords > snapshotSize)
+            compact();
+    }
+
+    /**
+     * Folds the journal into a new snapshot.
+     */
+    public void compact()
+    {
+        Map<String,Integer> state = new HashMap<String,Integer>();
+        if (!readSnapshot(state))
+            return;
+        readJournal(state);
+
+        // The text file is as old as before, so the snapshot keeps its
+        // time, length and checksum.
+        if (writeSnapshot(state, null))
+            deleteJournal();
+    }
+
+    /**
+     * Writes the whole state, the text file as well as a new snapshot, and
+     * empties the journal.
+     *
+     * @param state The level of each node.
+     * @param newNodes Nodes that get level 0 because they do not have a
+     * level yet, may be null.
+     */
+    public void save(Map<String,Integer> state, Collection<String> newNodes)
+    {
+        if (!writeText(state, newNodes))
+            return;
+
+        textModified = textFile.lastModified();
+        textLength = textFile.length();
+        if (writeSnapshot(state, newNodes))
+            deleteJournal();
+    }
+
+    /**
+     * Writes the text state file, one "name level" per line, and takes its
+     * checksum as it is written.
+     */
+    private boolean writeText(Map<String,Integer> state, Collection<String> newNodes)
+    {
+        CRC32 crc = new CRC32();
+        try (PrintWriter outWriter = new PrintWriter(new BufferedWriter(
+                        new OutputStreamWriter(new CheckedOutputStream(
+                                new FileOutputStream(textFile), crc)), 1 << 16)))
+        {
+            for (Map.Entry<String,Integer> entry : state.entrySet())
+                outWriter.println(entry.getKey() + " " + entry.getValue());
+
+            // We write 0 because this node level has not been assigned
+            // yet.
+            if (newNodes != null)
+                for (String name : newNodes)
+                    outWriter.println(name + " " + 0);
+
+            outWriter.close();
+        }
+        catch (IOException e)
+        {
+            System.err.println("Unable to write state file!");
+            System.err.println(e);
+            return false;
+        }
+
+        textChecksum = crc.getValue();
+        return true;
+    }
+
+    /**
+     * Writes the snapshot to a temporary file and moves it in place, so a
+     * crash leaves either the old or the new snapshot.
+     */
+    private boolean writeSnapshot(Map<String,Integer> state, Collection<String> newNodes)
+    {
+        int numNodes = state.size() + (newNodes == null ? 0 : newNodes.size());
+        File tempFile = new File(snapshotFile.getPath() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(tempFile), 1 << 16)))
+        {
+            out.write(SNAPSHOT_MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(numNodes);
+            out.writeLong(textModified);
+            out.writeLong(textLength);
+            out.writeLong(textChecksum);
+
+            // The levels, then the names in the same order.
+            for (int level : state.values())
+                out.writeInt(level);
+            if (newNodes != null)
+                for (int index = 0; index < newNodes.size(); index++)
+                    out.writeInt(0);
+
+            for (String name : state.keySet())
+                writeName(out, name);
+            if (newNodes != null)
+                for (String name : newNodes)
+                    writeName(out, name);
+
+            out.close();
+        }
+        catch (IOException e)
+        {
+            System.err.println("Unable to write state snapshot: " + snapshotFile);
+            System.err.println(e);
+            return false;
+        }
+
+        if (!tempFile.renameTo(snapshotFile))
+        {
+            // Some platforms do not replace on rename.
+            snapshotFile.delete();
+            if (!tempFile.renameTo(snapshotFile))
+            {
+                System.err.println("Unable to replace state snapshot: " + snapshotFile);
+                return false;
+            }
+        }
+
+        snapshotSize = numNodes;
+        return true;
+    }
+
+    private void deleteJournal()
+    {
+        if (journalFile.exists() && !journalFile.delete())
+            System.err.println("Unable to delete state journal: " + journalFile);
+        journalRecords = 0;
+        journalEnd = 0;
+    }
+
+    /**
+     * Reads the snapshot into the state.
+     *
+     * @return Returns false if there is no snapshot that belongs to the
+     * current text state file.
+     */
+    private boolean readSnapshot(Map<String,Integer> state)
+    {
+        if (!snapshotFile.exists())
+            return false;
+
+        try (FileChannel channel = FileChannel.open(snapshotFile.toPath(),
+                    StandardOpenOption.READ))
+        {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                    0, channel.size());
+            if (buffer.remaining() < HEADER_SIZE || !hasMagic(buffer, SNAPSHOT_MAGIC)
+                    || buffer.getInt() != VERSION)
+                return false;
+
+            int numNodes = buffer.getInt();
+            textModified = buffer.getLong();
+            textLength = buffer.getLong();
+            textChecksum = buffer.getLong();
+
+            // The text file was replaced or deleted behind our back. A file
+            // that does not exist has time, length and checksum 0. The
+            // checksum is only taken if the time and length match.
+            if (textFile.lastModified() != textModified
+                    || textFile.length() != textLength
+                    || checksum(textFile) != textChecksum)
+                return false;
+
+            // The names start after the levels.
+            int levelPos = HEADER_SIZE;
+            buffer.position(HEADER_SIZE + 4 * numNodes);
+            for (int index = 0; index < numNodes; index++)
+            {
+                state.put(readName(buffer), buffer.getInt(levelPos));
+                levelPos += 4;
+            }
+            snapshotSize = numNodes;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            System.err.println("Unable to read state snapshot: " + snapshotFile);
+            System.err.println(e);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Replays the journal over the state. Sets journalRecords and
+     * journalEnd.
+     */
+    private void readJournal(Map<String,Integer> state)
+    {
+        journalRecords = 0;
+        journalEnd = 0;
+        if (!journalFile.exists())
+            return;
+
+        try (FileChannel channel = FileChannel.open(journalFile.toPath(),
+                    StandardOpenOption.READ))
+        {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                    0, channel.size());
+            if (buffer.remaining() < JOURNAL_MAGIC.length || !hasMagic(buffer, JOURNAL_MAGIC))
+                return;
+            journalEnd = buffer.position();
+
+            while (buffer.remaining() >= 4)
+            {
+                // Stop at a record that was cut off.
+                int length = buffer.getInt(buffer.position());
+                if (length < 0 || buffer.remaining() < 4 + length + 4)
+                    break;
+
+                String name = readName(buffer);
+                state.put(name, buffer.getInt());
+                journalRecords++;
+                journalEnd = buffer.position();
+            }
+        }
+        catch (IOException e)
+        {
+            System.err.println("Unable to read state journal: " + journalFile);
+            System.err.println(e);
+        }
+    }
+
+    /**
+     * Reads a ranking in the text state file format, one "name level" per
+     * line, into the map. Lines without a level are skipped.
+     */
+    public static void readText(File textFile, Map<String,Integer> state)
+    {
+        if (!textFile.exists())
+            return;
+
+        String line;
+        try (BufferedReader input = new BufferedReader(new FileReader(textFile)))
+        {
+            while ((line = input.readLine()) != null)
+            {
+                // Split the line at the whitespace between name and level.
+                int nameEnd = 0;
+                while (nameEnd < line.length() && !Character.isWhitespace(line.charAt(nameEnd)))
+                    nameEnd++;
+                int levelBegin = nameEnd;
+                while (levelBegin < line.length() && Character.isWhitespace(line.charAt(levelBegin)))
+                    levelBegin++;
+                if (nameEnd == 0 || levelBegin == line.length())
+                    continue;
+
+                state.put(line.substring(0, nameEnd),
+                        Integer.parseInt(line.substring(levelBegin).trim()));
+            }
+
+            input.close();
+        }
+        catch (IOException e)
+        {
+            System.err.println(e);
+        }
+    }
+
+    /**
+     * Returns the CRC32 of the contents of the file, 0 if it does not exist
+     * and -1, which no CRC32 is, if it can not be read.
+     */
+    private static long checksum(File file)
+    {
+        if (!file.exists())
+            return 0;
+
+        CRC32 crc = new CRC32();
+        byte[] bytes = new byte[1 << 16];
+        try (InputStream in = new FileInputStream(file))
+        {
+            int count;
+            while ((count = in.read(bytes)) != -1)
+                crc.update(bytes, 0, count);
+        }
+        catch (IOException e)
+        {
+            System.err.println(e);
+            return -1;
+        }
+        return crc.getValue();
+    }
+
+    private static boolean hasMagic(MappedByteBuffer buffer, byte[] magic)
+    {
+        for (byte b : magic)
+            if (buffer.get() != b)
+                return false;
+        return true;
+    }
+
+    private static void writeEntry(DataOutputStream out, String name, int level)
+        throws IOException
+    {
+        writeName(out, name);
+        out.writeInt(level);
+    }
+
+    private static void writeName(DataOutputStream out, String name)
+        throws IOException
+    {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readName(MappedByteBuffer buffer)
+    {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -167,10 +167,6 @@ while trialCounter <= trials:
             timeAvg[counter] = 0
 
         print "Starting: Iteration:", counter, '/', itersPerTrial, 'Trial:', trialCounter, '/', trials
-        # Make the new directories.
-        call(['mkdir', '-p',
-            'tmp/trial'+str(trialCounter)+'/iter'+str(counter)+'/'])
-
         # Dynamically solve the mutated graph.
         # We use the state file from HIDEN's output.
         print "Calculating DHD."
@@ -184,8 +180,11 @@ while trialCounter <= trials:
         call(['java', '-jar', 'DHD.jar', '-f', mut_sol_file])
         # Save state for next iteration.
         call(['cp', 'tmp/__state', 'tmp/__mstate'])
-        call(['cp', mut_sol_file,
-            'tmp/trial'+str(trialCounter)+'/iter'+str(counter)+'/dhd_state'])
+        # Add the ranking to this trial's history, which only stores the
+        # nodes that changed since the previous iteration.
+        call(['java', '-cp', 'DHD.jar', 'DHD.RankingArchiver', '-h',
+            'tmp/trial'+str(trialCounter)+'/dhd.history', '-a', 'tmp/__state',
+            '-m', mutatedGraph])
         # Save penalty. These values will be integer, but we will pipe through bc in case of rounding errors (like 6.0000001)
         f = open(mut_sol_file)
         f.readline(); # Skip the first line.
@@ -200,9 +199,10 @@ while trialCounter <= trials:
         call([os.curdir + '/scip_script', sol_file])
         htimeTemp += float(open('tmp/time').readline())
         call(['rm', 'tmp/time'])
-        call(['cp', sol_file,
-            'tmp/trial'+str(trialCounter)+'/iter'+str(counter)+'/hid_state'])
         call(['java', '-jar', 'DHD.jar', '-f', sol_file])
+        call(['java', '-cp', 'DHD.jar', 'DHD.RankingArchiver', '-h',
+            'tmp/trial'+str(trialCounter)+'/hid.history', '-a', 'tmp/__state',
+            '-m', mutatedGraph])
         # Save penalty. These values will be integer, but we will pipe through bc in case of rounding errors (like 6.0000001)
         f = open(sol_file)
         f.readline() # Skip the first line
@@ -0,0 +1,160 @@
+package DHD.ilp;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import DHD.ds.*;
+
+/**
+ * @author Joshua A. Campbell
+ *
+ * Runs a partial ILP through presolve, generation and the merge of its
+ * solution into the state, and scores the merged ranking.
+ *
+ * The modified node v (level 5) only has edges whose penalty is decided by
+ * its bounds, [4, 6] with a level change of 1 or [5, 5] with none:
+ *  v -> b (b = 0), v -> d (d = 2), a -> v (a = 7)
+ * none of which is violated. The solver is simulated from the start
+ * solution, and like SCIP it leaves out the variables that are 0. The
+ * merged ranking must keep v within its bounds and score no worse than the
+ * previous ranking.
+ *
+ * Usage:
+ *  java -cp tmp/test:. DHD.ilp.PresolveMergeTest
+ */
+public class PresolveMergeTest
+{
+    private static final int NUM_LEVELS = 8;
+
+    // We do not allow instantiation of a test.
+    private PresolveMergeTest(){}
+
+    public static void main(String[] args) throws IOException
+    {
+        File dir = Files.createTempDirectory("presolve").toFile();
+
+        Map<String,Integer> rankings = new HashMap<String,Integer>();
+        rankings.put("v", 5);
+        rankings.put("a", 7);
+        rankings.put("b", 0);
+        rankings.put("d", 2);
+
+        Node v = new Node("v");
+        Node a = new Node("a");
+        Node b = new Node("b");
+        Node d = new Node("d");
+        Set<Edge> edges = new HashSet<Edge>();
+        edges.add(new Edge(v, b));
+        edges.add(new Edge(v, d));
+        edges.add(new Edge(a, v));
+
+        Set<Node> modifiedNodes = new HashSet<Node>();
+        modifiedNodes.add(v);
+        Set<Node> unmodifiedNodes = new HashSet<Node>();
+        unmodifiedNodes.add(a);
+        unmodifiedNodes.add(b);
+        unmodifiedNodes.add(d);
+
+        for (int run = 0; run < 4; run++)
+        {
+            boolean compactNames = run % 2 == 1;
+            int levelChange = run / 2 == 0 ? 1 : 0;
+            PartialILPGenerator generator = new PartialILPGenerator(edges,
+                    unmodifiedNodes, modifiedNodes, rankings,
+                    new CplexLPFormatter(), levelChange, NUM_LEVELS);
+            generator.setCompactNames(compactNames);
+
+            File lp = new File(dir, "temp.lp");
+            check(generator.generate(lp), "the ILP was not written");
+            Presolver presolver = generator.getPresolver();
+            check(presolver.getRemainingEdges().isEmpty(),
+                    "the bounds should decide every edge");
+
+            // Solve the ILP by hand: the previous ranking is optimal.
+            File start = new File(dir, "start.sol");
+            new StartSolutionWriter(presolver, generator.getModel(), rankings,
+                    start).write();
+            File solution = new File(dir, "temp.sol");
+            writeNonZeros(start, solution);
+
+            // Merge the solution into the state the way the -f merge does.
+            Map<String,Integer> merged = generator.getMergeState(rankings,
+                    modifiedNodes);
+            ILPSolution result = new ILPOutputReader(solution,
+                    ILPGenerator.dictionaryFile(lp)).read();
+            merged.putAll(result.getLevels());
+
+            // Score the merged ranking.
+            for (Node node : modifiedNodes)
+            {
+                int level = merged.get(node.getName());
+                check(level >= presolver.getLowerBound(node.getName())
+                        && level <= presolver.getUpperBound(node.getName()),
+                        node + " was merged at " + level
+                        + ", outside of its bounds");
+            }
+            int penalty = score(edges, merged);
+            check(penalty == result.getRoundedObjective(), "the merged ranking"
+                    + " scores " + penalty + ", the ILP "
+                    + result.getRoundedObjective());
+            check(penalty <= score(edges, rankings), "the merged ranking"
+                    + " scores worse than the previous ranking");
+        }
+
+        for (File file : dir.listFiles())
+            file.delete();
+        dir.delete();
+        System.out.println("PresolveMergeTest passed.");
+    }
+
+    /**
+     * Copies the solution, leaving out the variables that are 0 as SCIP
+     * does.
+     */
+    private static void writeNonZeros(File from, File to) throws IOException
+    {
+        try (BufferedReader input = new BufferedReader(new FileReader(from));
+             PrintWriter output = new PrintWriter(to))
+        {
+            String line;
+            boolean variables = false;
+            while ((line = input.readLine()) != null)
+            {
+                String[] lineObjs = line.trim().split("\\s+");
+                if (!variables || !lineObjs[1].equals("0"))
+                    output.println(line);
+                variables |= line.startsWith("objective value:");
+            }
+        }
+    }
+
+    /**
+     * Returns the number of edges (from, to) with level(to) GTE level(from).
+     */
+    private static int score(Set<Edge> edges, Map<String,Integer> levels)
+    {
+        int penalty = 0;
+        for (Edge edge : edges)
+            if (levels.get(edge.getTo().getName())
+                    >= levels.get(edge.getFrom().getName()))
+                penalty++;
+        return penalty;
+    }
+
+    private static void check(boolean condition, String message)
+    {
+        if (!condition)
+        {
+            System.err.println("PresolveMergeTest failed: " + message);
+            System.exit(1);
+        }
+    }
+}
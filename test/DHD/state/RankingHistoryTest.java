@@ -0,0 +1,99 @@
+package DHD.state;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Joshua A. Campbell
+ *
+ * Cuts a ranking history off in the middle of a checkpoint, as a crash
+ * while it is written would, and checks that the history drops the
+ * checkpoint: the revision is rebuilt from its changes, and a revision
+ * committed afterwards does not corrupt the ones before it.
+ *
+ * Usage:
+ *  java -cp tmp/test:. DHD.state.RankingHistoryTest
+ */
+public class RankingHistoryTest
+{
+    // We do not allow instantiation of a test.
+    private RankingHistoryTest(){}
+
+    public static void main(String[] args) throws IOException
+    {
+        File historyFile = File.createTempFile("history", ".dhdh");
+        historyFile.delete();
+
+        List<Map<String,Integer>> rankings = new ArrayList<Map<String,Integer>>();
+        rankings.add(ranking("a", 1, "b", 2));
+        // Every level changes, so this revision gets a checkpoint.
+        rankings.add(ranking("a", 2, "b", 3));
+        rankings.add(ranking("a", 5, "b", 6));
+
+        try (RankingHistory history = new RankingHistory(historyFile))
+        {
+            history.commit("r0", rankings.get(0));
+            history.commit("r1", rankings.get(1));
+            check(history.hasCheckpoint(1), "the revision has no checkpoint");
+        }
+
+        // Cut the last level of the checkpoint off.
+        try (RandomAccessFile file = new RandomAccessFile(historyFile, "rw"))
+        {
+            file.setLength(file.length() - 2);
+        }
+
+        try (RankingHistory history = new RankingHistory(historyFile))
+        {
+            check(history.numRevisions() == 2, "the revisions were not kept");
+            check(!history.hasCheckpoint(1), "the cut off checkpoint was kept");
+            history.commit("r2", rankings.get(2));
+            checkRankings(history, rankings);
+        }
+
+        // The revisions are rebuilt from the file alone.
+        try (RankingHistory history = new RankingHistory(historyFile))
+        {
+            checkRankings(history, rankings);
+        }
+
+        historyFile.delete();
+        System.out.println("RankingHistoryTest passed.");
+    }
+
+    /**
+     * Checks that the history holds the rankings in order.
+     */
+    private static void checkRankings(RankingHistory history,
+            List<Map<String,Integer>> rankings) throws IOException
+    {
+        check(history.numRevisions() == rankings.size(), "the history has "
+                + history.numRevisions() + " revisions");
+        for (int number = rankings.size() - 1; number >= 0; number--)
+            check(history.getRanking(number).equals(rankings.get(number)),
+                    "revision " + number + " is " + history.getRanking(number));
+    }
+
+    private static Map<String,Integer> ranking(String a, int aLevel,
+            String b, int bLevel)
+    {
+        Map<String,Integer> ranking = new HashMap<String,Integer>();
+        ranking.put(a, aLevel);
+        ranking.put(b, bLevel);
+        return ranking;
+    }
+
+    private static void check(boolean condition, String message)
+    {
+        if (!condition)
+        {
+            System.err.println("RankingHistoryTest failed: " + message);
+            System.exit(1);
+        }
+    }
+}
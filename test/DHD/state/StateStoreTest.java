@@ -0,0 +1,76 @@
+package DHD.state;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @author Joshua A. Campbell
+ *
+ * Rewrites the text state file behind the back of the store with a ranking
+ * of the same length and the same last modified time, as a rewrite within
+ * the granularity of the file times or cp -p would, and checks that the
+ * store reads the new ranking instead of its stale snapshot and journal.
+ *
+ * Usage:
+ *  java -cp tmp/test:. DHD.state.StateStoreTest
+ */
+public class StateStoreTest
+{
+    // We do not allow instantiation of a test.
+    private StateStoreTest(){}
+
+    public static void main(String[] args) throws IOException
+    {
+        File dir = Files.createTempDirectory("state").toFile();
+        File textFile = new File(dir, "__state");
+
+        Map<String,Integer> state = new HashMap<String,Integer>();
+        state.put("a", 3);
+        state.put("b", 1);
+
+        StateStore store = new StateStore(textFile);
+        store.save(state, null);
+        Map<String,Integer> journal = new HashMap<String,Integer>();
+        journal.put("b", 2);
+        store.append(journal);
+        long modified = textFile.lastModified();
+        long length = textFile.length();
+
+        // The same length, another level, and the time of the old file.
+        try (PrintWriter out = new PrintWriter(textFile))
+        {
+            out.println("a 4");
+            out.println("b 1");
+        }
+        check(textFile.setLastModified(modified), "the time was not set");
+        check(textFile.length() == length, "the length changed");
+
+        Map<String,Integer> expected = new HashMap<String,Integer>();
+        expected.put("a", 4);
+        expected.put("b", 1);
+        Map<String,Integer> loaded = new StateStore(textFile).load();
+        check(loaded.equals(expected), "the store loaded " + loaded);
+
+        // The store is in step with the text file again.
+        check(new StateStore(textFile).load().equals(expected),
+                "the store did not start over from the text file");
+
+        for (File file : dir.listFiles())
+            file.delete();
+        dir.delete();
+        System.out.println("StateStoreTest passed.");
+    }
+
+    private static void check(boolean condition, String message)
+    {
+        if (!condition)
+        {
+            System.err.println("StateStoreTest failed: " + message);
+            System.exit(1);
+        }
+    }
+}